@@ -17,12 +17,9 @@ package com.google.cloud.opentelemetry.metric;
 
 import static com.google.cloud.opentelemetry.metric.MetricTranslator.mapDistribution;
 import static com.google.cloud.opentelemetry.metric.MetricTranslator.mapInterval;
-import static com.google.cloud.opentelemetry.metric.MetricTranslator.mapMetric;
-import static com.google.cloud.opentelemetry.metric.MetricTranslator.mapMetricDescriptor;
-import static com.google.cloud.opentelemetry.metric.ResourceTranslator.mapResource;
 
+import com.google.api.Distribution;
 import com.google.api.MetricDescriptor;
-import com.google.cloud.opentelemetry.metric.MetricExporter.MetricWithLabels;
 import com.google.monitoring.v3.TimeSeries;
 import com.google.monitoring.v3.TypedValue;
 import io.opentelemetry.api.common.Attributes;
@@ -30,6 +27,8 @@ import io.opentelemetry.sdk.metrics.data.DoublePointData;
 import io.opentelemetry.sdk.metrics.data.HistogramPointData;
 import io.opentelemetry.sdk.metrics.data.LongPointData;
 import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.PointData;
+import io.opentelemetry.sdk.metrics.internal.data.exponentialhistogram.ExponentialHistogramPointData;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -41,14 +40,35 @@ public class AggregateByLabelMetricTimeSeriesBuilder implements MetricTimeSeries
   private final Map<String, MetricDescriptor> descriptors = new HashMap<>();
   private final Map<MetricWithLabels, TimeSeries.Builder> pendingTimeSeries = new HashMap<>();
   private final String projectId;
+  private final MetricDescriptorCache descriptorCache;
+  private final TimeSeriesHeaderTable headerTable;
+  private final HistogramCompaction compaction;
+  // Points arrive grouped by metric, so remember the last instrument to skip its key lookup.
+  private MetricData lastMetric;
+  private MetricDescriptorCache.Instrument lastInstrument;
 
   public AggregateByLabelMetricTimeSeriesBuilder(String projectId) {
+    this(
+        projectId,
+        new MetricDescriptorCache(),
+        new TimeSeriesHeaderTable(new MonitoredResourceCache()),
+        HistogramCompaction.NONE);
+  }
+
+  AggregateByLabelMetricTimeSeriesBuilder(
+      String projectId,
+      MetricDescriptorCache descriptorCache,
+      TimeSeriesHeaderTable headerTable,
+      HistogramCompaction compaction) {
     this.projectId = projectId;
+    this.descriptorCache = descriptorCache;
+    this.headerTable = headerTable;
+    this.compaction = compaction;
   }
 
   @Override
   public void recordPoint(MetricData metric, LongPointData point) {
-    MetricDescriptor descriptor = mapMetricDescriptor(metric, point);
+    MetricDescriptor descriptor = descriptorFor(metric, point);
     if (descriptor == null) {
       // Unsupported type.
       return;
@@ -67,7 +87,7 @@ public class AggregateByLabelMetricTimeSeriesBuilder implements MetricTimeSeries
 
   @Override
   public void recordPoint(MetricData metric, DoublePointData point) {
-    MetricDescriptor descriptor = mapMetricDescriptor(metric, point);
+    MetricDescriptor descriptor = descriptorFor(metric, point);
     if (descriptor == null) {
       // Unsupported type.
       return;
@@ -85,7 +105,25 @@ public class AggregateByLabelMetricTimeSeriesBuilder implements MetricTimeSeries
 
   @Override
   public void recordPoint(MetricData metric, HistogramPointData point) {
-    MetricDescriptor descriptor = mapMetricDescriptor(metric, point);
+    MetricDescriptor descriptor = descriptorFor(metric, point);
+    if (descriptor == null) {
+      // Unsupported type.
+      return;
+    }
+    descriptors.putIfAbsent(descriptor.getType(), descriptor);
+    MetricWithLabels key = new MetricWithLabels(descriptor.getType(), point.getAttributes());
+    Distribution.Builder distribution = compaction.mapDistribution(metric, point, projectId);
+    pendingTimeSeries
+        .computeIfAbsent(key, k -> makeTimeSeriesHeader(metric, point.getAttributes(), descriptor))
+        .addPoints(
+            com.google.monitoring.v3.Point.newBuilder()
+                .setValue(TypedValue.newBuilder().setDistributionValue(distribution))
+                .setInterval(mapInterval(point, metric)));
+  }
+
+  @Override
+  public void recordPoint(MetricData metric, ExponentialHistogramPointData point) {
+    MetricDescriptor descriptor = descriptorFor(metric, point);
     if (descriptor == null) {
       // Unsupported type.
       return;
@@ -101,12 +139,17 @@ public class AggregateByLabelMetricTimeSeriesBuilder implements MetricTimeSeries
                 .setInterval(mapInterval(point, metric)));
   }
 
+  private MetricDescriptor descriptorFor(MetricData metric, PointData point) {
+    if (metric != lastMetric) {
+      lastMetric = metric;
+      lastInstrument = descriptorCache.forInstrument(metric);
+    }
+    return lastInstrument.get(metric, point);
+  }
+
   private TimeSeries.Builder makeTimeSeriesHeader(
       MetricData metric, Attributes attributes, MetricDescriptor descriptor) {
-    return TimeSeries.newBuilder()
-        .setMetric(mapMetric(attributes, descriptor.getType()))
-        .setMetricKind(descriptor.getMetricKind())
-        .setResource(mapResource(metric.getResource()));
+    return headerTable.get(metric, attributes, descriptor).toBuilder();
   }
 
   @Override
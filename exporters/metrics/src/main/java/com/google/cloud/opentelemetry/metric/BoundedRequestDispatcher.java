@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs asynchronous Cloud Monitoring requests while keeping at most a fixed number in flight.
+ *
+ * <p>Requests over the limit are queued and started, in order, as earlier requests complete, so
+ * dispatching never blocks. Each dispatched request is represented by a {@link
+ * CompletableResultCode} that completes with the request's outcome.
+ */
+final class BoundedRequestDispatcher {
+
+  private static final Logger logger = LoggerFactory.getLogger(BoundedRequestDispatcher.class);
+
+  private final int maxInFlight;
+  private final Set<CompletableResultCode> outstanding = ConcurrentHashMap.newKeySet();
+  // Guarded by this.
+  private final Queue<PendingRequest> queued = new ArrayDeque<>();
+  // Guarded by this.
+  private int inFlight;
+
+  BoundedRequestDispatcher(int maxInFlight) {
+    Preconditions.checkArgument(maxInFlight > 0, "maxInFlight must be positive.");
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Starts (or queues) an asynchronous request.
+   *
+   * @param request issues the RPC and returns its future. Called at most once.
+   * @return a result that completes when the request has completed.
+   */
+  CompletableResultCode dispatch(Supplier<? extends ApiFuture<?>> request) {
+    PendingRequest pending = new PendingRequest(request);
+    outstanding.add(pending.result);
+    pending.result.whenComplete(() -> outstanding.remove(pending.result));
+    synchronized (this) {
+      if (inFlight >= maxInFlight) {
+        queued.add(pending);
+        return pending.result;
+      }
+      inFlight++;
+    }
+    start(pending);
+    return pending.result;
+  }
+
+  /**
+   * Blocks until fewer than {@code maxQueued} requests are waiting to start. Callers that produce
+   * requests faster than they complete use this to bound how many are held in memory.
+   */
+  void awaitQueuedBelow(int maxQueued) throws InterruptedException {
+    synchronized (this) {
+      while (queued.size() >= maxQueued) {
+        wait();
+      }
+    }
+  }
+
+  /** Returns a result that completes once every request dispatched so far has completed. */
+  CompletableResultCode flush() {
+    return CompletableResultCode.ofAll(new ArrayList<>(outstanding));
+  }
+
+  private void start(PendingRequest pending) {
+    ApiFuture<?> future;
+    try {
+      future = pending.request.get();
+    } catch (RuntimeException e) {
+      future = ApiFutures.immediateFailedFuture(e);
+    }
+    ApiFutures.addCallback(
+        future,
+        new ApiFutureCallback<Object>() {
+          @Override
+          public void onFailure(Throwable t) {
+            logger.warn("Request to Cloud Monitoring failed", t);
+            pending.result.fail();
+            startNext();
+          }
+
+          @Override
+          public void onSuccess(Object result) {
+            pending.result.succeed();
+            startNext();
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private void startNext() {
+    PendingRequest next;
+    synchronized (this) {
+      next = queued.poll();
+      notifyAll();
+      if (next == null) {
+        inFlight--;
+        return;
+      }
+    }
+    start(next);
+  }
+
+  private static final class PendingRequest {
+    private final Supplier<? extends ApiFuture<?>> request;
+    private final CompletableResultCode result = new CompletableResultCode();
+
+    PendingRequest(Supplier<? extends ApiFuture<?>> request) {
+      this.request = request;
+    }
+  }
+}
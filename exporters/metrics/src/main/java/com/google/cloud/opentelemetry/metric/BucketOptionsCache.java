@@ -0,0 +1,68 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import com.google.api.Distribution.BucketOptions;
+import com.google.api.Distribution.BucketOptions.Explicit;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+
+/**
+ * Interns explicit-bucket {@link BucketOptions} by boundary layout, so every point of a histogram
+ * shares one immutable proto instead of boxing and copying its boundaries into a new one.
+ *
+ * <p>The SDK hands every point of an instrument the same boundaries list, so lookups go by list
+ * identity first and only hash the boundary values the first time a list is seen. Both levels are
+ * bounded, and identity keys are held weakly.
+ */
+final class BucketOptionsCache {
+
+  static final int DEFAULT_MAX_LAYOUTS = 256;
+
+  private final Cache<List<Double>, BucketOptions> byIdentity;
+  private final Cache<List<Double>, BucketOptions> byLayout;
+
+  BucketOptionsCache() {
+    this(DEFAULT_MAX_LAYOUTS);
+  }
+
+  BucketOptionsCache(int maxLayouts) {
+    this.byIdentity = CacheBuilder.newBuilder().weakKeys().maximumSize(maxLayouts).build();
+    this.byLayout = CacheBuilder.newBuilder().maximumSize(maxLayouts).build();
+  }
+
+  /** Returns the shared {@link BucketOptions} for explicit buckets with these boundaries. */
+  BucketOptions explicit(List<Double> boundaries) {
+    BucketOptions options = byIdentity.getIfPresent(boundaries);
+    if (options != null) {
+      return options;
+    }
+    options = byLayout.getIfPresent(boundaries);
+    if (options == null) {
+      Explicit.Builder explicit = Explicit.newBuilder();
+      for (int i = 0; i < boundaries.size(); i++) {
+        explicit.addBounds(boundaries.get(i));
+      }
+      options = BucketOptions.newBuilder().setExplicitBuckets(explicit).build();
+      // Copy the key so that a caller mutating its list cannot corrupt the cache.
+      byLayout.put(ImmutableList.copyOf(boundaries), options);
+    }
+    byIdentity.put(boundaries, options);
+    return options;
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.MetricDataType;
+import io.opentelemetry.sdk.metrics.data.PointData;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caps the number of time series exported for each metric of each project.
+ *
+ * <p>The series admitted for a metric of a project are kept in a {@link LongLongHashMap} from
+ * {@link SeriesFingerprint} to the time of their latest point. Once a metric has reached the cap,
+ * points of further series are folded into a single overflow series carrying only the {@code
+ * otel.metric.overflow=true} attribute, using the merge rules of {@link PointMerger}. Series that
+ * received no point for an hour are forgotten, which makes room for new ones. Exponential
+ * histograms cannot be merged and are not capped.
+ *
+ * <p>The cumulative total of the overflow series drops whenever a series leaves it, so for
+ * cumulative metrics the overflow series is restarted, with a start time just after its previous
+ * point, each time the set of series folded into it changes.
+ */
+final class CardinalityLimiter {
+
+  private static final Logger logger = LoggerFactory.getLogger(CardinalityLimiter.class);
+
+  static final Attributes OVERFLOW_ATTRIBUTES =
+      Attributes.of(AttributeKey.booleanKey("otel.metric.overflow"), true);
+
+  private static final long SERIES_IDLE_EXPIRY_NANOS = TimeUnit.HOURS.toNanos(1);
+  private static final long MIN_PRUNE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+  // Cloud Monitoring needs the start time of a restarted series to be after its previous point.
+  private static final long RESTART_GAP_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final int maxSeriesPerMetric;
+  // By project, then metric name.
+  private final ConcurrentMap<String, ConcurrentMap<String, MetricSeries>> seriesByMetric =
+      new ConcurrentHashMap<>();
+  private final LongAdder foldedPoints = new LongAdder();
+
+  CardinalityLimiter(int maxSeriesPerMetric) {
+    this.maxSeriesPerMetric = maxSeriesPerMetric;
+  }
+
+  /**
+   * Returns {@code metric} with the points of series over the cap of its metric in {@code
+   * projectId} folded into the overflow series, or {@code metric} itself if every series is within
+   * the cap.
+   */
+  MetricData limit(String projectId, MetricData metric) {
+    if (metric.getType() == MetricDataType.EXPONENTIAL_HISTOGRAM) {
+      return metric;
+    }
+    MetricSeries series =
+        seriesByMetric
+            .computeIfAbsent(projectId, project -> new ConcurrentHashMap<>())
+            .computeIfAbsent(metric.getName(), name -> new MetricSeries());
+    LongLongHashMap admitted = new LongLongHashMap();
+    int folded = 0;
+    // Identifies the set of folded series regardless of their order.
+    long foldedMembership = 0;
+    long overflowEnd = Long.MIN_VALUE;
+    long overflowRestart;
+    synchronized (series) {
+      for (PointData point : metric.getData().getPoints()) {
+        long fingerprint =
+            SeriesFingerprint.of(projectId, metric.getName(), point.getAttributes());
+        if (series.admit(fingerprint, point.getEpochNanos(), maxSeriesPerMetric)) {
+          admitted.put(fingerprint, 1);
+        } else {
+          folded++;
+          foldedMembership += fingerprint;
+          overflowEnd = Math.max(overflowEnd, point.getEpochNanos());
+        }
+      }
+      if (folded == 0) {
+        return metric;
+      }
+      overflowRestart =
+          isCumulative(metric) ? series.overflowRestart(foldedMembership, overflowEnd) : 0;
+    }
+    foldedPoints.add(folded);
+    if (!series.warned) {
+      series.warned = true;
+      logger.warn(
+          "Metric {} of project {} exceeded {} time series; further series are folded into an"
+              + " overflow series.",
+          metric.getName(),
+          projectId,
+          maxSeriesPerMetric);
+    }
+    return PointMerger.regroup(
+        metric,
+        attributes ->
+            admitted.containsKey(SeriesFingerprint.of(projectId, metric.getName(), attributes))
+                ? attributes
+                : OVERFLOW_ATTRIBUTES,
+        (attributes, start) ->
+            OVERFLOW_ATTRIBUTES.equals(attributes) ? Math.max(start, overflowRestart) : start);
+  }
+
+  private static boolean isCumulative(MetricData metric) {
+    switch (metric.getType()) {
+      case LONG_SUM:
+        return metric.getLongSumData().getAggregationTemporality()
+            == AggregationTemporality.CUMULATIVE;
+      case DOUBLE_SUM:
+        return metric.getDoubleSumData().getAggregationTemporality()
+            == AggregationTemporality.CUMULATIVE;
+      case HISTOGRAM:
+        return metric.getHistogramData().getAggregationTemporality()
+            == AggregationTemporality.CUMULATIVE;
+      default:
+        return false;
+    }
+  }
+
+  /** Returns the number of points folded into overflow series so far. */
+  long getFoldedPoints() {
+    return foldedPoints.sum();
+  }
+
+  private static final class MetricSeries {
+    // Guarded by this.
+    private final LongLongHashMap lastSeen = new LongLongHashMap();
+    // Guarded by this.
+    private long latestPoint = Long.MIN_VALUE;
+    // Guarded by this.
+    private long lastPrune;
+    // Guarded by this.
+    private long overflowMembership;
+    // The end of the latest overflow point, or 0 if there was none. Guarded by this.
+    private long overflowEnd;
+    // The start time of the current run of the overflow series, or 0. Guarded by this.
+    private long overflowRestart;
+    // Only used to log once per metric; a lost update merely logs twice.
+    private volatile boolean warned;
+
+    boolean admit(long fingerprint, long epochNanos, int maxSeries) {
+      latestPoint = Math.max(latestPoint, epochNanos);
+      if (lastSeen.containsKey(fingerprint)) {
+        lastSeen.put(fingerprint, Math.max(lastSeen.get(fingerprint, 0), epochNanos));
+        return true;
+      }
+      if (lastSeen.size() >= maxSeries && latestPoint - lastPrune >= MIN_PRUNE_INTERVAL_NANOS) {
+        long cutoff = latestPoint - SERIES_IDLE_EXPIRY_NANOS;
+        lastSeen.removeIf((key, seen) -> seen <= cutoff);
+        lastPrune = latestPoint;
+      }
+      if (lastSeen.size() >= maxSeries) {
+        return false;
+      }
+      lastSeen.put(fingerprint, epochNanos);
+      return true;
+    }
+
+    // Returns the earliest start time of the overflow point ending at endNanos, restarting the
+    // overflow series if the series folded into it have changed since its previous point.
+    long overflowRestart(long membership, long endNanos) {
+      if (overflowEnd != 0 && membership != overflowMembership) {
+        overflowRestart = Math.min(overflowEnd + RESTART_GAP_NANOS, endNanos);
+      }
+      overflowMembership = membership;
+      overflowEnd = Math.max(overflowEnd, endNanos);
+      return overflowRestart;
+    }
+  }
+}
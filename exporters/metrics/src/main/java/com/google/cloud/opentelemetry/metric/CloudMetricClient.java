@@ -16,15 +16,54 @@
 package com.google.cloud.opentelemetry.metric;
 
 import com.google.api.MetricDescriptor;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
 import com.google.monitoring.v3.CreateMetricDescriptorRequest;
+import com.google.monitoring.v3.ListMetricDescriptorsRequest;
 import com.google.monitoring.v3.ProjectName;
 import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.Empty;
+import java.util.Collections;
 import java.util.List;
 
 public interface CloudMetricClient {
   MetricDescriptor createMetricDescriptor(CreateMetricDescriptorRequest request);
 
+  /**
+   * Creates a metric descriptor without blocking. The default implementation calls {@link
+   * #createMetricDescriptor} on the calling thread.
+   */
+  default ApiFuture<MetricDescriptor> createMetricDescriptorAsync(
+      CreateMetricDescriptorRequest request) {
+    try {
+      return ApiFutures.immediateFuture(createMetricDescriptor(request));
+    } catch (RuntimeException e) {
+      return ApiFutures.immediateFailedFuture(e);
+    }
+  }
+
+  /**
+   * Lists the metric descriptors matching a request, fetching further pages as the result is
+   * iterated. The default implementation lists none, so every descriptor is treated as new.
+   */
+  default Iterable<MetricDescriptor> listMetricDescriptors(ListMetricDescriptorsRequest request) {
+    return Collections.emptyList();
+  }
+
   void createTimeSeries(ProjectName name, List<TimeSeries> timeSeries);
 
+  /**
+   * Writes time series without blocking. The default implementation calls {@link
+   * #createTimeSeries} on the calling thread.
+   */
+  default ApiFuture<Empty> createTimeSeriesAsync(ProjectName name, List<TimeSeries> timeSeries) {
+    try {
+      createTimeSeries(name, timeSeries);
+      return ApiFutures.immediateFuture(Empty.getDefaultInstance());
+    } catch (RuntimeException e) {
+      return ApiFutures.immediateFailedFuture(e);
+    }
+  }
+
   void shutdown();
 }
@@ -16,10 +16,14 @@
 package com.google.cloud.opentelemetry.metric;
 
 import com.google.api.MetricDescriptor;
+import com.google.api.core.ApiFuture;
 import com.google.cloud.monitoring.v3.MetricServiceClient;
 import com.google.monitoring.v3.CreateMetricDescriptorRequest;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.ListMetricDescriptorsRequest;
 import com.google.monitoring.v3.ProjectName;
 import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.Empty;
 import java.util.List;
 
 public class CloudMetricClientImpl implements CloudMetricClient {
@@ -34,11 +38,32 @@ public class CloudMetricClientImpl implements CloudMetricClient {
     return this.metricServiceClient.createMetricDescriptor(request);
   }
 
+  @Override
+  public ApiFuture<MetricDescriptor> createMetricDescriptorAsync(
+      CreateMetricDescriptorRequest request) {
+    return this.metricServiceClient.createMetricDescriptorCallable().futureCall(request);
+  }
+
+  @Override
+  public Iterable<MetricDescriptor> listMetricDescriptors(ListMetricDescriptorsRequest request) {
+    return this.metricServiceClient.listMetricDescriptors(request).iterateAll();
+  }
+
   @Override
   public void createTimeSeries(ProjectName name, List<TimeSeries> timeSeries) {
     this.metricServiceClient.createTimeSeries(name, timeSeries);
   }
 
+  @Override
+  public ApiFuture<Empty> createTimeSeriesAsync(ProjectName name, List<TimeSeries> timeSeries) {
+    CreateTimeSeriesRequest request =
+        CreateTimeSeriesRequest.newBuilder()
+            .setName(name.toString())
+            .addAllTimeSeries(timeSeries)
+            .build();
+    return this.metricServiceClient.createTimeSeriesCallable().futureCall(request);
+  }
+
   @Override
   public void shutdown() {
     this.metricServiceClient.shutdown();
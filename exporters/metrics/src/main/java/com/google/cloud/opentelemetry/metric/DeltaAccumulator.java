@@ -0,0 +1,578 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.DoubleExemplarData;
+import io.opentelemetry.sdk.metrics.data.DoublePointData;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongExemplarData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.PointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableDoublePointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableHistogramData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableHistogramPointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableLongPointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableMetricData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableSumData;
+import io.opentelemetry.sdk.metrics.internal.data.exponentialhistogram.ExponentialHistogramBuckets;
+import io.opentelemetry.sdk.metrics.internal.data.exponentialhistogram.ExponentialHistogramData;
+import io.opentelemetry.sdk.metrics.internal.data.exponentialhistogram.ExponentialHistogramPointData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Folds DELTA sums and histograms into the CUMULATIVE form Cloud Monitoring expects.
+ *
+ * <p>Requesting DELTA from the SDK lets it forget a series as soon as the series has been
+ * collected, so the running totals live here instead. Each series occupies a slot in parallel
+ * primitive arrays, found through a {@link LongLongHashMap} from {@link SeriesFingerprint} to slot
+ * index, so a series costs no objects beyond its attributes and histogram bucket counts. Every
+ * live series of an accumulated metric is exported each cycle, as CUMULATIVE input would be:
+ * series that received no delta repeat their totals, stamped with the end time of the cycle. A
+ * series that receives no points for the idle expiry is forgotten; if it reappears, it starts a
+ * new cumulative interval. Metrics that are already cumulative, and gauges, pass through
+ * unchanged.
+ *
+ * <p>Exponential histogram deltas may come at different scales. Their totals are kept at the lowest
+ * scale seen so far, merging adjacent buckets when a delta arrives at a lower scale, and the scale
+ * is lowered further whenever the buckets would otherwise exceed 160, the SDK's default.
+ */
+final class DeltaAccumulator {
+
+  private static final int INITIAL_SLOTS = 64;
+  // The SDK's default maximum bucket count, and its lowest scale.
+  private static final int MAX_EXPONENTIAL_BUCKETS = 160;
+  private static final int MIN_EXPONENTIAL_SCALE = -10;
+
+  private final long idleExpiryNanos;
+  // Guarded by this, as is all slot storage below.
+  private final LongLongHashMap slotsByFingerprint = new LongLongHashMap(INITIAL_SLOTS);
+  // The metrics with live series, by the fingerprint of the metric itself.
+  private final Map<Long, AccumulatedMetric> accumulated = new LinkedHashMap<>();
+  private int cycle;
+  private long[] fingerprints = new long[INITIAL_SLOTS];
+  private AccumulatedMetric[] owners = new AccumulatedMetric[INITIAL_SLOTS];
+  private Attributes[] attributes = new Attributes[INITIAL_SLOTS];
+  private long[] startEpochNanos = new long[INITIAL_SLOTS];
+  private long[] lastEpochNanos = new long[INITIAL_SLOTS];
+  // The cycle of the latest delta, and its exemplars until they are exported.
+  private int[] lastCycles = new int[INITIAL_SLOTS];
+  private Object[] exemplars = new Object[INITIAL_SLOTS];
+  // Long sums and histogram counts.
+  private long[] longTotals = new long[INITIAL_SLOTS];
+  // Double sums and histogram sums.
+  private double[] doubleTotals = new double[INITIAL_SLOTS];
+  private double[] mins = new double[INITIAL_SLOTS];
+  private double[] maxs = new double[INITIAL_SLOTS];
+  private long[][] bucketCounts = new long[INITIAL_SLOTS][];
+  private Object[] boundaries = new Object[INITIAL_SLOTS];
+  private ExponentialTotals[] exponentialTotals = new ExponentialTotals[INITIAL_SLOTS];
+  private int[] freeSlots = new int[INITIAL_SLOTS];
+  private int freeCount;
+  private int slotsUsed;
+
+  DeltaAccumulator(long idleExpiryNanos) {
+    this.idleExpiryNanos = idleExpiryNanos;
+  }
+
+  /**
+   * Returns {@code metrics} with every DELTA sum and histogram, explicit or exponential, replaced
+   * by its cumulative form. Accumulated metrics that received no delta this cycle are appended.
+   * Series idle for longer than the expiry are forgotten first.
+   */
+  synchronized Collection<MetricData> accumulate(Collection<MetricData> metrics) {
+    boolean hasDelta = false;
+    long endEpochNanos = Long.MIN_VALUE;
+    for (MetricData metric : metrics) {
+      hasDelta |= isDelta(metric);
+      for (PointData point : metric.getData().getPoints()) {
+        endEpochNanos = Math.max(endEpochNanos, point.getEpochNanos());
+      }
+    }
+    if ((!hasDelta && accumulated.isEmpty()) || endEpochNanos == Long.MIN_VALUE) {
+      return metrics;
+    }
+    cycle++;
+    List<MetricData> result = new ArrayList<>(metrics.size());
+    for (MetricData metric : metrics) {
+      if (!isDelta(metric)) {
+        result.add(metric);
+        continue;
+      }
+      AccumulatedMetric state = fold(metric);
+      if (state.position < 0) {
+        state.position = result.size();
+        // Replaced by the cumulative form below.
+        result.add(null);
+      }
+    }
+    expireIdle(endEpochNanos);
+    for (int slot = 0; slot < slotsUsed; slot++) {
+      if (fingerprints[slot] != 0) {
+        owners[slot].points.add(cumulativePoint(slot, endEpochNanos));
+      }
+    }
+    for (AccumulatedMetric state : accumulated.values()) {
+      MetricData cumulative = state.toMetricData();
+      if (state.position >= 0) {
+        result.set(state.position, cumulative);
+      } else {
+        result.add(cumulative);
+      }
+      state.points = new ArrayList<>();
+      state.position = -1;
+    }
+    // A metric whose every series just expired leaves no cumulative form.
+    result.removeIf(Objects::isNull);
+    return result;
+  }
+
+  synchronized int size() {
+    return slotsByFingerprint.size();
+  }
+
+  private static boolean isDelta(MetricData metric) {
+    switch (metric.getType()) {
+      case LONG_SUM:
+        return metric.getLongSumData().getAggregationTemporality() == AggregationTemporality.DELTA;
+      case DOUBLE_SUM:
+        return metric.getDoubleSumData().getAggregationTemporality()
+            == AggregationTemporality.DELTA;
+      case HISTOGRAM:
+        return metric.getHistogramData().getAggregationTemporality()
+            == AggregationTemporality.DELTA;
+      case EXPONENTIAL_HISTOGRAM:
+        return metric.getExponentialHistogramData().getAggregationTemporality()
+            == AggregationTemporality.DELTA;
+      default:
+        return false;
+    }
+  }
+
+  // Adds the deltas of metric to the totals of its series.
+  private AccumulatedMetric fold(MetricData metric) {
+    long key = SeriesFingerprint.of(metric, Attributes.empty());
+    AccumulatedMetric state = accumulated.get(key);
+    if (state == null) {
+      state = new AccumulatedMetric(key);
+      accumulated.put(key, state);
+    }
+    state.metric = metric;
+    switch (metric.getType()) {
+      case LONG_SUM:
+        for (LongPointData point : metric.getLongSumData().getPoints()) {
+          longTotals[slotFor(state, point)] += point.getValue();
+        }
+        break;
+      case DOUBLE_SUM:
+        for (DoublePointData point : metric.getDoubleSumData().getPoints()) {
+          doubleTotals[slotFor(state, point)] += point.getValue();
+        }
+        break;
+      case EXPONENTIAL_HISTOGRAM:
+        for (ExponentialHistogramPointData point :
+            metric.getExponentialHistogramData().getPoints()) {
+          foldExponentialHistogram(slotFor(state, point), point);
+        }
+        break;
+      default:
+        for (HistogramPointData point : metric.getHistogramData().getPoints()) {
+          foldHistogram(slotFor(state, point), point);
+        }
+        break;
+    }
+    return state;
+  }
+
+  private void foldHistogram(int slot, HistogramPointData point) {
+    List<Long> counts = point.getCounts();
+    long[] totals = bucketCounts[slot];
+    if (totals == null || !point.getBoundaries().equals(boundaries[slot])) {
+      // New series, or the SDK's buckets changed: start a new cumulative interval.
+      totals = new long[counts.size()];
+      bucketCounts[slot] = totals;
+      boundaries[slot] = point.getBoundaries();
+      startEpochNanos[slot] = point.getStartEpochNanos();
+      longTotals[slot] = 0;
+      doubleTotals[slot] = 0;
+      mins[slot] = Double.NaN;
+      maxs[slot] = Double.NaN;
+    }
+    for (int i = 0; i < totals.length; i++) {
+      totals[i] += counts.get(i);
+    }
+    longTotals[slot] += point.getCount();
+    doubleTotals[slot] += point.getSum();
+    if (point.hasMin()) {
+      mins[slot] = Double.isNaN(mins[slot]) ? point.getMin() : Math.min(mins[slot], point.getMin());
+    }
+    if (point.hasMax()) {
+      maxs[slot] = Double.isNaN(maxs[slot]) ? point.getMax() : Math.max(maxs[slot], point.getMax());
+    }
+  }
+
+  private void foldExponentialHistogram(int slot, ExponentialHistogramPointData point) {
+    ExponentialTotals totals = exponentialTotals[slot];
+    if (totals == null) {
+      totals = new ExponentialTotals(point.getScale());
+      exponentialTotals[slot] = totals;
+    }
+    totals.add(point);
+    doubleTotals[slot] += point.getSum();
+  }
+
+  // Returns the cumulative point of a slot. A slot without a delta this cycle ends at
+  // endEpochNanos and carries no exemplars.
+  @SuppressWarnings("unchecked")
+  private PointData cumulativePoint(int slot, long endEpochNanos) {
+    boolean updated = lastCycles[slot] == cycle;
+    long end = updated ? lastEpochNanos[slot] : Math.max(endEpochNanos, lastEpochNanos[slot]);
+    Object slotExemplars = updated ? exemplars[slot] : Collections.emptyList();
+    exemplars[slot] = null;
+    switch (owners[slot].metric.getType()) {
+      case LONG_SUM:
+        return ImmutableLongPointData.create(
+            startEpochNanos[slot],
+            end,
+            attributes[slot],
+            longTotals[slot],
+            (List<LongExemplarData>) slotExemplars);
+      case DOUBLE_SUM:
+        return ImmutableDoublePointData.create(
+            startEpochNanos[slot],
+            end,
+            attributes[slot],
+            doubleTotals[slot],
+            (List<DoubleExemplarData>) slotExemplars);
+      case EXPONENTIAL_HISTOGRAM:
+        ExponentialTotals totals = exponentialTotals[slot];
+        return ExponentialHistogramPointData.create(
+            totals.scale,
+            doubleTotals[slot],
+            totals.zeroCount,
+            totals.positive.snapshot(totals.scale),
+            totals.negative.snapshot(totals.scale),
+            startEpochNanos[slot],
+            end,
+            attributes[slot],
+            (List<DoubleExemplarData>) slotExemplars);
+      default:
+        long[] totalCounts = bucketCounts[slot];
+        List<Long> counts = new ArrayList<>(totalCounts.length);
+        for (long count : totalCounts) {
+          counts.add(count);
+        }
+        return ImmutableHistogramPointData.create(
+            startEpochNanos[slot],
+            end,
+            attributes[slot],
+            doubleTotals[slot],
+            Double.isNaN(mins[slot]) ? null : mins[slot],
+            Double.isNaN(maxs[slot]) ? null : maxs[slot],
+            (List<Double>) boundaries[slot],
+            counts,
+            (List<DoubleExemplarData>) slotExemplars);
+    }
+  }
+
+  // Returns the slot of the series of a delta point, allocating a zeroed one starting at the
+  // point's start if it is new, and notes the delta.
+  private int slotFor(AccumulatedMetric state, PointData point) {
+    long fingerprint = SeriesFingerprint.of(state.metric, point.getAttributes());
+    long existing = slotsByFingerprint.get(fingerprint, -1);
+    int slot;
+    if (existing >= 0) {
+      slot = (int) existing;
+    } else {
+      slot = freeCount > 0 ? freeSlots[--freeCount] : allocateSlot();
+      slotsByFingerprint.put(fingerprint, slot);
+      fingerprints[slot] = fingerprint;
+      owners[slot] = state;
+      state.liveSlots++;
+      attributes[slot] = point.getAttributes();
+      startEpochNanos[slot] = point.getStartEpochNanos();
+      longTotals[slot] = 0;
+      doubleTotals[slot] = 0;
+      mins[slot] = Double.NaN;
+      maxs[slot] = Double.NaN;
+      bucketCounts[slot] = null;
+      boundaries[slot] = null;
+      exponentialTotals[slot] = null;
+    }
+    lastEpochNanos[slot] = point.getEpochNanos();
+    lastCycles[slot] = cycle;
+    exemplars[slot] = point.getExemplars();
+    return slot;
+  }
+
+  private int allocateSlot() {
+    if (slotsUsed == fingerprints.length) {
+      int capacity = fingerprints.length * 2;
+      fingerprints = Arrays.copyOf(fingerprints, capacity);
+      owners = Arrays.copyOf(owners, capacity);
+      attributes = Arrays.copyOf(attributes, capacity);
+      startEpochNanos = Arrays.copyOf(startEpochNanos, capacity);
+      lastEpochNanos = Arrays.copyOf(lastEpochNanos, capacity);
+      lastCycles = Arrays.copyOf(lastCycles, capacity);
+      exemplars = Arrays.copyOf(exemplars, capacity);
+      longTotals = Arrays.copyOf(longTotals, capacity);
+      doubleTotals = Arrays.copyOf(doubleTotals, capacity);
+      mins = Arrays.copyOf(mins, capacity);
+      maxs = Arrays.copyOf(maxs, capacity);
+      bucketCounts = Arrays.copyOf(bucketCounts, capacity);
+      boundaries = Arrays.copyOf(boundaries, capacity);
+      exponentialTotals = Arrays.copyOf(exponentialTotals, capacity);
+    }
+    return slotsUsed++;
+  }
+
+  private void expireIdle(long nowEpochNanos) {
+    long cutoff = nowEpochNanos - idleExpiryNanos;
+    for (int slot = 0; slot < slotsUsed; slot++) {
+      if (fingerprints[slot] != 0 && lastEpochNanos[slot] < cutoff) {
+        slotsByFingerprint.remove(fingerprints[slot]);
+        fingerprints[slot] = 0;
+        AccumulatedMetric owner = owners[slot];
+        if (--owner.liveSlots == 0) {
+          accumulated.remove(owner.key);
+        }
+        owners[slot] = null;
+        attributes[slot] = null;
+        exemplars[slot] = null;
+        bucketCounts[slot] = null;
+        boundaries[slot] = null;
+        exponentialTotals[slot] = null;
+        if (freeCount == freeSlots.length) {
+          freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeCount++] = slot;
+      }
+    }
+  }
+
+  // A metric with live series, and the cumulative points gathered for it in the current cycle.
+  private static final class AccumulatedMetric {
+    private final long key;
+    // The latest delta form of the metric, which names and describes the cumulative one.
+    private MetricData metric;
+    private int liveSlots;
+    private List<PointData> points = new ArrayList<>();
+    // Where the metric goes in the result of the current cycle, or -1 to append it.
+    private int position = -1;
+
+    AccumulatedMetric(long key) {
+      this.key = key;
+    }
+
+    @SuppressWarnings("unchecked")
+    MetricData toMetricData() {
+      switch (metric.getType()) {
+        case LONG_SUM:
+          return ImmutableMetricData.createLongSum(
+              metric.getResource(),
+              metric.getInstrumentationScopeInfo(),
+              metric.getName(),
+              metric.getDescription(),
+              metric.getUnit(),
+              ImmutableSumData.create(
+                  metric.getLongSumData().isMonotonic(),
+                  AggregationTemporality.CUMULATIVE,
+                  (List<LongPointData>) (List<?>) points));
+        case DOUBLE_SUM:
+          return ImmutableMetricData.createDoubleSum(
+              metric.getResource(),
+              metric.getInstrumentationScopeInfo(),
+              metric.getName(),
+              metric.getDescription(),
+              metric.getUnit(),
+              ImmutableSumData.create(
+                  metric.getDoubleSumData().isMonotonic(),
+                  AggregationTemporality.CUMULATIVE,
+                  (List<DoublePointData>) (List<?>) points));
+        case EXPONENTIAL_HISTOGRAM:
+          return ImmutableMetricData.createExponentialHistogram(
+              metric.getResource(),
+              metric.getInstrumentationScopeInfo(),
+              metric.getName(),
+              metric.getDescription(),
+              metric.getUnit(),
+              ExponentialHistogramData.create(
+                  AggregationTemporality.CUMULATIVE,
+                  (List<ExponentialHistogramPointData>) (List<?>) points));
+        default:
+          return ImmutableMetricData.createDoubleHistogram(
+              metric.getResource(),
+              metric.getInstrumentationScopeInfo(),
+              metric.getName(),
+              metric.getDescription(),
+              metric.getUnit(),
+              ImmutableHistogramData.create(
+                  AggregationTemporality.CUMULATIVE,
+                  (List<HistogramPointData>) (List<?>) points));
+      }
+    }
+  }
+
+  // The running totals of one exponential histogram series.
+  private static final class ExponentialTotals {
+    private int scale;
+    private long zeroCount;
+    private final BucketTotals positive = new BucketTotals();
+    private final BucketTotals negative = new BucketTotals();
+
+    ExponentialTotals(int scale) {
+      this.scale = scale;
+    }
+
+    void add(ExponentialHistogramPointData point) {
+      int pointScale = point.getScale();
+      int target = Math.min(scale, pointScale);
+      while (target > MIN_EXPONENTIAL_SCALE && !fits(point, target)) {
+        target--;
+      }
+      positive.downscale(scale - target);
+      negative.downscale(scale - target);
+      positive.add(point.getPositiveBuckets(), pointScale - target);
+      negative.add(point.getNegativeBuckets(), pointScale - target);
+      scale = target;
+      zeroCount += point.getZeroCount();
+    }
+
+    // Returns whether these totals and point, both lowered to target, stay within the bucket cap.
+    private boolean fits(ExponentialHistogramPointData point, int target) {
+      int pointScale = point.getScale();
+      return positive.width(scale, point.getPositiveBuckets(), pointScale, target)
+              <= MAX_EXPONENTIAL_BUCKETS
+          && negative.width(scale, point.getNegativeBuckets(), pointScale, target)
+              <= MAX_EXPONENTIAL_BUCKETS;
+    }
+  }
+
+  // Cumulative counts of a contiguous range of exponential buckets, starting at index offset.
+  private static final class BucketTotals {
+    private static final long[] EMPTY = new long[0];
+
+    private long offset;
+    private long[] counts = EMPTY;
+
+    // Returns how many buckets these totals at scale and buckets at bucketScale span at target.
+    long width(int scale, ExponentialHistogramBuckets buckets, int bucketScale, int target) {
+      long low = Long.MAX_VALUE;
+      long high = Long.MIN_VALUE;
+      if (counts.length > 0) {
+        low = offset >> (scale - target);
+        high = (offset + counts.length - 1) >> (scale - target);
+      }
+      int size = buckets.getBucketCounts().size();
+      if (size > 0) {
+        low = Math.min(low, (long) buckets.getOffset() >> (bucketScale - target));
+        high = Math.max(high, ((long) buckets.getOffset() + size - 1) >> (bucketScale - target));
+      }
+      return low > high ? 0 : high - low + 1;
+    }
+
+    // Lowers the scale by delta, merging each 2^delta adjacent buckets into one.
+    void downscale(int delta) {
+      if (delta == 0 || counts.length == 0) {
+        return;
+      }
+      long low = offset >> delta;
+      long[] merged = new long[(int) (((offset + counts.length - 1) >> delta) - low + 1)];
+      for (int i = 0; i < counts.length; i++) {
+        merged[(int) (((offset + i) >> delta) - low)] += counts[i];
+      }
+      offset = low;
+      counts = merged;
+    }
+
+    // Adds buckets whose scale is delta above the scale of these totals.
+    void add(ExponentialHistogramBuckets buckets, int delta) {
+      List<Long> bucketCounts = buckets.getBucketCounts();
+      if (bucketCounts.isEmpty()) {
+        return;
+      }
+      long low = (long) buckets.getOffset() >> delta;
+      long high = ((long) buckets.getOffset() + bucketCounts.size() - 1) >> delta;
+      if (counts.length == 0) {
+        offset = low;
+        counts = new long[(int) (high - low + 1)];
+      } else if (low < offset || high >= offset + counts.length) {
+        long newLow = Math.min(low, offset);
+        long newHigh = Math.max(high, offset + counts.length - 1);
+        long[] grown = new long[(int) (newHigh - newLow + 1)];
+        System.arraycopy(counts, 0, grown, (int) (offset - newLow), counts.length);
+        offset = newLow;
+        counts = grown;
+      }
+      for (int i = 0; i < bucketCounts.size(); i++) {
+        counts[(int) ((((long) buckets.getOffset() + i) >> delta) - offset)] += bucketCounts.get(i);
+      }
+    }
+
+    ExponentialHistogramBuckets snapshot(int scale) {
+      List<Long> snapshot = new ArrayList<>(counts.length);
+      long total = 0;
+      for (long count : counts) {
+        snapshot.add(count);
+        total += count;
+      }
+      return new CumulativeBuckets(scale, (int) offset, snapshot, total);
+    }
+  }
+
+  private static final class CumulativeBuckets implements ExponentialHistogramBuckets {
+    private final int scale;
+    private final int offset;
+    private final List<Long> bucketCounts;
+    private final long totalCount;
+
+    CumulativeBuckets(int scale, int offset, List<Long> bucketCounts, long totalCount) {
+      this.scale = scale;
+      this.offset = offset;
+      this.bucketCounts = Collections.unmodifiableList(bucketCounts);
+      this.totalCount = totalCount;
+    }
+
+    @Override
+    public int getScale() {
+      return scale;
+    }
+
+    @Override
+    public int getOffset() {
+      return offset;
+    }
+
+    @Override
+    public List<Long> getBucketCounts() {
+      return bucketCounts;
+    }
+
+    @Override
+    public long getTotalCount() {
+      return totalCount;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+/** Identifies a metric descriptor by the project it is created in and its type. */
+final class DescriptorKey {
+  final String projectId;
+  final String type;
+
+  DescriptorKey(String projectId, String type) {
+    this.projectId = projectId;
+    this.type = type;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof DescriptorKey)) {
+      return false;
+    }
+    DescriptorKey that = (DescriptorKey) o;
+    return projectId.equals(that.projectId) && type.equals(that.type);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * projectId.hashCode() + type.hashCode();
+  }
+}
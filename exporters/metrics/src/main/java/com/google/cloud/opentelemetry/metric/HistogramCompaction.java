@@ -0,0 +1,142 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import com.google.api.Distribution;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableHistogramPointData;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shrinks explicit-bucket histograms before they are sent.
+ *
+ * <p>Trailing empty buckets are dropped from each {@link Distribution}, which the API allows.
+ * Histograms of instruments with a configured layout are first re-bucketed onto it: each source
+ * bucket's count goes to the layout bucket that holds the source bucket's upper bound. This is
+ * exact when every layout boundary is also a boundary of the source histogram. Independently of
+ * that, extra exemplars can be limited to the most recent one of each bucket.
+ */
+final class HistogramCompaction {
+
+  /** Leaves histograms as the SDK produced them. */
+  static final HistogramCompaction NONE = new HistogramCompaction(false, Collections.emptyMap());
+
+  private final boolean enabled;
+  private final Map<String, List<Double>> layouts;
+  private final boolean oneExemplarPerBucket;
+
+  HistogramCompaction(boolean enabled, Map<String, List<Double>> layouts) {
+    this(enabled, layouts, false);
+  }
+
+  HistogramCompaction(
+      boolean enabled, Map<String, List<Double>> layouts, boolean oneExemplarPerBucket) {
+    this.enabled = enabled;
+    this.oneExemplarPerBucket = oneExemplarPerBucket;
+    ImmutableMap.Builder<String, List<Double>> checked = ImmutableMap.builder();
+    for (Map.Entry<String, List<Double>> layout : layouts.entrySet()) {
+      checked.put(layout.getKey(), checkLayout(layout.getValue()));
+    }
+    this.layouts = checked.build();
+  }
+
+  /** Maps a histogram point to a distribution, applying every configured compaction. */
+  Distribution.Builder mapDistribution(
+      MetricData metric, HistogramPointData point, String projectId) {
+    Distribution.Builder distribution =
+        MetricTranslator.mapDistribution(rebucket(metric, point), projectId, oneExemplarPerBucket);
+    trim(distribution);
+    return distribution;
+  }
+
+  /** Returns the point re-bucketed onto its instrument's configured layout, if there is one. */
+  HistogramPointData rebucket(MetricData metric, HistogramPointData point) {
+    if (!enabled) {
+      return point;
+    }
+    List<Double> layout = layouts.get(metric.getName());
+    if (layout == null || layout.equals(point.getBoundaries())) {
+      return point;
+    }
+    List<Double> boundaries = point.getBoundaries();
+    List<Long> counts = point.getCounts();
+    long[] merged = new long[layout.size() + 1];
+    int target = 0;
+    for (int source = 0; source < counts.size(); source++) {
+      if (source == boundaries.size()) {
+        // The overflow bucket's upper bound is infinite.
+        target = layout.size();
+      } else {
+        while (target < layout.size() && layout.get(target) < boundaries.get(source)) {
+          target++;
+        }
+      }
+      merged[target] += counts.get(source);
+    }
+    List<Long> mergedCounts = new ArrayList<>(merged.length);
+    for (long count : merged) {
+      mergedCounts.add(count);
+    }
+    return ImmutableHistogramPointData.create(
+        point.getStartEpochNanos(),
+        point.getEpochNanos(),
+        point.getAttributes(),
+        point.getSum(),
+        point.hasMin() ? point.getMin() : null,
+        point.hasMax() ? point.getMax() : null,
+        layout,
+        mergedCounts,
+        point.getExemplars());
+  }
+
+  /** Drops the trailing empty buckets of a mapped distribution. */
+  void trim(Distribution.Builder distribution) {
+    if (!enabled) {
+      return;
+    }
+    int kept = distribution.getBucketCountsCount();
+    while (kept > 0 && distribution.getBucketCounts(kept - 1) == 0) {
+      kept--;
+    }
+    if (kept == distribution.getBucketCountsCount()) {
+      return;
+    }
+    long[] counts = new long[kept];
+    for (int i = 0; i < kept; i++) {
+      counts[i] = distribution.getBucketCounts(i);
+    }
+    distribution.clearBucketCounts();
+    for (long count : counts) {
+      distribution.addBucketCounts(count);
+    }
+  }
+
+  /** Returns an immutable copy of a layout, checking that its boundaries strictly increase. */
+  static List<Double> checkLayout(List<Double> layout) {
+    for (int i = 1; i < layout.size(); i++) {
+      Preconditions.checkArgument(
+          layout.get(i) > layout.get(i - 1), "Bucket boundaries must be strictly increasing.");
+    }
+    return ImmutableList.copyOf(layout);
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Drops attributes from the points of selected metrics and pre-aggregates the points that become
+ * equal, so fewer time series are written.
+ *
+ * <p>Each metric has either an allowlist, keeping only the listed attribute keys, or a denylist,
+ * removing the listed keys. Points whose remaining attributes are equal are merged by {@link
+ * PointMerger}: sums are added, histogram buckets are added and gauges keep the latest value.
+ * Metrics without a list are left as they are.
+ */
+final class LabelFilter {
+
+  private final Map<String, Set<String>> allowlists;
+  private final Map<String, Set<String>> denylists;
+
+  LabelFilter(Map<String, Set<String>> allowlists, Map<String, Set<String>> denylists) {
+    this.allowlists = copy(allowlists);
+    this.denylists = copy(denylists);
+  }
+
+  /** Returns whether the filter leaves every metric unchanged. */
+  boolean isEmpty() {
+    return allowlists.isEmpty() && denylists.isEmpty();
+  }
+
+  /**
+   * Returns {@code metric} with the filtered attributes, or {@code metric} itself if it has no list
+   * or no point lost an attribute.
+   */
+  MetricData apply(MetricData metric) {
+    Set<String> allowed = allowlists.get(metric.getName());
+    if (allowed != null) {
+      return PointMerger.regroup(metric, attributes -> filter(attributes, allowed, true));
+    }
+    Set<String> denied = denylists.get(metric.getName());
+    if (denied != null) {
+      return PointMerger.regroup(metric, attributes -> filter(attributes, denied, false));
+    }
+    return metric;
+  }
+
+  // Keeps the attributes whose key is in (keep) or not in (!keep) the given keys.
+  static Attributes filter(Attributes attributes, Set<String> keys, boolean keep) {
+    boolean dropsAny = false;
+    for (AttributeKey<?> key : attributes.asMap().keySet()) {
+      if (keys.contains(key.getKey()) != keep) {
+        dropsAny = true;
+        break;
+      }
+    }
+    if (!dropsAny) {
+      return attributes;
+    }
+    AttributesBuilder builder = Attributes.builder();
+    attributes.forEach(
+        (key, value) -> {
+          if (keys.contains(key.getKey()) == keep) {
+            put(builder, key, value);
+          }
+        });
+    return builder.build();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> void put(AttributesBuilder builder, AttributeKey<T> key, Object value) {
+    builder.put(key, (T) value);
+  }
+
+  private static Map<String, Set<String>> copy(Map<String, Set<String>> lists) {
+    ImmutableMap.Builder<String, Set<String>> copy = ImmutableMap.builder();
+    for (Map.Entry<String, Set<String>> list : lists.entrySet()) {
+      copy.put(list.getKey(), ImmutableSet.copyOf(list.getValue()));
+    }
+    return copy.build();
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.opentelemetry.api.common.AttributeKey;
+
+/**
+ * Maps attribute keys to valid Cloud Monitoring label names, remembering the result for each key.
+ *
+ * <p>Label names must match {@code [a-zA-Z][a-zA-Z0-9_]*} and be at most {@value
+ * #MAX_LABEL_LENGTH} characters long. Other characters, such as the {@code .} common in
+ * OpenTelemetry, become {@code _}, names that do not start with a letter are prefixed with {@code
+ * key_}, and long names are truncated. The cache is bounded so that keys that keep changing cannot
+ * grow it without limit.
+ *
+ * <p>See https://cloud.google.com/monitoring/api/ref_v3/rest/v3/LabelDescriptor for the rules.
+ */
+final class LabelKeyCache {
+
+  static final int DEFAULT_MAX_KEYS = 4096;
+  static final int MAX_LABEL_LENGTH = 100;
+  private static final String INVALID_START_PREFIX = "key_";
+
+  private final Cache<AttributeKey<?>, String> labels;
+
+  LabelKeyCache() {
+    this(DEFAULT_MAX_KEYS);
+  }
+
+  LabelKeyCache(int maxKeys) {
+    this.labels = CacheBuilder.newBuilder().maximumSize(maxKeys).build();
+  }
+
+  /** Returns the label name for an attribute key. */
+  String labelName(AttributeKey<?> key) {
+    String label = labels.getIfPresent(key);
+    if (label == null) {
+      label = sanitize(key.getKey());
+      labels.put(key, label);
+    }
+    return label;
+  }
+
+  /** Returns {@code key} as a valid label name, or {@code key} itself if it already is one. */
+  static String sanitize(String key) {
+    if (isValid(key)) {
+      return key;
+    }
+    StringBuilder label = new StringBuilder(key.length() + INVALID_START_PREFIX.length());
+    if (key.isEmpty() || !isLetter(key.charAt(0))) {
+      label.append(INVALID_START_PREFIX);
+    }
+    for (int i = 0; i < key.length() && label.length() < MAX_LABEL_LENGTH; i++) {
+      char c = key.charAt(i);
+      label.append(isLetter(c) || isDigit(c) || c == '_' ? c : '_');
+    }
+    return label.toString();
+  }
+
+  private static boolean isValid(String key) {
+    if (key.isEmpty() || key.length() > MAX_LABEL_LENGTH || !isLetter(key.charAt(0))) {
+      return false;
+    }
+    for (int i = 1; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if (!isLetter(c) && !isDigit(c) && c != '_') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Character.isLetter would also accept non-ASCII letters, which label names may not contain.
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+}
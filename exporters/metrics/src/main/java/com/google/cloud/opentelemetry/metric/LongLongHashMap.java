@@ -0,0 +1,187 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An open-addressing hash map from {@code long} keys to {@code long} values, backed by two
+ * primitive arrays so that entries cost 16 bytes and no boxing.
+ *
+ * <p>Key 0 is reserved to mark empty slots and may not be stored. This class is not thread-safe.
+ */
+final class LongLongHashMap {
+
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] keys;
+  private long[] values;
+  private int mask;
+  private int size;
+
+  LongLongHashMap() {
+    this(MIN_CAPACITY);
+  }
+
+  LongLongHashMap(int expectedSize) {
+    allocate(capacityFor(expectedSize));
+  }
+
+  /** Returns the value for {@code key}, or {@code defaultValue} if there is none. */
+  long get(long key, long defaultValue) {
+    for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+      long existing = keys[slot];
+      if (existing == key) {
+        return values[slot];
+      }
+      if (existing == 0) {
+        return defaultValue;
+      }
+    }
+  }
+
+  boolean containsKey(long key) {
+    for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+      long existing = keys[slot];
+      if (existing == key) {
+        return true;
+      }
+      if (existing == 0) {
+        return false;
+      }
+    }
+  }
+
+  /** Associates {@code value} with {@code key}, replacing any previous value. */
+  void put(long key, long value) {
+    Preconditions.checkArgument(key != 0, "Key 0 is reserved.");
+    for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+      long existing = keys[slot];
+      if (existing == key) {
+        values[slot] = value;
+        return;
+      }
+      if (existing == 0) {
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 4 >= keys.length * 3) {
+          rehash(keys.length * 2);
+        }
+        return;
+      }
+    }
+  }
+
+  /** Removes the entry for {@code key}, returning true if there was one. */
+  boolean remove(long key) {
+    int slot = slot(key);
+    while (keys[slot] != key) {
+      if (keys[slot] == 0) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    // Backward-shift deletion keeps every remaining key reachable from its home slot.
+    int hole = slot;
+    for (int next = (hole + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+      int home = slot(keys[next]);
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        keys[hole] = keys[next];
+        values[hole] = values[next];
+        hole = next;
+      }
+    }
+    keys[hole] = 0;
+    values[hole] = 0;
+    size--;
+    return true;
+  }
+
+  /** Removes every entry matching {@code predicate}, shrinking the table if it is now sparse. */
+  void removeIf(EntryPredicate predicate) {
+    int remaining = 0;
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (keys[slot] != 0 && predicate.test(keys[slot], values[slot])) {
+        keys[slot] = 0;
+      } else if (keys[slot] != 0) {
+        remaining++;
+      }
+    }
+    if (remaining == size) {
+      return;
+    }
+    // Clearing slots in place breaks probe chains, so re-insert the survivors.
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    allocate(capacityFor(remaining));
+    for (int slot = 0; slot < oldKeys.length; slot++) {
+      if (oldKeys[slot] != 0) {
+        insertNew(oldKeys[slot], oldValues[slot]);
+      }
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    allocate(capacity);
+    for (int slot = 0; slot < oldKeys.length; slot++) {
+      if (oldKeys[slot] != 0) {
+        insertNew(oldKeys[slot], oldValues[slot]);
+      }
+    }
+  }
+
+  // Inserts a key known to be absent, without checking for resize.
+  private void insertNew(long key, long value) {
+    int slot = slot(key);
+    while (keys[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    size++;
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new long[capacity];
+    mask = capacity - 1;
+    size = 0;
+  }
+
+  private int slot(long key) {
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  private static int capacityFor(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * 3 <= expectedSize * 4) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  /** A test on a map entry. */
+  interface EntryPredicate {
+    boolean test(long key, long value);
+  }
+}
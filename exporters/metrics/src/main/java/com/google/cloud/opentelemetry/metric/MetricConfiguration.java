@@ -23,7 +23,12 @@ import com.google.cloud.ServiceOptions;
 import com.google.cloud.monitoring.v3.stub.MetricServiceStub;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
@@ -35,6 +40,13 @@ public abstract class MetricConfiguration {
   private static final String DEFAULT_PROJECT_ID =
       Strings.nullToEmpty(ServiceOptions.getDefaultProjectId());
   private static final Duration DEFAULT_DEADLINE = Duration.ofSeconds(10, 0);
+  private static final int DEFAULT_MAX_WRITE_ATTEMPTS = 3;
+  private static final Duration DEFAULT_WRITE_RETRY_INITIAL_BACKOFF = Duration.ofMillis(100);
+  private static final Duration DEFAULT_WRITE_RETRY_MAX_BACKOFF = Duration.ofSeconds(5);
+  private static final long DEFAULT_SPOOL_MAX_BYTES = 64L * 1024 * 1024;
+  private static final Duration DEFAULT_DELTA_IDLE_EXPIRY = Duration.ofHours(1);
+  private static final int DEFAULT_MAX_CONCURRENT_DESCRIPTOR_CREATIONS = 8;
+  private static final Duration DEFAULT_WRITE_RATE_LIMIT_MAX_DELAY = Duration.ofSeconds(10);
 
   MetricConfiguration() {}
 
@@ -79,11 +91,328 @@ public abstract class MetricConfiguration {
    */
   public abstract MetricDescriptorStrategy getDescriptorStrategy();
 
+  /**
+   * Returns the maximum number of CreateTimeSeries requests that may be in flight at once.
+   *
+   * <p>The default of 0 sends batches synchronously on the exporting thread. Any positive value
+   * sends batches asynchronously, and the result of an export completes once every batch has
+   * completed.
+   *
+   * @return the maximum number of in-flight requests, or 0 for synchronous dispatch.
+   */
+  public abstract int getMaxInFlightRequests();
+
+  /**
+   * Returns whether time series are handed off in request-sized batches while a cycle is still
+   * being translated, instead of after the whole cycle has been built.
+   *
+   * <p>Streaming bounds the exporter's heap use regardless of the number of series. The default is
+   * false.
+   *
+   * @return true if batches are streamed.
+   */
+  public abstract boolean getStreamingBatches();
+
+  /**
+   * Returns the minimum time between two points written to the same time series.
+   *
+   * <p>Cloud Monitoring rejects points written to a series more often than its sampling period
+   * allows. Points that arrive sooner than this interval after the last point written for their
+   * series are dropped before translation. The default of zero disables this check.
+   *
+   * @return the minimum write interval.
+   */
+  public abstract Duration getMinimumWriteInterval();
+
+  /**
+   * Returns the maximum number of attempts to write a batch of time series.
+   *
+   * <p>Requests that fail with a transient error (such as {@code UNAVAILABLE} or {@code
+   * DEADLINE_EXCEEDED}) are retried with exponential backoff. When only some series of a request
+   * are rejected, only those are re-sent. The default is 3; 1 disables retries.
+   *
+   * @return the maximum number of write attempts.
+   */
+  public abstract int getMaxWriteAttempts();
+
+  /**
+   * Returns the backoff before the first retry of a failed write. Each further retry doubles it,
+   * up to {@link #getWriteRetryMaxBackoff()}, and the actual delay is randomized to between half
+   * and all of it.
+   *
+   * <p>Default value is 100 milliseconds.
+   *
+   * @return the initial retry backoff.
+   */
+  public abstract Duration getWriteRetryInitialBackoff();
+
+  /**
+   * Returns the upper bound of the backoff between retries of a failed write.
+   *
+   * <p>Default value is 5 seconds.
+   *
+   * @return the maximum retry backoff.
+   */
+  public abstract Duration getWriteRetryMaxBackoff();
+
+  /**
+   * Returns the directory of the on-disk spool for batches that could not be sent.
+   *
+   * <p>When set, batches that still fail with a transient error after the last write attempt are
+   * written to memory-mapped segment files in this directory instead of being dropped, and are
+   * re-sent, oldest first, before new batches once writes succeed again. While the spool holds
+   * batches, new batches are appended to it to preserve their order. The default is null, which
+   * disables the spool.
+   *
+   * @return the spool directory, or null if spooling is disabled.
+   */
+  @Nullable
+  public abstract Path getSpoolDirectory();
+
+  /**
+   * Returns the maximum number of bytes the spool may occupy on disk. When full, its oldest
+   * batches are dropped first.
+   *
+   * <p>Default value is 64 MiB.
+   *
+   * @return the spool size limit in bytes.
+   */
+  public abstract long getSpoolMaxBytes();
+
+  /**
+   * Returns whether the exporter asks the SDK for DELTA temporality for counters and histograms.
+   *
+   * <p>The SDK then forgets a series once it has been collected, and the exporter keeps the running
+   * totals Cloud Monitoring needs in its own compact accumulator, exponential histograms included.
+   * Up-down counters and gauges stay CUMULATIVE. The default is false.
+   *
+   * @return true if DELTA temporality is preferred.
+   */
+  public abstract boolean getDeltaTemporality();
+
+  /**
+   * Returns how long the exporter keeps the running total of a DELTA series that receives no new
+   * points. A series that reappears after this starts a new cumulative interval.
+   *
+   * <p>Default value is 1 hour.
+   *
+   * @return the idle expiry of accumulated series.
+   */
+  public abstract Duration getDeltaIdleExpiry();
+
+  /**
+   * Returns whether histogram distributions are compacted before they are written.
+   *
+   * <p>When enabled, trailing empty buckets are left out of each distribution, which Cloud
+   * Monitoring treats as zero, and histograms with an entry in {@link
+   * #getHistogramBucketLayouts()} are re-bucketed onto that layout. The default is false.
+   *
+   * @return true if histograms are compacted.
+   */
+  public abstract boolean getHistogramCompaction();
+
+  /**
+   * Returns coarser explicit bucket boundaries to re-bucket histograms onto, keyed by instrument
+   * name. Only applies while {@link #getHistogramCompaction()} is enabled.
+   *
+   * <p>Each source bucket is counted in the first bucket of the layout whose upper bound is not
+   * below its own, so a layout whose boundaries are a subset of the instrument's keeps counts
+   * exact. The default is empty.
+   *
+   * @return the bucket layouts by instrument name.
+   */
+  public abstract Map<String, List<Double>> getHistogramBucketLayouts();
+
+  /**
+   * Returns whether at most one exemplar, the most recent, is attached to each bucket of an
+   * explicit-bucket histogram.
+   *
+   * <p>Cloud Monitoring keeps only one exemplar per bucket, so the others are left out of requests
+   * instead of being discarded by the backend. The default is false.
+   *
+   * @return true if exemplars are limited to one per bucket.
+   */
+  public abstract boolean getOneExemplarPerBucket();
+
+  /**
+   * Returns the prefix of the metric types of instruments whose name does not already contain a
+   * known Google domain.
+   *
+   * <p>The default is {@code custom.googleapis.com/OpenTelemetry/}. Other namespaces, such as
+   * {@code workload.googleapis.com/}, can be used instead. A metric type is resolved once per
+   * instrument name.
+   *
+   * @return the metric type prefix.
+   */
+  public abstract String getMetricTypePrefix();
+
+  /**
+   * Returns whether the exporter lists the descriptors that already exist under {@link
+   * #getMetricTypePrefix()} when it is created, and tells the descriptor strategy about them.
+   *
+   * <p>With {@link MetricDescriptorStrategy#SEND_ONCE}, a process whose descriptors all exist
+   * already then sends no CreateMetricDescriptor requests at all. Existing descriptors are not
+   * updated when an instrument changes. The default is false.
+   *
+   * @return true if existing descriptors are listed on creation.
+   */
+  public abstract boolean getPrewarmDescriptors();
+
+  /**
+   * Returns the maximum number of descriptors created concurrently by strategies that create them
+   * asynchronously, such as {@link MetricDescriptorStrategy#SEND_ONCE_ASYNC}.
+   *
+   * <p>Default value is 8.
+   *
+   * @return the maximum number of concurrent descriptor creations.
+   */
+  public abstract int getMaxConcurrentDescriptorCreations();
+
+  /**
+   * Returns how long an export waits for the descriptors it started creating asynchronously before
+   * writing time series. Series whose descriptor is still pending are written anyway and rely on
+   * auto-creation. The budget covers the whole export, however many projects and batches it
+   * writes.
+   *
+   * <p>The default of zero writes time series without waiting.
+   *
+   * @return the descriptor creation budget of an export.
+   */
+  public abstract Duration getDescriptorCreationBudget();
+
+  /**
+   * Returns the maximum number of time series exported for each metric, counted separately for
+   * each project that series are routed to. Points of further series are folded into a single
+   * series with the {@code otel.metric.overflow=true} attribute. Series that receive no points for
+   * an hour no longer count against the limit.
+   *
+   * <p>The default of zero does not limit the number of series.
+   *
+   * @return the maximum number of series per metric.
+   */
+  public abstract int getCardinalityLimit();
+
+  /**
+   * Returns the attribute keys to keep, keyed by instrument name. All other attributes of these
+   * instruments are dropped before export, and points whose remaining attributes are equal are
+   * merged: sums are added, histogram buckets are added and gauges keep the latest value.
+   *
+   * <p>The default is empty.
+   *
+   * @return the attribute allowlists by instrument name.
+   */
+  public abstract Map<String, Set<String>> getLabelAllowlists();
+
+  /**
+   * Returns the attribute keys to drop, keyed by instrument name. Points whose remaining attributes
+   * are equal are merged as for {@link #getLabelAllowlists()}. An instrument cannot have both an
+   * allowlist and a denylist.
+   *
+   * <p>The default is empty.
+   *
+   * @return the attribute denylists by instrument name.
+   */
+  public abstract Map<String, Set<String>> getLabelDenylists();
+
+  /**
+   * Returns the maximum staleness of series whose value has not changed. When positive, a point
+   * whose value and start time equal those last written for its series is skipped, unless the
+   * series was last written at least this long ago.
+   *
+   * <p>The default of zero writes every point.
+   *
+   * @return the maximum time between writes of an unchanged series.
+   */
+  public abstract Duration getUnchangedSeriesMaxStaleness();
+
+  /**
+   * Returns the resource attribute that names the project each metric is written to, such as
+   * {@code cloud.account.id}.
+   *
+   * <p>When set, series are grouped by the value of this attribute on their resource, and each
+   * group is written to its own project over the same client. Batches for different projects are
+   * sent concurrently; if {@link #getMaxInFlightRequests()} is zero, up to 8 requests are kept in
+   * flight. Metrics whose resource lacks the attribute are written to {@link #getProjectId()}. The
+   * default is null, which writes every series to {@link #getProjectId()}.
+   *
+   * @return the resource attribute naming the target project, or null.
+   */
+  @Nullable
+  public abstract String getProjectIdResourceAttribute();
+
+  /**
+   * Returns the maximum number of time series written per second to each project. Bursts of up to
+   * one second's worth of series are written at once; beyond that, batches are handled according
+   * to {@link #getWriteRateLimitPolicy()}.
+   *
+   * <p>The default of zero does not limit the rate of series.
+   *
+   * @return the maximum rate of time series writes.
+   */
+  public abstract double getMaxTimeSeriesWritesPerSecond();
+
+  /**
+   * Returns the maximum number of CreateTimeSeries requests sent per second for each project,
+   * limited the same way as {@link #getMaxTimeSeriesWritesPerSecond()}.
+   *
+   * <p>The default of zero does not limit the rate of requests.
+   *
+   * @return the maximum rate of write requests.
+   */
+  public abstract double getMaxWriteRequestsPerSecond();
+
+  /**
+   * Returns what happens to a batch that exceeds the write rate limits.
+   *
+   * <p>With a spool, a shed batch is spooled instead of dropped. Either way its points are not
+   * recorded as written, so the minimum write interval and the unchanged series filter let them
+   * through again.
+   *
+   * <p>The default is {@link WriteRateLimitPolicy#DELAY}.
+   *
+   * @return the write rate limit policy.
+   */
+  public abstract WriteRateLimitPolicy getWriteRateLimitPolicy();
+
+  /**
+   * Returns the longest a batch is delayed under {@link WriteRateLimitPolicy#DELAY}. Batches that
+   * would have to wait longer are shed.
+   *
+   * <p>Default value is 10 seconds.
+   *
+   * @return the maximum delay of a rate-limited batch.
+   */
+  public abstract Duration getWriteRateLimitMaxDelay();
+
   public static Builder builder() {
     return new AutoValue_MetricConfiguration.Builder()
         .setProjectId(DEFAULT_PROJECT_ID)
         .setDeadline(DEFAULT_DEADLINE)
-        .setDescriptorStrategy(MetricDescriptorStrategy.SEND_ONCE);
+        .setDescriptorStrategy(MetricDescriptorStrategy.SEND_ONCE)
+        .setMaxInFlightRequests(0)
+        .setStreamingBatches(false)
+        .setMinimumWriteInterval(ZERO)
+        .setMaxWriteAttempts(DEFAULT_MAX_WRITE_ATTEMPTS)
+        .setWriteRetryInitialBackoff(DEFAULT_WRITE_RETRY_INITIAL_BACKOFF)
+        .setWriteRetryMaxBackoff(DEFAULT_WRITE_RETRY_MAX_BACKOFF)
+        .setSpoolMaxBytes(DEFAULT_SPOOL_MAX_BYTES)
+        .setDeltaTemporality(false)
+        .setDeltaIdleExpiry(DEFAULT_DELTA_IDLE_EXPIRY)
+        .setHistogramCompaction(false)
+        .setHistogramBucketLayouts(Collections.emptyMap())
+        .setOneExemplarPerBucket(false)
+        .setMetricTypePrefix(MetricTranslator.DESCRIPTOR_TYPE_URL)
+        .setPrewarmDescriptors(false)
+        .setMaxConcurrentDescriptorCreations(DEFAULT_MAX_CONCURRENT_DESCRIPTOR_CREATIONS)
+        .setDescriptorCreationBudget(ZERO)
+        .setCardinalityLimit(0)
+        .setLabelAllowlists(Collections.emptyMap())
+        .setLabelDenylists(Collections.emptyMap())
+        .setUnchangedSeriesMaxStaleness(ZERO)
+        .setMaxTimeSeriesWritesPerSecond(0)
+        .setMaxWriteRequestsPerSecond(0)
+        .setWriteRateLimitPolicy(WriteRateLimitPolicy.DELAY)
+        .setWriteRateLimitMaxDelay(DEFAULT_WRITE_RATE_LIMIT_MAX_DELAY);
   }
 
   /** Builder for {@link MetricConfiguration}. */
@@ -96,6 +425,45 @@ public abstract class MetricConfiguration {
 
     abstract Duration getDeadline();
 
+    abstract int getMaxInFlightRequests();
+
+    abstract Duration getMinimumWriteInterval();
+
+    abstract int getMaxWriteAttempts();
+
+    abstract Duration getWriteRetryInitialBackoff();
+
+    abstract Duration getWriteRetryMaxBackoff();
+
+    abstract long getSpoolMaxBytes();
+
+    abstract Duration getDeltaIdleExpiry();
+
+    abstract Map<String, List<Double>> getHistogramBucketLayouts();
+
+    abstract String getMetricTypePrefix();
+
+    abstract int getMaxConcurrentDescriptorCreations();
+
+    abstract Duration getDescriptorCreationBudget();
+
+    abstract int getCardinalityLimit();
+
+    abstract Map<String, Set<String>> getLabelAllowlists();
+
+    abstract Map<String, Set<String>> getLabelDenylists();
+
+    abstract Duration getUnchangedSeriesMaxStaleness();
+
+    @Nullable
+    abstract String getProjectIdResourceAttribute();
+
+    abstract double getMaxTimeSeriesWritesPerSecond();
+
+    abstract double getMaxWriteRequestsPerSecond();
+
+    abstract Duration getWriteRateLimitMaxDelay();
+
     public abstract Builder setProjectId(String projectId);
 
     public abstract Builder setCredentials(Credentials newCredentials);
@@ -106,6 +474,191 @@ public abstract class MetricConfiguration {
 
     public abstract Builder setDescriptorStrategy(MetricDescriptorStrategy strategy);
 
+    /**
+     * Enables asynchronous dispatch of CreateTimeSeries requests.
+     *
+     * @param maxInFlightRequests the maximum number of concurrent requests, or 0 to send batches
+     *     synchronously.
+     * @return this.
+     */
+    public abstract Builder setMaxInFlightRequests(int maxInFlightRequests);
+
+    /**
+     * Sets whether time series batches are sent as soon as they are full, while the rest of the
+     * cycle is still being translated.
+     *
+     * @param streamingBatches true to stream batches.
+     * @return this.
+     */
+    public abstract Builder setStreamingBatches(boolean streamingBatches);
+
+    /**
+     * Sets the minimum time between two points written to the same time series.
+     *
+     * @param minimumWriteInterval the minimum interval, or zero to write every point.
+     * @return this.
+     */
+    public abstract Builder setMinimumWriteInterval(Duration minimumWriteInterval);
+
+    /**
+     * Sets the maximum number of attempts to write a batch of time series.
+     *
+     * @param maxWriteAttempts the maximum number of attempts, or 1 to disable retries.
+     * @return this.
+     */
+    public abstract Builder setMaxWriteAttempts(int maxWriteAttempts);
+
+    public abstract Builder setWriteRetryInitialBackoff(Duration initialBackoff);
+
+    public abstract Builder setWriteRetryMaxBackoff(Duration maxBackoff);
+
+    /**
+     * Enables the on-disk spool for batches that could not be sent.
+     *
+     * @param spoolDirectory the directory to keep spool segments in.
+     * @return this.
+     */
+    public abstract Builder setSpoolDirectory(Path spoolDirectory);
+
+    public abstract Builder setSpoolMaxBytes(long spoolMaxBytes);
+
+    /**
+     * Sets whether counters and histograms are collected with DELTA temporality and accumulated by
+     * the exporter.
+     *
+     * @param deltaTemporality true to prefer DELTA temporality.
+     * @return this.
+     */
+    public abstract Builder setDeltaTemporality(boolean deltaTemporality);
+
+    public abstract Builder setDeltaIdleExpiry(Duration deltaIdleExpiry);
+
+    /**
+     * Sets whether trailing empty histogram buckets are dropped and configured bucket layouts are
+     * applied.
+     *
+     * @param histogramCompaction true to compact histograms.
+     * @return this.
+     */
+    public abstract Builder setHistogramCompaction(boolean histogramCompaction);
+
+    /**
+     * Sets the explicit bucket boundaries to re-bucket histograms onto, keyed by instrument name.
+     *
+     * @param histogramBucketLayouts strictly increasing boundaries for each instrument.
+     * @return this.
+     */
+    public abstract Builder setHistogramBucketLayouts(
+        Map<String, List<Double>> histogramBucketLayouts);
+
+    /**
+     * Sets whether only the most recent exemplar of each histogram bucket is sent.
+     *
+     * @param oneExemplarPerBucket true to send at most one exemplar per bucket.
+     * @return this.
+     */
+    public abstract Builder setOneExemplarPerBucket(boolean oneExemplarPerBucket);
+
+    /**
+     * Sets the prefix of the metric types of instruments outside the known Google domains.
+     *
+     * @param metricTypePrefix the prefix, ending with {@code /}.
+     * @return this.
+     */
+    public abstract Builder setMetricTypePrefix(String metricTypePrefix);
+
+    /**
+     * Sets whether existing descriptors are listed once when the exporter is created.
+     *
+     * @param prewarmDescriptors true to list existing descriptors.
+     * @return this.
+     */
+    public abstract Builder setPrewarmDescriptors(boolean prewarmDescriptors);
+
+    public abstract Builder setMaxConcurrentDescriptorCreations(
+        int maxConcurrentDescriptorCreations);
+
+    /**
+     * Sets how long an export waits for asynchronously created descriptors.
+     *
+     * @param descriptorCreationBudget the maximum wait, or zero to not wait.
+     * @return this.
+     */
+    public abstract Builder setDescriptorCreationBudget(Duration descriptorCreationBudget);
+
+    /**
+     * Sets the maximum number of time series exported for each metric.
+     *
+     * @param cardinalityLimit the maximum number of series, or zero for no limit.
+     * @return this.
+     */
+    public abstract Builder setCardinalityLimit(int cardinalityLimit);
+
+    /**
+     * Sets the attribute keys to keep, keyed by instrument name.
+     *
+     * @param labelAllowlists the attribute keys to keep for each instrument.
+     * @return this.
+     */
+    public abstract Builder setLabelAllowlists(Map<String, Set<String>> labelAllowlists);
+
+    /**
+     * Sets the attribute keys to drop, keyed by instrument name.
+     *
+     * @param labelDenylists the attribute keys to drop for each instrument.
+     * @return this.
+     */
+    public abstract Builder setLabelDenylists(Map<String, Set<String>> labelDenylists);
+
+    /**
+     * Sets the maximum time between writes of a series whose value has not changed.
+     *
+     * @param unchangedSeriesMaxStaleness the maximum staleness, or zero to write every point.
+     * @return this.
+     */
+    public abstract Builder setUnchangedSeriesMaxStaleness(Duration unchangedSeriesMaxStaleness);
+
+    /**
+     * Routes each metric to the project named by the given attribute of its resource.
+     *
+     * @param projectIdResourceAttribute the resource attribute key, such as {@code
+     *     cloud.account.id}.
+     * @return this.
+     */
+    public abstract Builder setProjectIdResourceAttribute(String projectIdResourceAttribute);
+
+    /**
+     * Sets the maximum number of time series written per second.
+     *
+     * @param maxTimeSeriesWritesPerSecond the maximum rate, or zero for no limit.
+     * @return this.
+     */
+    public abstract Builder setMaxTimeSeriesWritesPerSecond(double maxTimeSeriesWritesPerSecond);
+
+    /**
+     * Sets the maximum number of write requests sent per second.
+     *
+     * @param maxWriteRequestsPerSecond the maximum rate, or zero for no limit.
+     * @return this.
+     */
+    public abstract Builder setMaxWriteRequestsPerSecond(double maxWriteRequestsPerSecond);
+
+    /**
+     * Sets what happens to a batch that exceeds the write rate limits.
+     *
+     * @param writeRateLimitPolicy whether to delay or shed such batches.
+     * @return this.
+     */
+    public abstract Builder setWriteRateLimitPolicy(WriteRateLimitPolicy writeRateLimitPolicy);
+
+    /**
+     * Sets the longest a batch is delayed under {@link WriteRateLimitPolicy#DELAY}.
+     *
+     * @param writeRateLimitMaxDelay the maximum delay.
+     * @return this.
+     */
+    public abstract Builder setWriteRateLimitMaxDelay(Duration writeRateLimitMaxDelay);
+
     abstract MetricConfiguration autoBuild();
 
     /**
@@ -118,6 +671,50 @@ public abstract class MetricConfiguration {
           !Strings.isNullOrEmpty(getProjectId()),
           "Cannot find a project ID from either configurations or application default.");
       Preconditions.checkArgument(getDeadline().compareTo(ZERO) > 0, "Deadline must be positive.");
+      Preconditions.checkArgument(
+          getMaxInFlightRequests() >= 0, "Max in-flight requests must not be negative.");
+      Preconditions.checkArgument(
+          !getMinimumWriteInterval().isNegative(), "Minimum write interval must not be negative.");
+      Preconditions.checkArgument(
+          getMaxWriteAttempts() > 0, "Max write attempts must be positive.");
+      Preconditions.checkArgument(
+          !getWriteRetryInitialBackoff().isNegative(),
+          "Write retry initial backoff must not be negative.");
+      Preconditions.checkArgument(
+          getWriteRetryMaxBackoff().compareTo(getWriteRetryInitialBackoff()) >= 0,
+          "Write retry max backoff must not be less than the initial backoff.");
+      Preconditions.checkArgument(getSpoolMaxBytes() > 0, "Spool max bytes must be positive.");
+      Preconditions.checkArgument(
+          getDeltaIdleExpiry().compareTo(ZERO) > 0, "Delta idle expiry must be positive.");
+      getHistogramBucketLayouts().values().forEach(HistogramCompaction::checkLayout);
+      Preconditions.checkArgument(
+          getMetricTypePrefix().endsWith("/"), "Metric type prefix must end with '/'.");
+      Preconditions.checkArgument(
+          getMaxConcurrentDescriptorCreations() > 0,
+          "Max concurrent descriptor creations must be positive.");
+      Preconditions.checkArgument(
+          !getDescriptorCreationBudget().isNegative(),
+          "Descriptor creation budget must not be negative.");
+      Preconditions.checkArgument(
+          getCardinalityLimit() >= 0, "Cardinality limit must not be negative.");
+      Preconditions.checkArgument(
+          Collections.disjoint(getLabelAllowlists().keySet(), getLabelDenylists().keySet()),
+          "An instrument cannot have both a label allowlist and a label denylist.");
+      Preconditions.checkArgument(
+          !getUnchangedSeriesMaxStaleness().isNegative(),
+          "Unchanged series max staleness must not be negative.");
+      Preconditions.checkArgument(
+          getProjectIdResourceAttribute() == null || !getProjectIdResourceAttribute().isEmpty(),
+          "Project ID resource attribute must not be empty.");
+      Preconditions.checkArgument(
+          getMaxTimeSeriesWritesPerSecond() >= 0,
+          "Max time series writes per second must not be negative.");
+      Preconditions.checkArgument(
+          getMaxWriteRequestsPerSecond() >= 0,
+          "Max write requests per second must not be negative.");
+      Preconditions.checkArgument(
+          !getWriteRateLimitMaxDelay().isNegative(),
+          "Write rate limit max delay must not be negative.");
       return autoBuild();
     }
   }
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.MetricTranslator.mapMetricDescriptor;
+
+import com.google.api.MetricDescriptor;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.MetricDataType;
+import io.opentelemetry.sdk.metrics.data.PointData;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * Memoizes {@link MetricDescriptor}s by instrument identity and attribute-key set.
+ *
+ * <p>A descriptor depends only on the instrument (name, description, unit and aggregation) and on
+ * the names and types of a point's attributes. Once a descriptor is known, a point of the same
+ * shape is matched against it by key lookups on its attributes, without building anything.
+ */
+final class MetricDescriptorCache {
+
+  private static final int MAX_INSTRUMENTS = 4096;
+  private static final int MAX_SHAPES_PER_INSTRUMENT = 16;
+
+  private final ConcurrentMap<InstrumentKey, Instrument> instruments = new ConcurrentHashMap<>();
+  private final MetricTypeCache metricTypes;
+
+  MetricDescriptorCache() {
+    this(MetricTypeCache.DEFAULT);
+  }
+
+  MetricDescriptorCache(MetricTypeCache metricTypes) {
+    this.metricTypes = metricTypes;
+  }
+
+  /** Returns the descriptors known for the instrument that produced {@code metric}. */
+  Instrument forInstrument(MetricData metric) {
+    InstrumentKey key = InstrumentKey.of(metric);
+    Instrument instrument = instruments.get(key);
+    if (instrument == null) {
+      instrument = new Instrument(metricTypes);
+      // Past the bound, descriptors are still memoized for the current caller but not retained.
+      if (instruments.size() < MAX_INSTRUMENTS) {
+        Instrument existing = instruments.putIfAbsent(key, instrument);
+        if (existing != null) {
+          instrument = existing;
+        }
+      }
+    }
+    return instrument;
+  }
+
+  /** The descriptors of a single instrument, one per distinct attribute-key set. */
+  static final class Instrument {
+    // Copy-on-write: an instrument almost always reports a single attribute-key set.
+    private volatile List<Shape> shapes = Collections.emptyList();
+    private final MetricTypeCache metricTypes;
+
+    Instrument(MetricTypeCache metricTypes) {
+      this.metricTypes = metricTypes;
+    }
+
+    /**
+     * Returns the descriptor for a point of this instrument, or null if the metric type is not
+     * supported.
+     */
+    @Nullable
+    MetricDescriptor get(MetricData metric, PointData point) {
+      Attributes attributes = point.getAttributes();
+      List<Shape> known = shapes;
+      for (int i = 0; i < known.size(); i++) {
+        Shape shape = known.get(i);
+        if (shape.matches(attributes)) {
+          return shape.descriptor;
+        }
+      }
+      MetricDescriptor descriptor = mapMetricDescriptor(metric, point, metricTypes);
+      if (descriptor != null) {
+        add(attributes, descriptor);
+      }
+      return descriptor;
+    }
+
+    private synchronized void add(Attributes attributes, MetricDescriptor descriptor) {
+      List<Shape> known = shapes;
+      if (known.size() >= MAX_SHAPES_PER_INSTRUMENT) {
+        return;
+      }
+      for (Shape shape : known) {
+        if (shape.matches(attributes)) {
+          return;
+        }
+      }
+      List<Shape> updated = new ArrayList<>(known.size() + 1);
+      updated.addAll(known);
+      updated.add(new Shape(attributes, descriptor));
+      shapes = updated;
+    }
+  }
+
+  private static final class Shape {
+    private final List<AttributeKey<?>> keys;
+    private final MetricDescriptor descriptor;
+
+    Shape(Attributes attributes, MetricDescriptor descriptor) {
+      this.keys = new ArrayList<>(attributes.asMap().keySet());
+      this.descriptor = descriptor;
+    }
+
+    /** Returns true if {@code attributes} has exactly this shape's keys (names and types). */
+    boolean matches(Attributes attributes) {
+      if (attributes.size() != keys.size()) {
+        return false;
+      }
+      for (int i = 0; i < keys.size(); i++) {
+        if (attributes.get(keys.get(i)) == null) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class InstrumentKey {
+    private final String name;
+    private final String description;
+    private final String unit;
+    private final MetricDataType type;
+    private final boolean monotonic;
+    @Nullable private final AggregationTemporality temporality;
+
+    private InstrumentKey(
+        String name,
+        String description,
+        String unit,
+        MetricDataType type,
+        boolean monotonic,
+        @Nullable AggregationTemporality temporality) {
+      this.name = name;
+      this.description = description;
+      this.unit = unit;
+      this.type = type;
+      this.monotonic = monotonic;
+      this.temporality = temporality;
+    }
+
+    static InstrumentKey of(MetricData metric) {
+      boolean monotonic = false;
+      AggregationTemporality temporality = null;
+      switch (metric.getType()) {
+        case LONG_SUM:
+          monotonic = metric.getLongSumData().isMonotonic();
+          temporality = metric.getLongSumData().getAggregationTemporality();
+          break;
+        case DOUBLE_SUM:
+          monotonic = metric.getDoubleSumData().isMonotonic();
+          temporality = metric.getDoubleSumData().getAggregationTemporality();
+          break;
+        case HISTOGRAM:
+          temporality = metric.getHistogramData().getAggregationTemporality();
+          break;
+        case EXPONENTIAL_HISTOGRAM:
+          temporality = metric.getExponentialHistogramData().getAggregationTemporality();
+          break;
+        default:
+          break;
+      }
+      return new InstrumentKey(
+          metric.getName(),
+          metric.getDescription(),
+          metric.getUnit(),
+          metric.getType(),
+          monotonic,
+          temporality);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      InstrumentKey that = (InstrumentKey) o;
+      return monotonic == that.monotonic
+          && type == that.type
+          && temporality == that.temporality
+          && Objects.equals(name, that.name)
+          && Objects.equals(description, that.description)
+          && Objects.equals(unit, that.unit);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(name, description, unit, type, monotonic, temporality);
+    }
+  }
+}
@@ -16,9 +16,10 @@
 package com.google.cloud.opentelemetry.metric;
 
 import com.google.api.MetricDescriptor;
-import java.util.HashSet;
-import java.util.Set;
+import com.google.api.core.ApiFuture;
+import java.nio.file.Path;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /** The strategy for how to handle metric descriptors. */
 public interface MetricDescriptorStrategy {
@@ -32,6 +33,35 @@ public interface MetricDescriptorStrategy {
   void exportDescriptors(
       Iterable<MetricDescriptor> batchDescriptors, Consumer<MetricDescriptor> export);
 
+  /**
+   * Determines what to do with the metric descriptors of a batch written to a project.
+   *
+   * <p>The default ignores the project and calls {@link #exportDescriptors(Iterable, Consumer)}.
+   *
+   * @param projectId The project the batch is written to.
+   * @param batchDescriptors The set of metrics being exported in a batch.
+   * @param export A consumer that registers a metric descriptor to cloud monitoring and returns
+   *     once it is registered.
+   * @param exportAsync Starts registering a metric descriptor and returns a future of the result.
+   */
+  default void exportDescriptors(
+      String projectId,
+      Iterable<MetricDescriptor> batchDescriptors,
+      Consumer<MetricDescriptor> export,
+      Function<MetricDescriptor, ApiFuture<?>> exportAsync) {
+    exportDescriptors(batchDescriptors, export);
+  }
+
+  /**
+   * Tells the strategy about descriptors that already exist in a project, such as those listed
+   * when an exporter is created. The default ignores them.
+   *
+   * @param projectId The project the descriptors exist in.
+   * @param existingDescriptors The existing descriptors.
+   */
+  default void registerExistingDescriptors(
+      String projectId, Iterable<MetricDescriptor> existingDescriptors) {}
+
   /** A strategy that always sends metric descriptors. */
   public static MetricDescriptorStrategy ALWAYS_SEND =
       new MetricDescriptorStrategy() {
@@ -52,20 +82,30 @@ public interface MetricDescriptorStrategy {
             Iterable<MetricDescriptor> batchDescriptors, Consumer<MetricDescriptor> export) {}
       };
 
-  /** A strategy that sends descriptors once per classloader instance. */
-  public static MetricDescriptorStrategy SEND_ONCE =
-      new MetricDescriptorStrategy() {
-        private final Set<String> alreadySent = new HashSet<>();
+  /**
+   * A strategy that sends descriptors once per project and classloader instance. Exporters never
+   * wait on one another while descriptors are sent.
+   */
+  public static MetricDescriptorStrategy SEND_ONCE = new SendOnceDescriptorStrategy(false);
 
-        @Override
-        public synchronized void exportDescriptors(
-            Iterable<MetricDescriptor> batchDescriptors, Consumer<MetricDescriptor> export) {
-          for (MetricDescriptor descriptor : batchDescriptors) {
-            if (!alreadySent.contains(descriptor.getType())) {
-              export.accept(descriptor);
-              alreadySent.add(descriptor.getType());
-            }
-          }
-        }
-      };
+  /**
+   * A strategy that sends descriptors once per project and classloader instance, without waiting
+   * for them to be created. Time series written before their descriptor exists rely on
+   * auto-creation.
+   */
+  public static MetricDescriptorStrategy SEND_ONCE_ASYNC = new SendOnceDescriptorStrategy(true);
+
+  /**
+   * Returns a strategy that sends a descriptor only if it was not created before by any process
+   * sharing {@code registryFile}, or if its definition has changed since.
+   *
+   * <p>The file records a fingerprint of each descriptor once it has been created, so a restarted
+   * process skips creating descriptors that are already in place. It is created if missing.
+   *
+   * @param registryFile the file to record created descriptors in.
+   * @return the strategy.
+   */
+  static MetricDescriptorStrategy persistent(Path registryFile) {
+    return new PersistentDescriptorStrategy(registryFile);
+  }
 }
@@ -16,33 +16,51 @@
 package com.google.cloud.opentelemetry.metric;
 
 import static com.google.api.client.util.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import com.google.api.MetricDescriptor;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
 import com.google.api.gax.core.FixedCredentialsProvider;
 import com.google.auth.Credentials;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.monitoring.v3.MetricServiceClient;
 import com.google.cloud.monitoring.v3.MetricServiceSettings;
 import com.google.cloud.monitoring.v3.stub.MetricServiceStub;
+import com.google.cloud.opentelemetry.metric.RetryingTimeSeriesWriter.TransientFailureHandler;
+import com.google.cloud.opentelemetry.metric.TimeSeriesBatcher.SeriesIdentity;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.Lists;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.monitoring.v3.CreateMetricDescriptorRequest;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.ListMetricDescriptorsRequest;
 import com.google.monitoring.v3.ProjectName;
 import com.google.monitoring.v3.TimeSeries;
-import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.sdk.common.CompletableResultCode;
 import io.opentelemetry.sdk.metrics.InstrumentType;
 import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
-import io.opentelemetry.sdk.metrics.data.DoublePointData;
-import io.opentelemetry.sdk.metrics.data.HistogramPointData;
-import io.opentelemetry.sdk.metrics.data.LongPointData;
 import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.PointData;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,17 +69,104 @@ public class MetricExporter implements io.opentelemetry.sdk.metrics.export.Metri
   private static final Logger logger = LoggerFactory.getLogger(MetricExporter.class);
 
   private static final String PROJECT_NAME_PREFIX = "projects/";
-  private static final int MAX_BATCH_SIZE = 200;
+  // Batches for different projects are sent concurrently when routing, even if not configured.
+  private static final int DEFAULT_ROUTED_MAX_IN_FLIGHT_REQUESTS = 8;
+  // Export cycles in which a spooled batch may fail before it is dropped.
 
   private final CloudMetricClient metricServiceClient;
   private final String projectId;
+  // Null when every series is written to projectId.
+  @Nullable private final AttributeKey<String> projectIdAttribute;
   private final MetricDescriptorStrategy metricDescriptorStrategy;
+  private final RetryingTimeSeriesWriter timeSeriesWriter;
+  // Null when spooling is disabled.
+  @Nullable private final TimeSeriesSpool spool;
+  // Null when batches are sent synchronously.
+  @Nullable private final BoundedRequestDispatcher dispatcher;
+  // Creates the rate limiter of a project. Null when writes are not rate limited.
+  @Nullable private final Supplier<WriteRateLimiter> writeRateLimiterFactory;
+  // Write quotas are per project, so each project the exporter writes to has its own limiter.
+  private final ConcurrentMap<String, WriteRateLimiter> writeRateLimiters =
+      new ConcurrentHashMap<>();
+  // Bounds the number of asynchronous descriptor creations in flight.
+  private final BoundedRequestDispatcher descriptorDispatcher;
+  private final long descriptorCreationBudgetNanos;
+  private final boolean streamingBatches;
+  // Null when every point is written.
+  @Nullable private final WriteIntervalFilter writeIntervalFilter;
+  // Null when unchanged series are written too.
+  @Nullable private final UnchangedSeriesFilter unchangedSeriesFilter;
+  private final boolean deltaTemporality;
+  private final DeltaAccumulator deltaAccumulator;
+  private final HistogramCompaction histogramCompaction;
+  @Nullable private final LabelFilter labelFilter;
+  @Nullable private final CardinalityLimiter cardinalityLimiter;
+  // Shared across export cycles so each distinct descriptor and series header is built once.
+  private final MetricDescriptorCache descriptorCache;
+  private final TimeSeriesHeaderTable headerTable =
+      new TimeSeriesHeaderTable(new MonitoredResourceCache());
 
   MetricExporter(
       String projectId, CloudMetricClient client, MetricDescriptorStrategy descriptorStrategy) {
-    this.projectId = projectId;
+    this(
+        client,
+        MetricConfiguration.builder()
+            .setProjectId(projectId)
+            .setDescriptorStrategy(descriptorStrategy)
+            .build());
+  }
+
+  MetricExporter(CloudMetricClient client, MetricConfiguration configuration) {
+    this.projectId = configuration.getProjectId();
+    this.projectIdAttribute =
+        configuration.getProjectIdResourceAttribute() == null
+            ? null
+            : AttributeKey.stringKey(configuration.getProjectIdResourceAttribute());
     this.metricServiceClient = client;
-    this.metricDescriptorStrategy = descriptorStrategy;
+    this.metricDescriptorStrategy = configuration.getDescriptorStrategy();
+    this.spool = createSpool(configuration);
+    this.timeSeriesWriter =
+        new RetryingTimeSeriesWriter(
+            client,
+            configuration.getMaxWriteAttempts(),
+            configuration.getWriteRetryInitialBackoff().toNanos(),
+            configuration.getWriteRetryMaxBackoff().toNanos());
+    int maxInFlightRequests = configuration.getMaxInFlightRequests();
+    if (maxInFlightRequests == 0 && projectIdAttribute != null) {
+      maxInFlightRequests = DEFAULT_ROUTED_MAX_IN_FLIGHT_REQUESTS;
+    }
+    this.dispatcher =
+        maxInFlightRequests > 0 ? new BoundedRequestDispatcher(maxInFlightRequests) : null;
+    this.writeRateLimiterFactory = createWriteRateLimiterFactory(configuration);
+    this.descriptorDispatcher =
+        new BoundedRequestDispatcher(configuration.getMaxConcurrentDescriptorCreations());
+    this.descriptorCreationBudgetNanos = configuration.getDescriptorCreationBudget().toNanos();
+    this.streamingBatches = configuration.getStreamingBatches();
+    this.deltaTemporality = configuration.getDeltaTemporality();
+    this.deltaAccumulator = new DeltaAccumulator(configuration.getDeltaIdleExpiry().toNanos());
+    this.descriptorCache =
+        new MetricDescriptorCache(new MetricTypeCache(configuration.getMetricTypePrefix()));
+    this.histogramCompaction =
+        new HistogramCompaction(
+            configuration.getHistogramCompaction(),
+            configuration.getHistogramBucketLayouts(),
+            configuration.getOneExemplarPerBucket());
+    LabelFilter labelFilter =
+        new LabelFilter(configuration.getLabelAllowlists(), configuration.getLabelDenylists());
+    this.labelFilter = labelFilter.isEmpty() ? null : labelFilter;
+    this.cardinalityLimiter =
+        configuration.getCardinalityLimit() > 0
+            ? new CardinalityLimiter(configuration.getCardinalityLimit())
+            : null;
+    long minWriteIntervalNanos = configuration.getMinimumWriteInterval().toNanos();
+    this.writeIntervalFilter =
+        minWriteIntervalNanos > 0 ? new WriteIntervalFilter(minWriteIntervalNanos) : null;
+    long maxStalenessNanos = configuration.getUnchangedSeriesMaxStaleness().toNanos();
+    this.unchangedSeriesFilter =
+        maxStalenessNanos > 0 ? new UnchangedSeriesFilter(maxStalenessNanos) : null;
+    if (configuration.getPrewarmDescriptors()) {
+      prewarmDescriptors(configuration.getMetricTypePrefix());
+    }
   }
 
   public static MetricExporter createWithDefaultConfiguration() throws IOException {
@@ -71,7 +176,6 @@ public class MetricExporter implements io.opentelemetry.sdk.metrics.export.Metri
 
   public static MetricExporter createWithConfiguration(MetricConfiguration configuration)
       throws IOException {
-    String projectId = configuration.getProjectId();
     MetricServiceStub stub = configuration.getMetricServiceStub();
 
     if (stub == null) {
@@ -80,16 +184,10 @@ public class MetricExporter implements io.opentelemetry.sdk.metrics.export.Metri
               ? GoogleCredentials.getApplicationDefault()
               : configuration.getCredentials();
 
-      return MetricExporter.createWithCredentials(
-          projectId,
-          credentials,
-          configuration.getDeadline(),
-          configuration.getDescriptorStrategy());
+      return MetricExporter.createWithCredentials(credentials, configuration);
     }
     return MetricExporter.createWithClient(
-        projectId,
-        new CloudMetricClientImpl(MetricServiceClient.create(stub)),
-        configuration.getDescriptorStrategy());
+        new CloudMetricClientImpl(MetricServiceClient.create(stub)), configuration);
   }
 
   @VisibleForTesting
@@ -100,12 +198,15 @@ public class MetricExporter implements io.opentelemetry.sdk.metrics.export.Metri
     return new MetricExporter(projectId, metricServiceClient, descriptorStrategy);
   }
 
+  @VisibleForTesting
+  static MetricExporter createWithClient(
+      CloudMetricClient metricServiceClient, MetricConfiguration configuration) {
+    return new MetricExporter(metricServiceClient, configuration);
+  }
+
   private static MetricExporter createWithCredentials(
-      String projectId,
-      Credentials credentials,
-      Duration deadline,
-      MetricDescriptorStrategy descriptorStrategy)
-      throws IOException {
+      Credentials credentials, MetricConfiguration configuration) throws IOException {
+    Duration deadline = configuration.getDeadline();
     MetricServiceSettings.Builder builder =
         MetricServiceSettings.newBuilder()
             .setCredentialsProvider(
@@ -115,12 +216,55 @@ public class MetricExporter implements io.opentelemetry.sdk.metrics.export.Metri
         .createMetricDescriptorSettings()
         .setSimpleTimeoutNoRetries(org.threeten.bp.Duration.ofMillis(deadline.toMillis()));
     return new MetricExporter(
-        projectId,
-        new CloudMetricClientImpl(MetricServiceClient.create(builder.build())),
-        descriptorStrategy);
+        new CloudMetricClientImpl(MetricServiceClient.create(builder.build())), configuration);
+  }
+
+  @Nullable
+  private static TimeSeriesSpool createSpool(MetricConfiguration configuration) {
+    if (configuration.getSpoolDirectory() == null) {
+      return null;
+    }
+    try {
+      return new TimeSeriesSpool(
+          configuration.getSpoolDirectory(), configuration.getSpoolMaxBytes());
+    } catch (IOException e) {
+      logger.warn("Failed to open metric spool; failed batches will be dropped", e);
+      return null;
+    }
   }
 
-  private void exportDescriptor(MetricDescriptor descriptor) {
+  @Nullable
+  private static Supplier<WriteRateLimiter> createWriteRateLimiterFactory(
+      MetricConfiguration configuration) {
+    double seriesPerSecond = configuration.getMaxTimeSeriesWritesPerSecond();
+    double requestsPerSecond = configuration.getMaxWriteRequestsPerSecond();
+    if (seriesPerSecond == 0 && requestsPerSecond == 0) {
+      return null;
+    }
+    long maxDelayNanos =
+        configuration.getWriteRateLimitPolicy() == WriteRateLimitPolicy.SHED
+            ? 0
+            : configuration.getWriteRateLimitMaxDelay().toNanos();
+    return () ->
+        new WriteRateLimiter(seriesPerSecond, requestsPerSecond, maxDelayNanos, System.nanoTime());
+  }
+
+  /** Tells the descriptor strategy which descriptors under {@code prefix} exist already. */
+  private void prewarmDescriptors(String prefix) {
+    try {
+      metricDescriptorStrategy.registerExistingDescriptors(
+          projectId,
+          metricServiceClient.listMetricDescriptors(
+              ListMetricDescriptorsRequest.newBuilder()
+                  .setName(PROJECT_NAME_PREFIX + projectId)
+                  .setFilter("metric.type = starts_with(\"" + prefix + "\")")
+                  .build()));
+    } catch (RuntimeException e) {
+      logger.warn("Failed to list existing metric descriptors", e);
+    }
+  }
+
+  private void exportDescriptor(String projectId, MetricDescriptor descriptor) {
     logger.trace("Creating metric descriptor: %s", descriptor);
     metricServiceClient.createMetricDescriptor(
         CreateMetricDescriptorRequest.newBuilder()
@@ -129,9 +273,65 @@ public class MetricExporter implements io.opentelemetry.sdk.metrics.export.Metri
             .build());
   }
 
+  /**
+   * Starts creating a descriptor once fewer than the maximum number of creations are in flight,
+   * and adds the creation to {@code started}.
+   */
+  private ApiFuture<MetricDescriptor> exportDescriptorAsync(
+      String projectId, MetricDescriptor descriptor, List<CompletableResultCode> started) {
+    logger.trace("Creating metric descriptor: %s", descriptor);
+    CreateMetricDescriptorRequest request =
+        CreateMetricDescriptorRequest.newBuilder()
+            .setName(PROJECT_NAME_PREFIX + projectId)
+            .setMetricDescriptor(descriptor)
+            .build();
+    SettableApiFuture<MetricDescriptor> result = SettableApiFuture.create();
+    started.add(
+        descriptorDispatcher.dispatch(
+            () -> {
+              ApiFuture<MetricDescriptor> created;
+              try {
+                created = metricServiceClient.createMetricDescriptorAsync(request);
+              } catch (RuntimeException e) {
+                result.setException(e);
+                throw e;
+              }
+              ApiFutures.addCallback(
+                  created,
+                  new ApiFutureCallback<MetricDescriptor>() {
+                    @Override
+                    public void onFailure(Throwable t) {
+                      result.setException(t);
+                    }
+
+                    @Override
+                    public void onSuccess(MetricDescriptor response) {
+                      result.set(response);
+                    }
+                  },
+                  MoreExecutors.directExecutor());
+              // The strategy reports failures through result; the dispatcher only bounds
+              // concurrency.
+              return ApiFutures.catching(
+                  created, Throwable.class, t -> null, MoreExecutors.directExecutor());
+            }));
+    return result;
+  }
+
   @Override
   public AggregationTemporality getAggregationTemporality(InstrumentType instrumentType) {
-    return AggregationTemporality.CUMULATIVE;
+    if (!deltaTemporality) {
+      return AggregationTemporality.CUMULATIVE;
+    }
+    switch (instrumentType) {
+      case COUNTER:
+      case OBSERVABLE_COUNTER:
+      case HISTOGRAM:
+        return AggregationTemporality.DELTA;
+      default:
+        // Up-down counters are reported as gauges, which need the current total.
+        return AggregationTemporality.CUMULATIVE;
+    }
   }
 
   @Override
@@ -140,127 +340,486 @@ public class MetricExporter implements io.opentelemetry.sdk.metrics.export.Metri
     // 1. Iterate over all points in the set of metrics to export
     // 2. Attempt to register MetricDescriptors (using configured strategy)
     // 3. Fire the set of time series off.
-    MetricTimeSeriesBuilder builder = new AggregateByLabelMetricTimeSeriesBuilder(projectId);
-    for (final MetricData metricData : metrics) {
+    // When streaming, steps 2 and 3 also run for every batch that fills up during step 1.
+    // Batches spooled during an earlier outage are re-sent first, and DELTA metrics are folded
+    // into the cumulative form Cloud Monitoring expects. When routing by resource attribute, the
+    // steps run once per target project.
+    replaySpool();
+    metrics = deltaAccumulator.accumulate(metrics);
+    // Descriptor creation shares one budget across every project and batch of this export.
+    long descriptorDeadlineNanos = System.nanoTime() + descriptorCreationBudgetNanos;
+    CompletableResultCode result;
+    if (projectIdAttribute == null) {
+      result = exportToProject(projectId, metrics, descriptorDeadlineNanos);
+    } else {
+      List<CompletableResultCode> results = new ArrayList<>();
+      for (Map.Entry<String, List<MetricData>> project : groupByProject(metrics).entrySet()) {
+        results.add(
+            exportToProject(project.getKey(), project.getValue(), descriptorDeadlineNanos));
+      }
+      result = CompletableResultCode.ofAll(results);
+    }
+    headerTable.endCycle();
+    if (writeIntervalFilter != null) {
+      writeIntervalFilter.prune();
+    }
+    if (unchangedSeriesFilter != null) {
+      unchangedSeriesFilter.prune();
+    }
+    return result;
+  }
+
+  // Groups metrics by the project named by their resource, keeping the order of first appearance.
+  private Map<String, List<MetricData>> groupByProject(Collection<MetricData> metrics) {
+    Map<String, List<MetricData>> byProject = new LinkedHashMap<>();
+    for (MetricData metric : metrics) {
+      String project = metric.getResource().getAttribute(projectIdAttribute);
+      if (Strings.isNullOrEmpty(project)) {
+        project = projectId;
+      }
+      byProject.computeIfAbsent(project, p -> new ArrayList<>()).add(metric);
+    }
+    return byProject;
+  }
+
+  private CompletableResultCode exportToProject(
+      String projectId, Collection<MetricData> metrics, long descriptorDeadlineNanos) {
+    ProjectName projectName = ProjectName.of(projectId);
+    List<CompletableResultCode> results = new ArrayList<>();
+    PendingWrites pendingWrites =
+        writeIntervalFilter == null && unchangedSeriesFilter == null ? null : new PendingWrites();
+    AtomicInteger streamedSeries = new AtomicInteger();
+    MetricTimeSeriesBuilder builder;
+    if (streamingBatches) {
+      builder =
+          new StreamingMetricTimeSeriesBuilder(
+              projectId,
+              descriptorCache,
+              headerTable,
+              histogramCompaction,
+              (descriptors, batch) -> {
+                exportDescriptors(projectId, descriptors, descriptorDeadlineNanos);
+                streamedSeries.addAndGet(batch.size());
+                results.add(sendStreamedBatch(projectName, batch, pendingWrites));
+              });
+    } else {
+      builder =
+          new AggregateByLabelMetricTimeSeriesBuilder(
+              projectId, descriptorCache, headerTable, histogramCompaction);
+    }
+    int throttledMetrics = 0;
+    for (MetricData metricData : metrics) {
+      if (labelFilter != null) {
+        metricData = labelFilter.apply(metricData);
+      }
+      if (cardinalityLimiter != null) {
+        metricData = cardinalityLimiter.limit(projectId, metricData);
+      }
       // Extract all the underlying points.
+      boolean throttled;
       switch (metricData.getType()) {
         case LONG_GAUGE:
-          for (LongPointData point : metricData.getLongGaugeData().getPoints()) {
-            builder.recordPoint(metricData, point);
-          }
+          throttled =
+              recordDuePoints(
+                  projectId,
+                  metricData,
+                  pendingWrites,
+                  metricData.getLongGaugeData().getPoints(),
+                  builder::recordPoint);
           break;
         case LONG_SUM:
-          for (LongPointData point : metricData.getLongSumData().getPoints()) {
-            builder.recordPoint(metricData, point);
-          }
+          throttled =
+              recordDuePoints(
+                  projectId,
+                  metricData,
+                  pendingWrites,
+                  metricData.getLongSumData().getPoints(),
+                  builder::recordPoint);
           break;
         case DOUBLE_GAUGE:
-          for (DoublePointData point : metricData.getDoubleGaugeData().getPoints()) {
-            builder.recordPoint(metricData, point);
-          }
+          throttled =
+              recordDuePoints(
+                  projectId,
+                  metricData,
+                  pendingWrites,
+                  metricData.getDoubleGaugeData().getPoints(),
+                  builder::recordPoint);
           break;
         case DOUBLE_SUM:
-          for (DoublePointData point : metricData.getDoubleSumData().getPoints()) {
-            builder.recordPoint(metricData, point);
-          }
+          throttled =
+              recordDuePoints(
+                  projectId,
+                  metricData,
+                  pendingWrites,
+                  metricData.getDoubleSumData().getPoints(),
+                  builder::recordPoint);
           break;
         case HISTOGRAM:
-          for (HistogramPointData point : metricData.getHistogramData().getPoints()) {
-            builder.recordPoint(metricData, point);
-          }
+          throttled =
+              recordDuePoints(
+                  projectId,
+                  metricData,
+                  pendingWrites,
+                  metricData.getHistogramData().getPoints(),
+                  builder::recordPoint);
+          break;
+        case EXPONENTIAL_HISTOGRAM:
+          throttled =
+              recordDuePoints(
+                  projectId,
+                  metricData,
+                  pendingWrites,
+                  metricData.getExponentialHistogramData().getPoints(),
+                  builder::recordPoint);
           break;
         default:
           logger.error("OpenTelemetry Metric type {} not supported.", metricData.getType());
           continue;
       }
-      // TODO: Filter metrics by last updated time....
-      // MetricWithLabels updateKey =
-      // new MetricWithLabels(descriptor.getType(), metricPoint.getLabels());
-
-      // // Cloud Monitoring API allows, for any combination of labels and
-      // // metric name, one update per WRITE_INTERVAL seconds
-      // long pointCollectionTime = metricPoint.getEpochNanos();
-      // if (lastUpdatedTime.containsKey(updateKey)
-      // && pointCollectionTime
-      // <= lastUpdatedTime.get(updateKey) / NANO_PER_SECOND + WRITE_INTERVAL_SECOND)
-      // {
-      // continue;
-      // }
-    }
-    // Update metric descriptors based on configured strategy.
-    try {
-      Collection<MetricDescriptor> descriptors = builder.getDescriptors();
-      if (!descriptors.isEmpty()) {
-        metricDescriptorStrategy.exportDescriptors(descriptors, this::exportDescriptor);
+      if (throttled) {
+        throttledMetrics++;
       }
-    } catch (Exception e) {
-      logger.warn("Failed to create metric descriptors", e);
     }
+    // Update metric descriptors based on configured strategy.
+    exportDescriptors(projectId, builder.getDescriptors(), descriptorDeadlineNanos);
 
     List<TimeSeries> series = builder.getTimeSeries();
-    createTimeSeriesBatch(metricServiceClient, ProjectName.of(projectId), series);
+    createTimeSeriesBatch(projectName, series, pendingWrites, results);
     // TODO: better error reporting.
-    if (series.size() < metrics.size()) {
+    // Metrics whose points were all dropped as not due or unchanged produce no series.
+    if (series.size() + streamedSeries.get() + throttledMetrics < metrics.size()) {
       return CompletableResultCode.ofFailure();
     }
-    return CompletableResultCode.ofSuccess();
+    return CompletableResultCode.ofAll(results);
+  }
+
+  /**
+   * Records every point that is due under the minimum write interval and that is not an unchanged
+   * value within the maximum staleness. The recorded points are added to {@code pendingWrites},
+   * which is null when neither filter is enabled, under the identity of the series they go to.
+   *
+   * @return true if there were points and all of them were dropped.
+   */
+  private <T extends PointData> boolean recordDuePoints(
+      String projectId,
+      MetricData metric,
+      @Nullable PendingWrites pendingWrites,
+      Collection<T> points,
+      BiConsumer<MetricData, T> record) {
+    if (pendingWrites == null) {
+      points.forEach(point -> record.accept(metric, point));
+      return false;
+    }
+    MetricDescriptorCache.Instrument instrument = descriptorCache.forInstrument(metric);
+    int dropped = 0;
+    for (T point : points) {
+      long fingerprint = SeriesFingerprint.of(projectId, metric, point.getAttributes());
+      long valueHash = unchangedSeriesFilter == null ? 0 : UnchangedSeriesFilter.valueHash(point);
+      if ((unchangedSeriesFilter == null
+              || !unchangedSeriesFilter.isUnchanged(fingerprint, valueHash, point.getEpochNanos()))
+          && (writeIntervalFilter == null
+              || writeIntervalFilter.isDue(fingerprint, point.getEpochNanos()))) {
+        MetricDescriptor descriptor = instrument.get(metric, point);
+        if (descriptor != null) {
+          TimeSeries header = headerTable.get(metric, point.getAttributes(), descriptor);
+          pendingWrites.add(
+              new SeriesIdentity(header.getMetric(), header.getResource()),
+              fingerprint,
+              valueHash,
+              point.getEpochNanos());
+        }
+        record.accept(metric, point);
+      } else {
+        dropped++;
+      }
+    }
+    return dropped > 0 && dropped == points.size();
+  }
+
+  // Called once a batch was written, so that points which were not written, or were only spooled,
+  // do not hold back the next points of their series.
+  private void recordWrites(PendingWrites pendingWrites, List<TimeSeries> batch) {
+    for (TimeSeries series : batch) {
+      pendingWrites.take(series, this::recordWrite);
+    }
+  }
+
+  private void recordWrite(long fingerprint, long valueHash, long epochNanos) {
+    if (writeIntervalFilter != null) {
+      writeIntervalFilter.recordWrite(fingerprint, epochNanos);
+    }
+    if (unchangedSeriesFilter != null) {
+      unchangedSeriesFilter.recordWrite(fingerprint, valueHash, epochNanos);
+    }
+  }
+
+  private void exportDescriptors(
+      String projectId, Collection<MetricDescriptor> descriptors, long deadlineNanos) {
+    if (descriptors.isEmpty()) {
+      return;
+    }
+    List<CompletableResultCode> started = new ArrayList<>();
+    try {
+      metricDescriptorStrategy.exportDescriptors(
+          projectId,
+          descriptors,
+          descriptor -> exportDescriptor(projectId, descriptor),
+          descriptor -> exportDescriptorAsync(projectId, descriptor, started));
+    } catch (Exception e) {
+      logger.warn("Failed to create metric descriptors", e);
+    }
+    long remainingNanos = deadlineNanos - System.nanoTime();
+    if (remainingNanos > 0 && !started.isEmpty()) {
+      // Series whose descriptor is still being created after the budget rely on auto-creation.
+      CompletableResultCode.ofAll(started).join(remainingNanos, NANOSECONDS);
+    }
   }
 
   // Fragment metrics into batches and send to GCM.
-  private static void createTimeSeriesBatch(
-      CloudMetricClient metricServiceClient,
+  private void createTimeSeriesBatch(
       ProjectName projectName,
-      List<TimeSeries> allTimesSeries) {
-    List<List<TimeSeries>> batches = Lists.partition(allTimesSeries, MAX_BATCH_SIZE);
-    for (List<TimeSeries> timeSeries : batches) {
-      metricServiceClient.createTimeSeries(projectName, new ArrayList<>(timeSeries));
+      List<TimeSeries> allTimesSeries,
+      @Nullable PendingWrites pendingWrites,
+      List<CompletableResultCode> results) {
+    TimeSeriesBatcher batcher =
+        new TimeSeriesBatcher(batch -> results.add(sendBatch(projectName, batch, pendingWrites)));
+    for (TimeSeries timeSeries : allTimesSeries) {
+      batcher.add(timeSeries);
+    }
+    batcher.flush();
+  }
+
+  // Streamed batches wait until no earlier batch is queued, so that only the batches in flight and
+  // the one being built are held in memory.
+  private CompletableResultCode sendStreamedBatch(
+      ProjectName projectName, List<TimeSeries> batch, @Nullable PendingWrites pendingWrites) {
+    if (dispatcher != null) {
+      try {
+        dispatcher.awaitQueuedBelow(1);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return sendBatch(projectName, batch, pendingWrites);
+  }
+
+  // The pending writes of the batch's series are recorded once the batch was written, unless it
+  // was spooled instead.
+  private CompletableResultCode sendBatch(
+      ProjectName projectName, List<TimeSeries> batch, @Nullable PendingWrites pendingWrites) {
+    if (pendingWrites == null) {
+      return writeBatch(projectName, batch, null);
+    }
+    AtomicBoolean spooled = new AtomicBoolean();
+    CompletableResultCode result = writeBatch(projectName, batch, spooled);
+    result.whenComplete(
+        () -> {
+          if (result.isSuccess() && !spooled.get()) {
+            recordWrites(pendingWrites, batch);
+          }
+        });
+    return result;
+  }
+
+  private CompletableResultCode writeBatch(
+      ProjectName projectName, List<TimeSeries> batch, @Nullable AtomicBoolean spooled) {
+    TransientFailureHandler spoolBatch =
+        spool == null
+            ? null
+            : (name, series) -> {
+              if (spooled != null) {
+                spooled.set(true);
+              }
+              return spool.append(name, series);
+            };
+    if (spool != null && !spool.isEmpty()) {
+      // Queue behind the batches still waiting to be re-sent, so series stay in order.
+      return spoolBatch.handle(projectName, batch)
+          ? CompletableResultCode.ofSuccess()
+          : CompletableResultCode.ofFailure();
+    }
+    if (!acquireWritePermit(projectName, batch)) {
+      if (spoolBatch != null) {
+        // Re-sent by a later export, once the spool drains under the limit.
+        logger.warn("Spooling {} time series over the write rate limit", batch.size());
+        return spoolBatch.handle(projectName, batch)
+            ? CompletableResultCode.ofSuccess()
+            : CompletableResultCode.ofFailure();
+      }
+      logger.warn("Shedding {} time series over the write rate limit", batch.size());
+      return CompletableResultCode.ofFailure();
+    }
+    if (dispatcher == null) {
+      return timeSeriesWriter.write(projectName, batch, spoolBatch)
+          ? CompletableResultCode.ofSuccess()
+          : CompletableResultCode.ofFailure();
+    }
+    return dispatcher.dispatch(() -> timeSeriesWriter.writeAsync(projectName, batch, spoolBatch));
+  }
+
+  // Waits until the batch fits under the write rate limits. Returns false if it was refused.
+  private boolean acquireWritePermit(ProjectName projectName, List<TimeSeries> batch) {
+    if (writeRateLimiterFactory == null) {
+      return true;
+    }
+    WriteRateLimiter writeRateLimiter = writeRateLimiters.get(projectName.getProject());
+    if (writeRateLimiter == null) {
+      writeRateLimiter =
+          writeRateLimiters.computeIfAbsent(
+              projectName.getProject(), project -> writeRateLimiterFactory.get());
+    }
+    long waitNanos = writeRateLimiter.reserve(batch.size(), System.nanoTime());
+    if (waitNanos < 0) {
+      return false;
+    }
+    if (waitNanos > 0) {
+      try {
+        NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        // The tokens are taken; send the batch rather than lose it.
+        Thread.currentThread().interrupt();
+      }
+    }
+    return true;
+  }
+
+  // Re-sends spooled batches, oldest first, until the spool is empty or the backend still fails.
+  // Batches are sent one at a time on the exporting thread, so that new batches are only sent
+  // once the spool has drained.
+  private void replaySpool() {
+    if (spool == null) {
+      return;
+    }
+    TimeSeriesSpool.Head head;
+    while ((head = spool.peek()) != null) {
+      CreateTimeSeriesRequest request = head.getRequest();
+      ProjectName projectName = ProjectName.parse(request.getName());
+      List<TimeSeries> series = request.getTimeSeriesList();
+      if (!acquireWritePermit(projectName, series)) {
+        // The batch stays at the head of the spool until a later export.
+        logger.debug("Postponing {} spooled time series over the write rate limit", series.size());
+        return;
+      }
+      List<List<TimeSeries>> stillFailing = new ArrayList<>(1);
+      timeSeriesWriter.write(
+          projectName,
+          series,
+          (name, failed) -> {
+            stillFailing.add(failed);
+            return true;
+          });
+      // An asynchronous batch may have been spooled meanwhile and evicted the head, in which case
+      // the head is gone already and the record now in front is left alone.
+      if (stillFailing.isEmpty()) {
+        // Written, or rejected permanently and already reported by the writer.
+        spool.remove(head);
+        continue;
+      }
+      // Keep only the series that were not written at the head, for the next export. Unsent
+      // batches only leave the spool when it runs out of space.
+      if (stillFailing.get(0).size() < series.size()) {
+        spool.replace(head, projectName, stillFailing.get(0));
+      }
+      return;
     }
   }
 
   /**
-   * The exporter does not batch metrics, so this method will immediately return with success.
+   * Waits for in-flight asynchronous requests. When batches are sent synchronously, this method
+   * immediately returns with success.
    *
-   * @return always Success
+   * @return a result that completes once all previously exported batches have been sent.
    */
   @Override
   public CompletableResultCode flush() {
-    return CompletableResultCode.ofSuccess();
+    if (dispatcher == null) {
+      return CompletableResultCode.ofSuccess();
+    }
+    return dispatcher.flush();
   }
 
-  @Override
-  public CompletableResultCode shutdown() {
-    metricServiceClient.shutdown();
+  /** Returns the number of batches the write rate limit refused, whether spooled or dropped. */
+  long getRateLimitedBatches() {
+    long shed = 0;
+    for (WriteRateLimiter writeRateLimiter : writeRateLimiters.values()) {
+      shed += writeRateLimiter.getShedBatches();
+    }
+    return shed;
+  }
+
+  /** Returns the number of time series the write rate limit refused, whether spooled or dropped. */
+  long getRateLimitedTimeSeries() {
+    long shed = 0;
+    for (WriteRateLimiter writeRateLimiter : writeRateLimiters.values()) {
+      shed += writeRateLimiter.getShedSeries();
+    }
+    return shed;
+  }
 
-    return CompletableResultCode.ofSuccess();
+  /** Returns the number of points folded into overflow series by the cardinality limit. */
+  long getCardinalityOverflowPoints() {
+    return cardinalityLimiter == null ? 0 : cardinalityLimiter.getFoldedPoints();
   }
 
-  // TODO: Move this to its own class.
-  static class MetricWithLabels {
+  @Override
+  public CompletableResultCode shutdown() {
+    CompletableResultCode result = new CompletableResultCode();
+    CompletableResultCode.ofAll(Arrays.asList(flush(), descriptorDispatcher.flush()))
+        .whenComplete(
+            () -> {
+              timeSeriesWriter.shutdown();
+              metricServiceClient.shutdown();
+              result.succeed();
+            });
+    return result;
+  }
 
-    private final String metricType;
-    private final Attributes attributes;
+  // The writes to record for the points of an export to a project, by the series they go to and in
+  // the order they were recorded. Batches are written, possibly on other threads, while points are
+  // still being recorded.
+  private static final class PendingWrites {
+    private final Map<SeriesIdentity, SeriesWrites> bySeries = new HashMap<>();
 
-    MetricWithLabels(String metricType, Attributes attributes) {
-      this.metricType = metricType;
-      this.attributes = attributes;
+    synchronized void add(
+        SeriesIdentity identity, long fingerprint, long valueHash, long epochNanos) {
+      bySeries
+          .computeIfAbsent(identity, k -> new SeriesWrites())
+          .add(fingerprint, valueHash, epochNanos);
     }
 
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) {
-        return true;
+    // Passes the writes of the points in series, oldest first, to record.
+    synchronized void take(TimeSeries series, WriteRecorder record) {
+      SeriesWrites writes =
+          bySeries.get(new SeriesIdentity(series.getMetric(), series.getResource()));
+      if (writes == null) {
+        return;
       }
-      if (o == null || getClass() != o.getClass()) {
-        return false;
+      int end = Math.min(writes.size, writes.taken + series.getPointsCount());
+      for (int i = writes.taken; i < end; i++) {
+        record.record(writes.entries[3 * i], writes.entries[3 * i + 1], writes.entries[3 * i + 2]);
       }
-      MetricWithLabels that = (MetricWithLabels) o;
-      return Objects.equals(metricType, that.metricType)
-          && Objects.equals(attributes, that.attributes);
+      writes.taken = end;
     }
+  }
 
-    @Override
-    public int hashCode() {
-      return Objects.hash(metricType, attributes);
+  // Fingerprint, value hash and epoch of each point of a series, in one array.
+  private static final class SeriesWrites {
+    private long[] entries = new long[3];
+    private int size;
+    private int taken;
+
+    void add(long fingerprint, long valueHash, long epochNanos) {
+      if (3 * size == entries.length) {
+        entries = Arrays.copyOf(entries, entries.length * 2);
+      }
+      entries[3 * size] = fingerprint;
+      entries[3 * size + 1] = valueHash;
+      entries[3 * size + 2] = epochNanos;
+      size++;
     }
   }
+
+  private interface WriteRecorder {
+    void record(long fingerprint, long valueHash, long epochNanos);
+  }
 }
@@ -21,8 +21,10 @@ import io.opentelemetry.sdk.metrics.data.DoublePointData;
 import io.opentelemetry.sdk.metrics.data.HistogramPointData;
 import io.opentelemetry.sdk.metrics.data.LongPointData;
 import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.internal.data.exponentialhistogram.ExponentialHistogramPointData;
 import java.util.Collection;
 import java.util.List;
+import org.slf4j.LoggerFactory;
 
 /** An interface that denotes how we build our API calls from metric data. */
 public interface MetricTimeSeriesBuilder {
@@ -32,9 +34,23 @@ public interface MetricTimeSeriesBuilder {
   void recordPoint(MetricData metric, DoublePointData point);
   /** Records a DoubleHistogramPointData for the given metric. */
   void recordPoint(MetricData metric, HistogramPointData point);
+  /**
+   * Records an ExponentialHistogramPointData for the given metric. Builders that do not support
+   * exponential histograms log the point as unsupported and drop it.
+   */
+  default void recordPoint(MetricData metric, ExponentialHistogramPointData point) {
+    LoggerFactory.getLogger(MetricTimeSeriesBuilder.class)
+        .warn("Exponential histogram metric {} not supported.", metric.getName());
+  }
 
-  /** The set of descriptors assocaited with the current time series. */
+  /**
+   * The set of descriptors assocaited with the current time series. Builders that stream batches
+   * only return descriptors that have not been handed off yet.
+   */
   Collection<MetricDescriptor> getDescriptors();
-  /** The set (unique by metric+label) of time series that were built. */
+  /**
+   * The set (unique by metric+label) of time series that were built. Builders that stream batches
+   * only return series that have not been handed off yet.
+   */
   List<TimeSeries> getTimeSeries();
 }
@@ -18,6 +18,7 @@ package com.google.cloud.opentelemetry.metric;
 import com.google.api.Distribution;
 import com.google.api.Distribution.BucketOptions;
 import com.google.api.Distribution.BucketOptions.Explicit;
+import com.google.api.Distribution.BucketOptions.Exponential;
 import com.google.api.LabelDescriptor;
 import com.google.api.Metric;
 import com.google.api.MetricDescriptor;
@@ -29,17 +30,22 @@ import com.google.protobuf.Any;
 import com.google.protobuf.Timestamp;
 import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
 import io.opentelemetry.sdk.metrics.data.DoubleExemplarData;
 import io.opentelemetry.sdk.metrics.data.ExemplarData;
-import io.opentelemetry.sdk.metrics.data.HistogramData;
 import io.opentelemetry.sdk.metrics.data.HistogramPointData;
 import io.opentelemetry.sdk.metrics.data.LongExemplarData;
 import io.opentelemetry.sdk.metrics.data.MetricData;
 import io.opentelemetry.sdk.metrics.data.MetricDataType;
 import io.opentelemetry.sdk.metrics.data.SumData;
+import io.opentelemetry.sdk.metrics.internal.data.exponentialhistogram.ExponentialHistogramBuckets;
+import io.opentelemetry.sdk.metrics.internal.data.exponentialhistogram.ExponentialHistogramPointData;
 import io.opentelemetry.semconv.resource.attributes.ResourceAttributes;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -59,6 +65,20 @@ public class MetricTranslator {
   static final String METRIC_DESCRIPTOR_TIME_UNIT = "ns";
   private static final int MIN_TIMESTAMP_INTERVAL_NANOS = 1000000;
 
+  // Histogram boundary layouts rarely change, so their BucketOptions are shared process-wide.
+  private static final BucketOptionsCache bucketOptionsCache = new BucketOptionsCache();
+  // Label names are derived once per attribute key rather than for every series.
+  private static final LabelKeyCache labelKeyCache = new LabelKeyCache();
+
+  private static final String SPAN_CONTEXT_TYPE_URL =
+      "type.googleapis.com/" + SpanContext.getDescriptor().getFullName();
+  private static final String DROPPED_LABELS_TYPE_URL =
+      "type.googleapis.com/" + DroppedLabels.getDescriptor().getFullName();
+  private static final String SPAN_NAME_SPANS = "/spans/";
+  // The projects/<id>/traces/ prefix of span names by project id. Routed exporters write to many
+  // projects, but few enough that every prefix can be kept.
+  private static final ConcurrentMap<String, String> spanNamePrefixes = new ConcurrentHashMap<>();
+
   // Mapping outlined at https://cloud.google.com/monitoring/api/resources#tag_gce_instance
   private static final Map<String, AttributeKey<String>> gceMap =
       Stream.of(
@@ -88,23 +108,24 @@ public class MetricTranslator {
   static Metric mapMetric(Attributes attributes, String type) {
     Metric.Builder metricBuilder = Metric.newBuilder().setType(type);
     attributes.forEach(
-        (key, value) -> metricBuilder.putLabels(cleanAttributeKey(key.getKey()), value.toString()));
+        (key, value) -> metricBuilder.putLabels(labelKeyCache.labelName(key), value.toString()));
     return metricBuilder.build();
   }
 
-  static String cleanAttributeKey(String key) {
-    // . is commonly used in OTel but disallowed in GCM label names,
-    // https://cloud.google.com/monitoring/api/ref_v3/rest/v3/LabelDescriptor#:~:text=Matches%20the%20following%20regular%20expression%3A
-    return key.replace('.', '_');
+  static MetricDescriptor mapMetricDescriptor(
+      MetricData metric, io.opentelemetry.sdk.metrics.data.PointData metricPoint) {
+    return mapMetricDescriptor(metric, metricPoint, MetricTypeCache.DEFAULT);
   }
 
   static MetricDescriptor mapMetricDescriptor(
-      MetricData metric, io.opentelemetry.sdk.metrics.data.PointData metricPoint) {
+      MetricData metric,
+      io.opentelemetry.sdk.metrics.data.PointData metricPoint,
+      MetricTypeCache metricTypes) {
     MetricDescriptor.Builder builder =
         MetricDescriptor.newBuilder()
             .setDisplayName(metric.getName())
             .setDescription(metric.getDescription())
-            .setType(mapMetricType(metric.getName()))
+            .setType(metricTypes.metricType(metric.getName()))
             .setUnit(metric.getUnit());
     metricPoint
         .getAttributes()
@@ -127,7 +148,10 @@ public class MetricTranslator {
         builder.setValueType(MetricDescriptor.ValueType.DOUBLE);
         return fillSumType(metric.getDoubleSumData(), builder);
       case HISTOGRAM:
-        return fillHistogramType(metric.getHistogramData(), builder);
+        return fillHistogramType(metric.getHistogramData().getAggregationTemporality(), builder);
+      case EXPONENTIAL_HISTOGRAM:
+        return fillHistogramType(
+            metric.getExponentialHistogramData().getAggregationTemporality(), builder);
       default:
         logger.error(
             "Metric type {} not supported. Only gauge and cumulative types are supported.",
@@ -137,15 +161,16 @@ public class MetricTranslator {
   }
 
   private static MetricDescriptor fillHistogramType(
-      HistogramData histogram, MetricDescriptor.Builder builder) {
+      AggregationTemporality temporality, MetricDescriptor.Builder builder) {
     builder.setValueType(MetricDescriptor.ValueType.DISTRIBUTION);
-    switch (histogram.getAggregationTemporality()) {
+    switch (temporality) {
       case CUMULATIVE:
         builder.setMetricKind(MetricDescriptor.MetricKind.CUMULATIVE);
         return builder.build();
       default:
         logger.error(
-            "Histogram type {} not supported. Only cumulative types are supported.", histogram);
+            "Histogram temporality {} not supported. Only cumulative types are supported.",
+            temporality);
         return null;
     }
   }
@@ -166,18 +191,9 @@ public class MetricTranslator {
     }
   }
 
-  private static String mapMetricType(String instrumentName) {
-    for (String domain : KNOWN_DOMAINS) {
-      if (instrumentName.contains(domain)) {
-        return instrumentName;
-      }
-    }
-    return DESCRIPTOR_TYPE_URL + instrumentName;
-  }
-
   static <T> LabelDescriptor mapAttribute(AttributeKey<T> key, Object value) {
     LabelDescriptor.Builder builder =
-        LabelDescriptor.newBuilder().setKey(cleanAttributeKey(key.getKey()));
+        LabelDescriptor.newBuilder().setKey(labelKeyCache.labelName(key));
     switch (key.getType()) {
       case BOOLEAN:
         builder.setValueType(LabelDescriptor.ValueType.BOOL);
@@ -237,56 +253,207 @@ public class MetricTranslator {
   }
 
   static Distribution.Builder mapDistribution(HistogramPointData point, String projectId) {
-    return Distribution.newBuilder()
-        .setCount(point.getCount())
-        .setMean(point.getSum() / point.getCount())
-        .setBucketOptions(
-            BucketOptions.newBuilder()
-                .setExplicitBuckets(Explicit.newBuilder().addAllBounds(point.getBoundaries())))
-        .addAllBucketCounts(point.getCounts())
-        .addAllExemplars(
-            point.getExemplars().stream()
-                .map(e -> mapExemplar(e, projectId))
-                .collect(Collectors.toList()));
+    return mapDistribution(point, projectId, false);
   }
 
-  private static Distribution.Exemplar mapExemplar(ExemplarData exemplar, String projectId) {
-    double value = 0;
+  /**
+   * Maps an explicit-bucket histogram point. With {@code oneExemplarPerBucket}, only the most
+   * recent exemplar of each bucket is attached; Cloud Monitoring keeps no more than that.
+   */
+  static Distribution.Builder mapDistribution(
+      HistogramPointData point, String projectId, boolean oneExemplarPerBucket) {
+    Distribution.Builder builder =
+        Distribution.newBuilder()
+            .setCount(point.getCount())
+            .setMean(point.getSum() / point.getCount())
+            .setBucketOptions(bucketOptionsCache.explicit(point.getBoundaries()));
+    // Adding counts one by one skips addAll's extra null-checking pass over the boxed list.
+    List<Long> counts = point.getCounts();
+    for (int i = 0; i < counts.size(); i++) {
+      builder.addBucketCounts(counts.get(i));
+    }
+    List<? extends ExemplarData> exemplars = point.getExemplars();
+    if (oneExemplarPerBucket && exemplars.size() > 1) {
+      ExemplarData[] latest = new ExemplarData[counts.size()];
+      for (ExemplarData exemplar : exemplars) {
+        int bucket = bucketIndex(point.getBoundaries(), exemplarValue(exemplar));
+        if (latest[bucket] == null || latest[bucket].getEpochNanos() <= exemplar.getEpochNanos()) {
+          latest[bucket] = exemplar;
+        }
+      }
+      for (ExemplarData exemplar : latest) {
+        if (exemplar != null) {
+          builder.addExemplars(mapExemplar(exemplar, projectId));
+        }
+      }
+      return builder;
+    }
+    for (ExemplarData exemplar : exemplars) {
+      builder.addExemplars(mapExemplar(exemplar, projectId));
+    }
+    return builder;
+  }
+
+  /** Returns the index of the bucket {@code (boundaries[i-1], boundaries[i]]} holding a value. */
+  static int bucketIndex(List<Double> boundaries, double value) {
+    int low = 0;
+    int high = boundaries.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (value <= boundaries.get(mid)) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Maps an exponential histogram point onto {@code BucketOptions.Exponential}.
+   *
+   * <p>OpenTelemetry bucket {@code i} covers {@code (base^i, base^(i+1)]} with {@code base =
+   * 2^(2^-scale)}, so a growth factor of {@code base} and a scale of {@code base^offset} make each
+   * positive bucket one finite Cloud Monitoring bucket. The zero bucket and all negative buckets
+   * are counted in the underflow bucket, and the overflow bucket is empty.
+   *
+   * <p>At the lowest scales the bucket bounds leave the range of a double, {@code base} itself
+   * being infinite at scale -10. The positive buckets are then laid out as explicit buckets on
+   * their representable bounds, and buckets below or above those bounds are counted in the
+   * underflow or overflow bucket.
+   */
+  static Distribution.Builder mapDistribution(
+      ExponentialHistogramPointData point, String projectId) {
+    ExponentialHistogramBuckets positive = point.getPositiveBuckets();
+    List<Long> positiveCounts = positive.getBucketCounts();
+    double growthFactor = Math.pow(2, Math.scalb(1.0, -point.getScale()));
+    double scale = Math.pow(growthFactor, positive.getOffset());
+    // At least one finite bucket is required, even when no positive values were recorded.
+    int numFiniteBuckets = Math.max(1, positiveCounts.size());
+    double upperBound = scale * Math.pow(growthFactor, numFiniteBuckets);
+    long underflow = point.getZeroCount() + point.getNegativeBuckets().getTotalCount();
+    Distribution.Builder builder =
+        Distribution.newBuilder()
+            .setCount(point.getCount())
+            .setMean(point.getCount() == 0 ? 0 : point.getSum() / point.getCount());
+    if (isPositiveFinite(scale) && isPositiveFinite(upperBound)) {
+      builder
+          .setBucketOptions(
+              BucketOptions.newBuilder()
+                  .setExponentialBuckets(
+                      Exponential.newBuilder()
+                          .setNumFiniteBuckets(numFiniteBuckets)
+                          .setGrowthFactor(growthFactor)
+                          .setScale(scale)))
+          .addBucketCounts(underflow);
+      // Trailing empty buckets, including the overflow bucket, may be omitted.
+      for (int i = 0; i < positiveCounts.size(); i++) {
+        builder.addBucketCounts(positiveCounts.get(i));
+      }
+    } else {
+      mapExplicitBuckets(builder, point.getScale(), positive, underflow);
+    }
+    for (ExemplarData exemplar : point.getExemplars()) {
+      builder.addExemplars(mapExemplar(exemplar, projectId));
+    }
+    return builder;
+  }
+
+  private static boolean isPositiveFinite(double value) {
+    return value > 0 && value < Double.POSITIVE_INFINITY;
+  }
+
+  // Lays out exponential buckets whose bounds are not all representable as explicit buckets.
+  private static void mapExplicitBuckets(
+      Distribution.Builder builder,
+      int scale,
+      ExponentialHistogramBuckets positive,
+      long underflow) {
+    List<Long> positiveCounts = positive.getBucketCounts();
+    // The lower bound of each positive bucket, then the upper bound of the last one.
+    double[] bounds = new double[positiveCounts.size() + 1];
+    Explicit.Builder explicit = Explicit.newBuilder();
+    for (int i = 0; i < bounds.length; i++) {
+      bounds[i] = Math.pow(2, Math.scalb((double) positive.getOffset() + i, -scale));
+      if (isPositiveFinite(bounds[i])) {
+        explicit.addBounds(bounds[i]);
+      }
+    }
+    if (explicit.getBoundsCount() == 0) {
+      // Every bucket underflows or overflows; any bound separates them.
+      explicit.addBounds(1);
+    }
+    long[] counts = new long[explicit.getBoundsCount() + 1];
+    counts[0] = underflow;
+    int bucket = 0;
+    for (int i = 0; i < positiveCounts.size(); i++) {
+      // Bounds are increasing, so the bucket holding each lower bound only moves up.
+      while (bucket < explicit.getBoundsCount() && explicit.getBounds(bucket) <= bounds[i]) {
+        bucket++;
+      }
+      counts[bucket] += positiveCounts.get(i);
+    }
+    builder.setBucketOptions(BucketOptions.newBuilder().setExplicitBuckets(explicit));
+    for (long count : counts) {
+      builder.addBucketCounts(count);
+    }
+  }
+
+  private static double exemplarValue(ExemplarData exemplar) {
     if (exemplar instanceof DoubleExemplarData) {
-      value = ((DoubleExemplarData) exemplar).getValue();
+      return ((DoubleExemplarData) exemplar).getValue();
     } else if (exemplar instanceof LongExemplarData) {
-      value = ((LongExemplarData) exemplar).getValue();
+      return ((LongExemplarData) exemplar).getValue();
     }
+    return 0;
+  }
 
+  private static Distribution.Exemplar mapExemplar(ExemplarData exemplar, String projectId) {
     Distribution.Exemplar.Builder exemplarBuilder =
         Distribution.Exemplar.newBuilder()
-            .setValue(value)
+            .setValue(exemplarValue(exemplar))
             .setTimestamp(mapTimestamp(exemplar.getEpochNanos()));
     if (exemplar.getSpanContext().isValid()) {
+      // Equivalent to Any.pack, without rebuilding the type URL for every exemplar.
       exemplarBuilder.addAttachments(
-          Any.pack(
-              SpanContext.newBuilder()
-                  .setSpanName(
-                      makeSpanName(
-                          projectId,
-                          exemplar.getSpanContext().getTraceId(),
-                          exemplar.getSpanContext().getSpanId()))
-                  .build()));
+          Any.newBuilder()
+              .setTypeUrl(SPAN_CONTEXT_TYPE_URL)
+              .setValue(
+                  SpanContext.newBuilder()
+                      .setSpanName(
+                          makeSpanName(
+                              projectId,
+                              exemplar.getSpanContext().getTraceId(),
+                              exemplar.getSpanContext().getSpanId()))
+                      .build()
+                      .toByteString()));
     }
     if (!exemplar.getFilteredAttributes().isEmpty()) {
       exemplarBuilder.addAttachments(
-          Any.pack(mapFilteredAttributes(exemplar.getFilteredAttributes())));
+          Any.newBuilder()
+              .setTypeUrl(DROPPED_LABELS_TYPE_URL)
+              .setValue(mapFilteredAttributes(exemplar.getFilteredAttributes()).toByteString()));
     }
     return exemplarBuilder.build();
   }
 
   private static String makeSpanName(String projectId, String traceId, String spanId) {
-    return String.format("projects/%s/traces/%s/spans/%s", projectId, traceId, spanId);
+    String prefix = spanNamePrefixes.get(projectId);
+    if (prefix == null) {
+      prefix = spanNamePrefixes.computeIfAbsent(projectId, id -> "projects/" + id + "/traces/");
+    }
+    return new StringBuilder(
+            prefix.length() + traceId.length() + SPAN_NAME_SPANS.length() + spanId.length())
+        .append(prefix)
+        .append(traceId)
+        .append(SPAN_NAME_SPANS)
+        .append(spanId)
+        .toString();
   }
 
   private static DroppedLabels mapFilteredAttributes(Attributes attributes) {
     DroppedLabels.Builder labels = DroppedLabels.newBuilder();
-    attributes.forEach((k, v) -> labels.putLabel(cleanAttributeKey(k.getKey()), v.toString()));
+    attributes.forEach((k, v) -> labels.putLabel(labelKeyCache.labelName(k), v.toString()));
     return labels.build();
   }
 }
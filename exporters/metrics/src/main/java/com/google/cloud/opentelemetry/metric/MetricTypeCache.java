@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.MetricTranslator.KNOWN_DOMAINS;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Resolves instrument names to Cloud Monitoring metric types, once per instrument name.
+ *
+ * <p>Instruments whose name already contains a known Google domain are used as is; all others are
+ * placed under a configurable prefix, such as {@code custom.googleapis.com/OpenTelemetry/} or
+ * {@code workload.googleapis.com/}. The cache is bounded by the number of instrument names.
+ */
+final class MetricTypeCache {
+
+  /** Resolves types under the default {@link MetricTranslator#DESCRIPTOR_TYPE_URL} prefix. */
+  static final MetricTypeCache DEFAULT = new MetricTypeCache(MetricTranslator.DESCRIPTOR_TYPE_URL);
+
+  static final int DEFAULT_MAX_INSTRUMENTS = 4096;
+
+  private final String prefix;
+  private final Cache<String, String> types;
+
+  MetricTypeCache(String prefix) {
+    this(prefix, DEFAULT_MAX_INSTRUMENTS);
+  }
+
+  MetricTypeCache(String prefix, int maxInstruments) {
+    this.prefix = prefix;
+    this.types = CacheBuilder.newBuilder().maximumSize(maxInstruments).build();
+  }
+
+  /** Returns the prefix of the types of instruments outside the known domains. */
+  String getPrefix() {
+    return prefix;
+  }
+
+  /** Returns the metric type of an instrument. */
+  String metricType(String instrumentName) {
+    String type = types.getIfPresent(instrumentName);
+    if (type == null) {
+      type = resolve(instrumentName);
+      types.put(instrumentName, type);
+    }
+    return type;
+  }
+
+  private String resolve(String instrumentName) {
+    for (String domain : KNOWN_DOMAINS) {
+      if (instrumentName.contains(domain)) {
+        return instrumentName;
+      }
+    }
+    return prefix + instrumentName;
+  }
+}
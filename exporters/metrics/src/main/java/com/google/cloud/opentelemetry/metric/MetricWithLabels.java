@@ -0,0 +1,49 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import io.opentelemetry.api.common.Attributes;
+import java.util.Objects;
+
+/** Identifies a time series by its metric type and attributes. */
+final class MetricWithLabels {
+
+  private final String metricType;
+  private final Attributes attributes;
+
+  MetricWithLabels(String metricType, Attributes attributes) {
+    this.metricType = metricType;
+    this.attributes = attributes;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    MetricWithLabels that = (MetricWithLabels) o;
+    return Objects.equals(metricType, that.metricType)
+        && Objects.equals(attributes, that.attributes);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(metricType, attributes);
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import com.google.api.MonitoredResource;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.opentelemetry.sdk.resources.Resource;
+
+/**
+ * A bounded cache of {@link MonitoredResource} translations, keyed by {@link Resource} identity.
+ *
+ * <p>Almost every metric in a process shares one {@code Resource} instance, so this lets the
+ * exporter translate each resource once rather than once per time series. Keys are held weakly, so
+ * a resource the SDK no longer uses does not keep its translation alive.
+ */
+final class MonitoredResourceCache {
+
+  static final int DEFAULT_MAX_SIZE = 64;
+
+  // Weak keys are compared by identity, which is the common case and avoids hashing attributes.
+  private final Cache<Resource, MonitoredResource> cache;
+
+  MonitoredResourceCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  MonitoredResourceCache(int maxSize) {
+    this.cache = CacheBuilder.newBuilder().weakKeys().maximumSize(maxSize).build();
+  }
+
+  /** Returns the {@link MonitoredResource} for the given resource, translating it on a miss. */
+  MonitoredResource get(Resource resource) {
+    MonitoredResource monitoredResource = cache.getIfPresent(resource);
+    if (monitoredResource == null) {
+      monitoredResource = ResourceTranslator.mapResource(resource);
+      cache.put(resource, monitoredResource);
+    }
+    return monitoredResource;
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import com.google.api.LabelDescriptor;
+import com.google.api.MetricDescriptor;
+import com.google.api.core.ApiFuture;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends a metric descriptor only when it was not created before, remembering created descriptors
+ * in a local registry file that survives restarts.
+ *
+ * <p>The registry holds one line per created descriptor: its project, its type, a 64-bit FNV-1a
+ * fingerprint of its definition and the comma-separated label keys it was created with, separated
+ * by tabs. Lines are only ever appended, and the last line for a descriptor wins when the file is
+ * read back.
+ *
+ * <p>The fingerprint covers the type, metric kind, value type, unit, description and the sorted
+ * union of every label key seen for the descriptor. Descriptors are derived from whichever point
+ * is exported first, so their labels vary from one export to the next; a descriptor whose labels
+ * are a subset of the known ones keeps the same fingerprint and is not sent again, while a new
+ * label key or any other change in its definition sends it again.
+ */
+final class PersistentDescriptorStrategy implements MetricDescriptorStrategy {
+
+  private static final Logger logger = LoggerFactory.getLogger(PersistentDescriptorStrategy.class);
+
+  // Descriptors exported through the project-less interface method are all keyed by this project.
+  private static final String UNKNOWN_PROJECT = "";
+
+  private final Path registry;
+  // The descriptors known to have been created.
+  private final ConcurrentMap<DescriptorKey, Created> created = new ConcurrentHashMap<>();
+  // Descriptors being created right now, so concurrent exporters send each only once.
+  private final Set<DescriptorKey> inFlight = ConcurrentHashMap.newKeySet();
+
+  PersistentDescriptorStrategy(Path registry) {
+    this.registry = registry;
+    load();
+  }
+
+  @Override
+  public void exportDescriptors(
+      Iterable<MetricDescriptor> batchDescriptors, Consumer<MetricDescriptor> export) {
+    exportDescriptors(UNKNOWN_PROJECT, batchDescriptors, export, null);
+  }
+
+  @Override
+  public void exportDescriptors(
+      String projectId,
+      Iterable<MetricDescriptor> batchDescriptors,
+      Consumer<MetricDescriptor> export,
+      Function<MetricDescriptor, ApiFuture<?>> exportAsync) {
+    for (MetricDescriptor descriptor : batchDescriptors) {
+      DescriptorKey key = new DescriptorKey(projectId, descriptor.getType());
+      Created known = created.get(key);
+      SortedSet<String> labelKeys = new TreeSet<>();
+      if (known != null) {
+        labelKeys.addAll(known.labelKeys);
+      }
+      for (LabelDescriptor label : descriptor.getLabelsList()) {
+        labelKeys.add(label.getKey());
+      }
+      long fingerprint = fingerprint(descriptor, labelKeys);
+      if ((known != null && known.fingerprint == fingerprint) || !inFlight.add(key)) {
+        continue;
+      }
+      try {
+        export.accept(descriptor);
+        Created entry = new Created(fingerprint, labelKeys);
+        created.put(key, entry);
+        record(key, entry);
+      } finally {
+        inFlight.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Fingerprints the parts of a descriptor that do not depend on the point it was derived from,
+   * along with the given label keys in their iteration order.
+   */
+  static long fingerprint(MetricDescriptor descriptor, Iterable<String> labelKeys) {
+    long hash = SeriesFingerprint.OFFSET_BASIS;
+    hash = mixString(hash, descriptor.getType());
+    hash = SeriesFingerprint.mix(hash, descriptor.getMetricKindValue());
+    hash = SeriesFingerprint.mix(hash, descriptor.getValueTypeValue());
+    hash = mixString(hash, descriptor.getUnit());
+    hash = mixString(hash, descriptor.getDescription());
+    for (String labelKey : labelKeys) {
+      hash = mixString(hash, labelKey);
+    }
+    return hash;
+  }
+
+  private static long mixString(long hash, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    // The length keeps adjacent strings from running into each other.
+    return SeriesFingerprint.mix(SeriesFingerprint.mix(hash, bytes.length), bytes);
+  }
+
+  private void load() {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(registry, StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return;
+    } catch (IOException e) {
+      logger.warn("Failed to read metric descriptor registry " + registry, e);
+      return;
+    }
+    for (String line : lines) {
+      String[] fields = line.split("\t", -1);
+      if (fields.length != 4) {
+        // A line cut short by a crash; the descriptor is simply sent again.
+        continue;
+      }
+      SortedSet<String> labelKeys = new TreeSet<>();
+      for (String labelKey : fields[3].split(",")) {
+        if (!labelKey.isEmpty()) {
+          labelKeys.add(labelKey);
+        }
+      }
+      try {
+        created.put(
+            new DescriptorKey(fields[0], fields[1]),
+            new Created(Long.parseUnsignedLong(fields[2], 16), labelKeys));
+      } catch (NumberFormatException e) {
+        logger.debug("Ignoring corrupt metric descriptor registry entry: {}", line);
+      }
+    }
+  }
+
+  private synchronized void record(DescriptorKey key, Created entry) {
+    try (BufferedWriter writer =
+        Files.newBufferedWriter(
+            registry,
+            StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND)) {
+      writer.write(key.projectId);
+      writer.write('\t');
+      writer.write(key.type);
+      writer.write('\t');
+      writer.write(Long.toHexString(entry.fingerprint));
+      writer.write('\t');
+      writer.write(String.join(",", entry.labelKeys));
+      writer.write('\n');
+    } catch (IOException e) {
+      logger.warn("Failed to update metric descriptor registry " + registry, e);
+    }
+  }
+
+  /** A created descriptor: its fingerprint and every label key it is known to carry. */
+  private static final class Created {
+    final long fingerprint;
+    final SortedSet<String> labelKeys;
+
+    Created(long fingerprint, SortedSet<String> labelKeys) {
+      this.fingerprint = fingerprint;
+      this.labelKeys = labelKeys;
+    }
+  }
+}
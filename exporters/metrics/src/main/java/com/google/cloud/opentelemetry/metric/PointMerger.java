@@ -0,0 +1,398 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.DoubleExemplarData;
+import io.opentelemetry.sdk.metrics.data.DoublePointData;
+import io.opentelemetry.sdk.metrics.data.GaugeData;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.PointData;
+import io.opentelemetry.sdk.metrics.data.SumData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableDoublePointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableGaugeData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableHistogramData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableHistogramPointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableLongPointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableMetricData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableSumData;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import javax.annotation.Nullable;
+
+/**
+ * Rewrites the attributes of a metric's points and merges the points that end up in the same
+ * series.
+ *
+ * <p>Sums are added, gauges keep the most recent value, and explicit-bucket histograms add their
+ * counts bucket by bucket, keeping the most recent exemplar of each bucket. A merged point covers
+ * the earliest start and the latest end of its inputs. Exponential histograms cannot be merged
+ * without re-scaling and are returned unchanged.
+ */
+final class PointMerger {
+
+  private static final StartTimes MERGED_START = (attributes, start) -> start;
+
+  private PointMerger() {}
+
+  /**
+   * Returns {@code metric} with each point's attributes replaced by {@code regroup}, merging points
+   * whose new attributes are equal. Returns {@code metric} itself if no attributes changed.
+   */
+  static MetricData regroup(MetricData metric, UnaryOperator<Attributes> regroup) {
+    return regroup(metric, regroup, MERGED_START);
+  }
+
+  /**
+   * Like {@link #regroup(MetricData, UnaryOperator)}, with the start times of the resulting sum and
+   * histogram points chosen by {@code startTimes}.
+   */
+  static MetricData regroup(
+      MetricData metric, UnaryOperator<Attributes> regroup, StartTimes startTimes) {
+    switch (metric.getType()) {
+      case LONG_GAUGE:
+        {
+          GaugeData<LongPointData> gauge = metric.getLongGaugeData();
+          List<LongPointData> points = mergeLongs(gauge.getPoints(), regroup, false, MERGED_START);
+          return points == null
+              ? metric
+              : ImmutableMetricData.createLongGauge(
+                  metric.getResource(),
+                  metric.getInstrumentationScopeInfo(),
+                  metric.getName(),
+                  metric.getDescription(),
+                  metric.getUnit(),
+                  ImmutableGaugeData.create(points));
+        }
+      case DOUBLE_GAUGE:
+        {
+          GaugeData<DoublePointData> gauge = metric.getDoubleGaugeData();
+          List<DoublePointData> points =
+              mergeDoubles(gauge.getPoints(), regroup, false, MERGED_START);
+          return points == null
+              ? metric
+              : ImmutableMetricData.createDoubleGauge(
+                  metric.getResource(),
+                  metric.getInstrumentationScopeInfo(),
+                  metric.getName(),
+                  metric.getDescription(),
+                  metric.getUnit(),
+                  ImmutableGaugeData.create(points));
+        }
+      case LONG_SUM:
+        {
+          SumData<LongPointData> sum = metric.getLongSumData();
+          List<LongPointData> points = mergeLongs(sum.getPoints(), regroup, true, startTimes);
+          return points == null
+              ? metric
+              : ImmutableMetricData.createLongSum(
+                  metric.getResource(),
+                  metric.getInstrumentationScopeInfo(),
+                  metric.getName(),
+                  metric.getDescription(),
+                  metric.getUnit(),
+                  ImmutableSumData.create(
+                      sum.isMonotonic(), sum.getAggregationTemporality(), points));
+        }
+      case DOUBLE_SUM:
+        {
+          SumData<DoublePointData> sum = metric.getDoubleSumData();
+          List<DoublePointData> points = mergeDoubles(sum.getPoints(), regroup, true, startTimes);
+          return points == null
+              ? metric
+              : ImmutableMetricData.createDoubleSum(
+                  metric.getResource(),
+                  metric.getInstrumentationScopeInfo(),
+                  metric.getName(),
+                  metric.getDescription(),
+                  metric.getUnit(),
+                  ImmutableSumData.create(
+                      sum.isMonotonic(), sum.getAggregationTemporality(), points));
+        }
+      case HISTOGRAM:
+        {
+          List<HistogramPointData> points =
+              mergeHistograms(metric.getHistogramData().getPoints(), regroup, startTimes);
+          return points == null
+              ? metric
+              : ImmutableMetricData.createDoubleHistogram(
+                  metric.getResource(),
+                  metric.getInstrumentationScopeInfo(),
+                  metric.getName(),
+                  metric.getDescription(),
+                  metric.getUnit(),
+                  ImmutableHistogramData.create(
+                      metric.getHistogramData().getAggregationTemporality(), points));
+        }
+      default:
+        return metric;
+    }
+  }
+
+  // Returns the new attributes of each point, or null if none changed.
+  private static <T extends PointData> List<Attributes> regroupAll(
+      Collection<T> points, UnaryOperator<Attributes> regroup) {
+    List<Attributes> regrouped = null;
+    int i = 0;
+    for (T point : points) {
+      Attributes attributes = regroup.apply(point.getAttributes());
+      if (regrouped == null && !attributes.equals(point.getAttributes())) {
+        regrouped = new ArrayList<>(points.size());
+        int j = 0;
+        for (T earlier : points) {
+          if (j++ == i) {
+            break;
+          }
+          regrouped.add(earlier.getAttributes());
+        }
+      }
+      if (regrouped != null) {
+        regrouped.add(attributes);
+      }
+      i++;
+    }
+    return regrouped;
+  }
+
+  private static List<LongPointData> mergeLongs(
+      Collection<LongPointData> points,
+      UnaryOperator<Attributes> regroup,
+      boolean add,
+      StartTimes startTimes) {
+    List<Attributes> regrouped = regroupAll(points, regroup);
+    if (regrouped == null) {
+      return null;
+    }
+    Map<Attributes, LongPointData> merged = new LinkedHashMap<>();
+    int i = 0;
+    for (LongPointData point : points) {
+      Attributes attributes = regrouped.get(i++);
+      LongPointData previous = merged.get(attributes);
+      long value = point.getValue();
+      if (previous != null) {
+        if (add) {
+          value += previous.getValue();
+        } else if (previous.getEpochNanos() > point.getEpochNanos()) {
+          value = previous.getValue();
+        }
+      }
+      merged.put(
+          attributes,
+          ImmutableLongPointData.create(
+              startOf(previous, point), endOf(previous, point), attributes, value));
+    }
+    List<LongPointData> result = new ArrayList<>(merged.size());
+    merged.forEach(
+        (attributes, point) -> {
+          long start = startTimes.startOf(attributes, point.getStartEpochNanos());
+          result.add(
+              start == point.getStartEpochNanos()
+                  ? point
+                  : ImmutableLongPointData.create(
+                      start, point.getEpochNanos(), attributes, point.getValue()));
+        });
+    return result;
+  }
+
+  private static List<DoublePointData> mergeDoubles(
+      Collection<DoublePointData> points,
+      UnaryOperator<Attributes> regroup,
+      boolean add,
+      StartTimes startTimes) {
+    List<Attributes> regrouped = regroupAll(points, regroup);
+    if (regrouped == null) {
+      return null;
+    }
+    Map<Attributes, DoublePointData> merged = new LinkedHashMap<>();
+    int i = 0;
+    for (DoublePointData point : points) {
+      Attributes attributes = regrouped.get(i++);
+      DoublePointData previous = merged.get(attributes);
+      double value = point.getValue();
+      if (previous != null) {
+        if (add) {
+          value += previous.getValue();
+        } else if (previous.getEpochNanos() > point.getEpochNanos()) {
+          value = previous.getValue();
+        }
+      }
+      merged.put(
+          attributes,
+          ImmutableDoublePointData.create(
+              startOf(previous, point), endOf(previous, point), attributes, value));
+    }
+    List<DoublePointData> result = new ArrayList<>(merged.size());
+    merged.forEach(
+        (attributes, point) -> {
+          long start = startTimes.startOf(attributes, point.getStartEpochNanos());
+          result.add(
+              start == point.getStartEpochNanos()
+                  ? point
+                  : ImmutableDoublePointData.create(
+                      start, point.getEpochNanos(), attributes, point.getValue()));
+        });
+    return result;
+  }
+
+  private static List<HistogramPointData> mergeHistograms(
+      Collection<HistogramPointData> points,
+      UnaryOperator<Attributes> regroup,
+      StartTimes startTimes) {
+    List<Attributes> regrouped = regroupAll(points, regroup);
+    if (regrouped == null) {
+      return null;
+    }
+    Map<Attributes, MergedHistogram> merged = new LinkedHashMap<>();
+    int i = 0;
+    for (HistogramPointData point : points) {
+      Attributes attributes = regrouped.get(i++);
+      MergedHistogram previous = merged.get(attributes);
+      if (previous == null || !previous.first.getBoundaries().equals(point.getBoundaries())) {
+        // Points of one instrument share their boundaries; should they not, the later one wins.
+        merged.put(attributes, new MergedHistogram(point));
+      } else {
+        previous.add(point);
+      }
+    }
+    List<HistogramPointData> result = new ArrayList<>(merged.size());
+    merged.forEach(
+        (attributes, histogram) -> result.add(histogram.toPoint(attributes, startTimes)));
+    return result;
+  }
+
+  private static HistogramPointData withAttributes(
+      HistogramPointData point, Attributes attributes, long startEpochNanos) {
+    return ImmutableHistogramPointData.create(
+        startEpochNanos,
+        point.getEpochNanos(),
+        attributes,
+        point.getSum(),
+        point.hasMin() ? point.getMin() : null,
+        point.hasMax() ? point.getMax() : null,
+        point.getBoundaries(),
+        point.getCounts(),
+        point.getExemplars());
+  }
+
+  private static long startOf(PointData previous, PointData point) {
+    return previous == null
+        ? point.getStartEpochNanos()
+        : Math.min(previous.getStartEpochNanos(), point.getStartEpochNanos());
+  }
+
+  private static long endOf(PointData previous, PointData point) {
+    return previous == null
+        ? point.getEpochNanos()
+        : Math.max(previous.getEpochNanos(), point.getEpochNanos());
+  }
+
+  /** Chooses the start time of the points that result from merging. */
+  interface StartTimes {
+    /** Returns the start time of the series with {@code attributes}, given that of its inputs. */
+    long startOf(Attributes attributes, long mergedStartEpochNanos);
+  }
+
+  /**
+   * The histogram points merged into one series, accumulated in place so that merging many points
+   * copies nothing. Only the most recent exemplar of each bucket is kept.
+   */
+  private static final class MergedHistogram {
+    private final HistogramPointData first;
+    // Null until a second point is merged.
+    @Nullable private long[] counts;
+    @Nullable private DoubleExemplarData[] exemplars;
+    private long start;
+    private long end;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private boolean hasMin;
+    private boolean hasMax;
+
+    MergedHistogram(HistogramPointData first) {
+      this.first = first;
+    }
+
+    void add(HistogramPointData point) {
+      if (counts == null) {
+        counts = new long[first.getBoundaries().size() + 1];
+        exemplars = new DoubleExemplarData[counts.length];
+        start = first.getStartEpochNanos();
+        end = first.getEpochNanos();
+        accumulate(first);
+      }
+      start = Math.min(start, point.getStartEpochNanos());
+      end = Math.max(end, point.getEpochNanos());
+      accumulate(point);
+    }
+
+    private void accumulate(HistogramPointData point) {
+      sum += point.getSum();
+      if (point.hasMin()) {
+        min = Math.min(min, point.getMin());
+        hasMin = true;
+      }
+      if (point.hasMax()) {
+        max = Math.max(max, point.getMax());
+        hasMax = true;
+      }
+      List<Long> pointCounts = point.getCounts();
+      for (int bucket = 0; bucket < counts.length; bucket++) {
+        counts[bucket] += pointCounts.get(bucket);
+      }
+      for (DoubleExemplarData exemplar : point.getExemplars()) {
+        int bucket = MetricTranslator.bucketIndex(first.getBoundaries(), exemplar.getValue());
+        if (exemplars[bucket] == null
+            || exemplars[bucket].getEpochNanos() <= exemplar.getEpochNanos()) {
+          exemplars[bucket] = exemplar;
+        }
+      }
+    }
+
+    HistogramPointData toPoint(Attributes attributes, StartTimes startTimes) {
+      if (counts == null) {
+        return withAttributes(
+            first, attributes, startTimes.startOf(attributes, first.getStartEpochNanos()));
+      }
+      List<Long> mergedCounts = new ArrayList<>(counts.length);
+      for (long count : counts) {
+        mergedCounts.add(count);
+      }
+      List<DoubleExemplarData> kept = new ArrayList<>();
+      for (DoubleExemplarData exemplar : exemplars) {
+        if (exemplar != null) {
+          kept.add(exemplar);
+        }
+      }
+      return ImmutableHistogramPointData.create(
+          startTimes.startOf(attributes, start),
+          end,
+          attributes,
+          sum,
+          hasMin ? min : null,
+          hasMax ? max : null,
+          first.getBoundaries(),
+          mergedCounts,
+          kept);
+    }
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.monitoring.v3.ProjectName;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.Empty;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes time series batches, retrying failed requests with exponential backoff and jitter.
+ *
+ * <p>Only failures that {@link WriteFailures} classifies as transient are retried. After a partial
+ * failure only the rejected series are re-sent, so accepted points are never written twice.
+ * Series that still fail transiently after the last attempt may be passed to a {@link
+ * TransientFailureHandler} instead of being dropped.
+ */
+final class RetryingTimeSeriesWriter {
+
+  private static final Logger logger = LoggerFactory.getLogger(RetryingTimeSeriesWriter.class);
+
+  private final CloudMetricClient client;
+  private final int maxAttempts;
+  private final long initialBackoffNanos;
+  private final long maxBackoffNanos;
+  @Nullable private final TransientFailureHandler transientFailureHandler;
+  // Created on the first asynchronous retry. Guarded by this.
+  @Nullable private ScheduledExecutorService scheduler;
+  // Guarded by this.
+  private boolean shutdown;
+
+  RetryingTimeSeriesWriter(
+      CloudMetricClient client, int maxAttempts, long initialBackoffNanos, long maxBackoffNanos) {
+    this(client, maxAttempts, initialBackoffNanos, maxBackoffNanos, null);
+  }
+
+  RetryingTimeSeriesWriter(
+      CloudMetricClient client,
+      int maxAttempts,
+      long initialBackoffNanos,
+      long maxBackoffNanos,
+      @Nullable TransientFailureHandler transientFailureHandler) {
+    this.client = client;
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffNanos = initialBackoffNanos;
+    this.maxBackoffNanos = maxBackoffNanos;
+    this.transientFailureHandler = transientFailureHandler;
+  }
+
+  /**
+   * Writes a batch on the calling thread, sleeping between attempts. Never throws.
+   *
+   * @return true if the batch was written or taken by the transient failure handler.
+   */
+  boolean write(ProjectName projectName, List<TimeSeries> batch) {
+    return write(projectName, batch, transientFailureHandler);
+  }
+
+  /**
+   * Writes a batch on the calling thread like {@link #write(ProjectName, List)}, passing series
+   * that still fail transiently after the last attempt to {@code handler}.
+   */
+  boolean write(
+      ProjectName projectName, List<TimeSeries> batch, @Nullable TransientFailureHandler handler) {
+    List<TimeSeries> pending = batch;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        client.createTimeSeries(projectName, pending);
+        return true;
+      } catch (RuntimeException e) {
+        List<TimeSeries> retry = retryFor(pending, e);
+        if (retry == null) {
+          logger.warn("Failed to write {} time series", pending.size(), e);
+          return false;
+        }
+        if (attempt >= maxAttempts) {
+          return handleTransientFailure(handler, projectName, retry, e);
+        }
+        pending = retry;
+      }
+      try {
+        TimeUnit.NANOSECONDS.sleep(backoffNanos(attempt));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return handleTransientFailure(handler, projectName, pending, e);
+      }
+    }
+  }
+
+  /** Writes a batch asynchronously. The returned future completes after the final attempt. */
+  ApiFuture<Empty> writeAsync(ProjectName projectName, List<TimeSeries> batch) {
+    return writeAsync(projectName, batch, transientFailureHandler);
+  }
+
+  /**
+   * Writes a batch asynchronously like {@link #writeAsync(ProjectName, List)}, passing series that
+   * still fail transiently after the last attempt to {@code handler}.
+   */
+  ApiFuture<Empty> writeAsync(
+      ProjectName projectName, List<TimeSeries> batch, @Nullable TransientFailureHandler handler) {
+    SettableApiFuture<Empty> result = SettableApiFuture.create();
+    attemptAsync(projectName, batch, 1, handler, result);
+    return result;
+  }
+
+  /** Stops scheduling retries. Retries that have not started yet fail. */
+  synchronized void shutdown() {
+    shutdown = true;
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  private void attemptAsync(
+      ProjectName projectName,
+      List<TimeSeries> pending,
+      int attempt,
+      @Nullable TransientFailureHandler handler,
+      SettableApiFuture<Empty> result) {
+    ApiFuture<Empty> future;
+    try {
+      future = client.createTimeSeriesAsync(projectName, pending);
+    } catch (RuntimeException e) {
+      future = ApiFutures.immediateFailedFuture(e);
+    }
+    ApiFutures.addCallback(
+        future,
+        new ApiFutureCallback<Empty>() {
+          @Override
+          public void onFailure(Throwable t) {
+            List<TimeSeries> retry = retryFor(pending, t);
+            if (retry == null) {
+              result.setException(t);
+              return;
+            }
+            if (attempt >= maxAttempts) {
+              if (handleTransientFailure(handler, projectName, retry, t)) {
+                result.set(Empty.getDefaultInstance());
+              } else {
+                result.setException(t);
+              }
+              return;
+            }
+            try {
+              scheduler()
+                  .schedule(
+                      () -> attemptAsync(projectName, retry, attempt + 1, handler, result),
+                      backoffNanos(attempt),
+                      TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+              result.setException(t);
+            }
+          }
+
+          @Override
+          public void onSuccess(Empty response) {
+            result.set(response);
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private boolean handleTransientFailure(
+      @Nullable TransientFailureHandler handler,
+      ProjectName projectName,
+      List<TimeSeries> series,
+      Throwable error) {
+    if (handler != null && handler.handle(projectName, series)) {
+      return true;
+    }
+    logger.warn(
+        "Failed to write {} time series after {} attempts", series.size(), maxAttempts, error);
+    return false;
+  }
+
+  // Returns the series to re-send after a failed attempt, or null if none should be.
+  @Nullable
+  private List<TimeSeries> retryFor(List<TimeSeries> pending, Throwable error) {
+    BitSet retry = WriteFailures.seriesToRetry(error, pending.size());
+    if (retry == null) {
+      return null;
+    }
+    if (retry.cardinality() == pending.size()) {
+      return pending;
+    }
+    logger.debug(
+        "Re-sending {} of {} time series rejected by a partial failure",
+        retry.cardinality(),
+        pending.size());
+    return WriteFailures.select(pending, retry);
+  }
+
+  // Exponential backoff with "equal jitter": a random delay between half and all of the backoff.
+  @VisibleForTesting
+  long backoffNanos(int attempt) {
+    long backoff = initialBackoffNanos;
+    for (int i = 1; i < attempt && backoff < maxBackoffNanos; i++) {
+      backoff *= 2;
+    }
+    backoff = Math.min(backoff, maxBackoffNanos);
+    long half = backoff / 2;
+    return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+  }
+
+  private synchronized ScheduledExecutorService scheduler() {
+    if (shutdown) {
+      throw new RejectedExecutionException("Writer is shut down");
+    }
+    if (scheduler == null) {
+      scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              runnable -> {
+                Thread thread = new Thread(runnable, "gcp-metric-write-retry");
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+    return scheduler;
+  }
+
+  /** Takes over series that could not be written because of a transient failure. */
+  interface TransientFailureHandler {
+    /** Returns true if the series were taken over, false if they should be reported as lost. */
+    boolean handle(ProjectName projectName, List<TimeSeries> series);
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import com.google.api.MetricDescriptor;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends each metric descriptor once per project, without locking.
+ *
+ * <p>A (project, type) pair is claimed in a concurrent set before its descriptor is sent, so
+ * concurrent exporters never send the same descriptor twice and never wait on one another's RPCs.
+ * A pair is released again if sending fails, so the descriptor is retried with a later batch.
+ * Asynchronous instances return as soon as the RPCs are started; time series written before their
+ * descriptor exists rely on auto-creation.
+ */
+final class SendOnceDescriptorStrategy implements MetricDescriptorStrategy {
+
+  private static final Logger logger = LoggerFactory.getLogger(SendOnceDescriptorStrategy.class);
+
+  // Descriptors exported through the project-less interface method are all keyed by this project.
+  private static final String UNKNOWN_PROJECT = "";
+
+  private final boolean async;
+  // Descriptors that have been created or are being created.
+  private final Set<DescriptorKey> claimed = ConcurrentHashMap.newKeySet();
+
+  SendOnceDescriptorStrategy(boolean async) {
+    this.async = async;
+  }
+
+  @Override
+  public void exportDescriptors(
+      Iterable<MetricDescriptor> batchDescriptors, Consumer<MetricDescriptor> export) {
+    exportDescriptors(UNKNOWN_PROJECT, batchDescriptors, export);
+  }
+
+  @Override
+  public void exportDescriptors(
+      String projectId,
+      Iterable<MetricDescriptor> batchDescriptors,
+      Consumer<MetricDescriptor> export,
+      Function<MetricDescriptor, ApiFuture<?>> exportAsync) {
+    if (async) {
+      exportDescriptorsAsync(projectId, batchDescriptors, exportAsync);
+    } else {
+      exportDescriptors(projectId, batchDescriptors, export);
+    }
+  }
+
+  @Override
+  public void registerExistingDescriptors(
+      String projectId, Iterable<MetricDescriptor> existingDescriptors) {
+    for (MetricDescriptor descriptor : existingDescriptors) {
+      claimed.add(new DescriptorKey(projectId, descriptor.getType()));
+    }
+  }
+
+  private void exportDescriptors(
+      String projectId,
+      Iterable<MetricDescriptor> batchDescriptors,
+      Consumer<MetricDescriptor> export) {
+    for (MetricDescriptor descriptor : batchDescriptors) {
+      DescriptorKey key = new DescriptorKey(projectId, descriptor.getType());
+      if (!claimed.add(key)) {
+        continue;
+      }
+      try {
+        export.accept(descriptor);
+      } catch (RuntimeException e) {
+        claimed.remove(key);
+        throw e;
+      }
+    }
+  }
+
+  private void exportDescriptorsAsync(
+      String projectId,
+      Iterable<MetricDescriptor> batchDescriptors,
+      Function<MetricDescriptor, ApiFuture<?>> exportAsync) {
+    for (MetricDescriptor descriptor : batchDescriptors) {
+      DescriptorKey key = new DescriptorKey(projectId, descriptor.getType());
+      if (!claimed.add(key)) {
+        continue;
+      }
+      ApiFuture<?> created;
+      try {
+        created = exportAsync.apply(descriptor);
+      } catch (RuntimeException e) {
+        created = ApiFutures.immediateFailedFuture(e);
+      }
+      ApiFutures.addCallback(
+          created,
+          new ApiFutureCallback<Object>() {
+            @Override
+            public void onFailure(Throwable t) {
+              claimed.remove(key);
+              logger.warn("Failed to create metric descriptor " + key.type, t);
+            }
+
+            @Override
+            public void onSuccess(Object result) {}
+          },
+          MoreExecutors.directExecutor());
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Computes 64-bit FNV-1a fingerprints that identify a time series by its metric and attributes.
+ *
+ * <p>Fingerprints are never 0, so they can be used directly as {@link LongLongHashMap} keys.
+ * Distinct series may collide with negligible probability. The underlying FNV-1a steps are exposed
+ * for other hashes of the exporter, starting from {@link #OFFSET_BASIS}.
+ */
+final class SeriesFingerprint {
+
+  static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long PRIME = 0x100000001b3L;
+
+  private SeriesFingerprint() {}
+
+  /** Returns {@code hash} updated with the eight bytes of {@code value}, lowest first. */
+  static long mix(long hash, long value) {
+    for (int shift = 0; shift < 64; shift += 8) {
+      hash = mixByte(hash, (int) (value >>> shift) & 0xff);
+    }
+    return hash;
+  }
+
+  /** Returns {@code hash} updated with {@code bytes}. */
+  static long mix(long hash, byte[] bytes) {
+    for (byte b : bytes) {
+      hash = mixByte(hash, b & 0xff);
+    }
+    return hash;
+  }
+
+  private static long mixByte(long hash, int b) {
+    return (hash ^ b) * PRIME;
+  }
+
+  /** Fingerprints a series by the project it is written to, its metric name and attributes. */
+  static long of(String projectId, String metricName, Attributes attributes) {
+    Hasher hasher = new Hasher();
+    hasher.putString(projectId);
+    hasher.putString(metricName);
+    attributes.forEach(hasher);
+    return hasher.hash == 0 ? 1 : hasher.hash;
+  }
+
+  /**
+   * Fingerprints a series of {@code metric} more strictly than {@link #of(String, String,
+   * Attributes)}: the metric's type, instrumentation scope and resource are part of its identity
+   * too.
+   */
+  static long of(MetricData metric, Attributes attributes) {
+    Hasher hasher = new Hasher();
+    hasher.putMetric(metric, attributes);
+    return hasher.hash == 0 ? 1 : hasher.hash;
+  }
+
+  /**
+   * Fingerprints a series of {@code metric} written to {@code projectId}, telling apart the
+   * resources that report the same metric and attributes to one project.
+   */
+  static long of(String projectId, MetricData metric, Attributes attributes) {
+    Hasher hasher = new Hasher();
+    hasher.putString(projectId);
+    hasher.putMetric(metric, attributes);
+    return hasher.hash == 0 ? 1 : hasher.hash;
+  }
+
+  private static final class Hasher implements BiConsumer<AttributeKey<?>, Object> {
+    private long hash = OFFSET_BASIS;
+
+    private void putMetric(MetricData metric, Attributes attributes) {
+      putString(metric.getName());
+      putLong(metric.getType().ordinal());
+      putString(metric.getInstrumentationScopeInfo().getName());
+      metric.getResource().getAttributes().forEach(this);
+      // Separates resource attributes from point attributes.
+      putLong(-1);
+      attributes.forEach(this);
+    }
+
+    @Override
+    public void accept(AttributeKey<?> key, Object value) {
+      putString(key.getKey());
+      putLong(key.getType().ordinal());
+      putValue(value);
+    }
+
+    private void putValue(Object value) {
+      if (value instanceof String) {
+        putString((String) value);
+      } else if (value instanceof Long) {
+        putLong((Long) value);
+      } else if (value instanceof Double) {
+        putLong(Double.doubleToLongBits((Double) value));
+      } else if (value instanceof Boolean) {
+        putLong((Boolean) value ? 1 : 0);
+      } else if (value instanceof List) {
+        List<?> values = (List<?>) value;
+        putLong(values.size());
+        for (Object element : values) {
+          putValue(element);
+        }
+      } else {
+        putString(String.valueOf(value));
+      }
+    }
+
+    // The length prefix keeps ("ab", "c") and ("a", "bc") apart.
+    private void putString(String value) {
+      putLong(value.length());
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        putByte(c & 0xff);
+        putByte(c >>> 8);
+      }
+    }
+
+    private void putLong(long value) {
+      hash = mix(hash, value);
+    }
+
+    private void putByte(int b) {
+      hash = mixByte(hash, b);
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.MetricTranslator.mapDistribution;
+import static com.google.cloud.opentelemetry.metric.MetricTranslator.mapInterval;
+
+import com.google.api.Distribution;
+import com.google.api.MetricDescriptor;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import io.opentelemetry.sdk.metrics.data.DoublePointData;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.PointData;
+import io.opentelemetry.sdk.metrics.internal.data.exponentialhistogram.ExponentialHistogramPointData;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link MetricTimeSeriesBuilder} that hands off each full request batch as soon as it is ready,
+ * so the heap never holds more than one batch of a cycle's time series.
+ *
+ * <p>Every point becomes its own time series. Each batch is passed to the sink together with the
+ * descriptors first seen since the previous batch, so descriptors can be registered before the
+ * series that use them. {@link #getDescriptors()} and {@link #getTimeSeries()} only return what
+ * has not been handed off yet.
+ */
+final class StreamingMetricTimeSeriesBuilder implements MetricTimeSeriesBuilder {
+
+  private final String projectId;
+  private final MetricDescriptorCache descriptorCache;
+  private final TimeSeriesHeaderTable headerTable;
+  private final HistogramCompaction compaction;
+  private final BiConsumer<Collection<MetricDescriptor>, List<TimeSeries>> sink;
+  private final TimeSeriesBatcher batcher = new TimeSeriesBatcher(this::handOff);
+  private final Set<String> seenDescriptorTypes = new HashSet<>();
+  private List<MetricDescriptor> pendingDescriptors = new ArrayList<>();
+  // Points arrive grouped by metric, so remember the last instrument to skip its key lookup.
+  private MetricData lastMetric;
+  private MetricDescriptorCache.Instrument lastInstrument;
+
+  /**
+   * Creates a streaming builder.
+   *
+   * @param sink receives the descriptors first seen since the previous batch, and a full batch.
+   */
+  StreamingMetricTimeSeriesBuilder(
+      String projectId,
+      MetricDescriptorCache descriptorCache,
+      TimeSeriesHeaderTable headerTable,
+      BiConsumer<Collection<MetricDescriptor>, List<TimeSeries>> sink) {
+    this(projectId, descriptorCache, headerTable, HistogramCompaction.NONE, sink);
+  }
+
+  StreamingMetricTimeSeriesBuilder(
+      String projectId,
+      MetricDescriptorCache descriptorCache,
+      TimeSeriesHeaderTable headerTable,
+      HistogramCompaction compaction,
+      BiConsumer<Collection<MetricDescriptor>, List<TimeSeries>> sink) {
+    this.projectId = projectId;
+    this.descriptorCache = descriptorCache;
+    this.headerTable = headerTable;
+    this.compaction = compaction;
+    this.sink = sink;
+  }
+
+  @Override
+  public void recordPoint(MetricData metric, LongPointData point) {
+    MetricDescriptor descriptor = descriptorFor(metric, point);
+    if (descriptor == null) {
+      // Unsupported type.
+      return;
+    }
+    record(
+        metric, point, descriptor, TypedValue.newBuilder().setInt64Value(point.getValue()).build());
+  }
+
+  @Override
+  public void recordPoint(MetricData metric, DoublePointData point) {
+    MetricDescriptor descriptor = descriptorFor(metric, point);
+    if (descriptor == null) {
+      // Unsupported type.
+      return;
+    }
+    record(
+        metric,
+        point,
+        descriptor,
+        TypedValue.newBuilder().setDoubleValue(point.getValue()).build());
+  }
+
+  @Override
+  public void recordPoint(MetricData metric, HistogramPointData point) {
+    MetricDescriptor descriptor = descriptorFor(metric, point);
+    if (descriptor == null) {
+      // Unsupported type.
+      return;
+    }
+    Distribution.Builder distribution = compaction.mapDistribution(metric, point, projectId);
+    record(
+        metric,
+        point,
+        descriptor,
+        TypedValue.newBuilder().setDistributionValue(distribution).build());
+  }
+
+  @Override
+  public void recordPoint(MetricData metric, ExponentialHistogramPointData point) {
+    MetricDescriptor descriptor = descriptorFor(metric, point);
+    if (descriptor == null) {
+      // Unsupported type.
+      return;
+    }
+    record(
+        metric,
+        point,
+        descriptor,
+        TypedValue.newBuilder().setDistributionValue(mapDistribution(point, projectId)).build());
+  }
+
+  private void record(
+      MetricData metric, PointData point, MetricDescriptor descriptor, TypedValue value) {
+    if (seenDescriptorTypes.add(descriptor.getType())) {
+      pendingDescriptors.add(descriptor);
+    }
+    batcher.add(
+        headerTable
+            .get(metric, point.getAttributes(), descriptor)
+            .toBuilder()
+            .addPoints(Point.newBuilder().setValue(value).setInterval(mapInterval(point, metric)))
+            .build());
+  }
+
+  private MetricDescriptor descriptorFor(MetricData metric, PointData point) {
+    if (metric != lastMetric) {
+      lastMetric = metric;
+      lastInstrument = descriptorCache.forInstrument(metric);
+    }
+    return lastInstrument.get(metric, point);
+  }
+
+  private void handOff(List<TimeSeries> batch) {
+    List<MetricDescriptor> descriptors = pendingDescriptors;
+    pendingDescriptors = new ArrayList<>();
+    sink.accept(descriptors, batch);
+  }
+
+  /** The descriptors that have not yet been handed to the sink with a batch. */
+  @Override
+  public Collection<MetricDescriptor> getDescriptors() {
+    return pendingDescriptors;
+  }
+
+  /** The series of the last, partially filled batch, which was not handed to the sink. */
+  @Override
+  public List<TimeSeries> getTimeSeries() {
+    return batcher.drain();
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import com.google.api.Metric;
+import com.google.api.MonitoredResource;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.CodedOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Groups time series into CreateTimeSeries request batches, handing each batch to a sink as soon
+ * as it is full.
+ *
+ * <p>A batch is full when it holds {@link #MAX_BATCH_SIZE} series or when its estimated serialized
+ * size would exceed the byte budget. Cloud Monitoring rejects a whole request that contains the
+ * same series twice, so a series whose identity (metric and monitored resource) is already in a
+ * batch goes to a later batch instead. Batches are always handed off oldest first, so the points
+ * of a series reach the sink in the order they were added.
+ */
+final class TimeSeriesBatcher {
+
+  // Cloud Monitoring accepts at most 200 time series per CreateTimeSeries request.
+  static final int MAX_BATCH_SIZE = 200;
+  // A conservative budget that keeps requests well below the API's request size limit.
+  static final int DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+
+  private final Consumer<List<TimeSeries>> sink;
+  private final int maxBatchBytes;
+  // Batches still accepting series, oldest first. There is more than one only while duplicates
+  // of a series are pending.
+  private final List<Batch> open = new ArrayList<>();
+
+  TimeSeriesBatcher(Consumer<List<TimeSeries>> sink) {
+    this(sink, DEFAULT_MAX_BATCH_BYTES);
+  }
+
+  TimeSeriesBatcher(Consumer<List<TimeSeries>> sink, int maxBatchBytes) {
+    this.sink = sink;
+    this.maxBatchBytes = maxBatchBytes;
+  }
+
+  /** Adds a series to the first batch that can take it, handing off batches that become full. */
+  void add(TimeSeries timeSeries) {
+    SeriesIdentity identity = new SeriesIdentity(timeSeries.getMetric(), timeSeries.getResource());
+    int bytes =
+        CodedOutputStream.computeMessageSize(
+            CreateTimeSeriesRequest.TIME_SERIES_FIELD_NUMBER, timeSeries);
+    if (bytes >= maxBatchBytes) {
+      // A single series over the byte budget is sent on its own, after any earlier points of it.
+      for (int i = open.size() - 1; i >= 0; i--) {
+        if (open.get(i).identities.contains(identity)) {
+          sendThrough(i);
+          break;
+        }
+      }
+      List<TimeSeries> single = new ArrayList<>(1);
+      single.add(timeSeries);
+      sink.accept(single);
+      return;
+    }
+    int i = 0;
+    while (i < open.size()) {
+      Batch batch = open.get(i);
+      if (batch.bytes + bytes > maxBatchBytes) {
+        // Nearly full by size; send it rather than keep searching it for space.
+        sendThrough(i);
+        i = 0;
+        continue;
+      }
+      if (batch.identities.add(identity)) {
+        batch.add(timeSeries, bytes);
+        if (batch.series.size() >= MAX_BATCH_SIZE) {
+          sendThrough(i);
+        }
+        return;
+      }
+      i++;
+    }
+    Batch batch = new Batch();
+    batch.identities.add(identity);
+    batch.add(timeSeries, bytes);
+    open.add(batch);
+  }
+
+  /**
+   * Hands the open batches up to and including the given one to the sink, oldest first, so that
+   * no point of a series is sent ahead of an earlier point of it.
+   */
+  private void sendThrough(int index) {
+    List<Batch> sent = open.subList(0, index + 1);
+    for (Batch batch : sent) {
+      sink.accept(batch.series);
+    }
+    sent.clear();
+  }
+
+  /** Hands all partially filled batches to the sink. */
+  void flush() {
+    for (Batch batch : open) {
+      sink.accept(batch.series);
+    }
+    open.clear();
+  }
+
+  /** Returns the series of all partially filled batches, in order, without handing them off. */
+  List<TimeSeries> drain() {
+    List<TimeSeries> remaining = new ArrayList<>();
+    for (Batch batch : open) {
+      remaining.addAll(batch.series);
+    }
+    open.clear();
+    return remaining;
+  }
+
+  private static final class Batch {
+    private final List<TimeSeries> series = new ArrayList<>();
+    private final Set<SeriesIdentity> identities = new HashSet<>();
+    private int bytes;
+
+    void add(TimeSeries timeSeries, int timeSeriesBytes) {
+      series.add(timeSeries);
+      bytes += timeSeriesBytes;
+    }
+  }
+
+  static final class SeriesIdentity {
+    private final Metric metric;
+    private final MonitoredResource resource;
+
+    SeriesIdentity(Metric metric, MonitoredResource resource) {
+      this.metric = metric;
+      this.resource = resource;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof SeriesIdentity)) {
+        return false;
+      }
+      SeriesIdentity that = (SeriesIdentity) o;
+      return metric.equals(that.metric) && resource.equals(that.resource);
+    }
+
+    @Override
+    public int hashCode() {
+      // Protobuf messages memoize their hash codes.
+      return 31 * metric.hashCode() + resource.hashCode();
+    }
+  }
+}
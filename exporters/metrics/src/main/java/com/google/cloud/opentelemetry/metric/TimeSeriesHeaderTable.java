@@ -0,0 +1,121 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.MetricTranslator.mapMetric;
+
+import com.google.api.MetricDescriptor;
+import com.google.monitoring.v3.TimeSeries;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.resources.Resource;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prebuilt {@link TimeSeries} headers (metric, metric kind and monitored resource, without points)
+ * that live across export cycles.
+ *
+ * <p>Headers are keyed by descriptor type, {@link Resource} and {@link Attributes}, so series that
+ * differ only by resource, such as those routed to different projects, each keep their own header.
+ * Because they are immutable protos, a series seen in an earlier cycle only needs its new point.
+ * Series that are not reported for {@code idleCycles} consecutive cycles are evicted by {@link
+ * #endCycle()}.
+ */
+final class TimeSeriesHeaderTable {
+
+  static final int DEFAULT_IDLE_CYCLES = 5;
+
+  private final MonitoredResourceCache resourceCache;
+  private final int idleCycles;
+  private final ConcurrentMap<String, ConcurrentMap<Resource, ConcurrentMap<Attributes, Entry>>>
+      headers = new ConcurrentHashMap<>();
+  private final AtomicLong cycle = new AtomicLong();
+
+  TimeSeriesHeaderTable(MonitoredResourceCache resourceCache) {
+    this(resourceCache, DEFAULT_IDLE_CYCLES);
+  }
+
+  TimeSeriesHeaderTable(MonitoredResourceCache resourceCache, int idleCycles) {
+    this.resourceCache = resourceCache;
+    this.idleCycles = idleCycles;
+  }
+
+  /** Returns the header for a series, building it if the series is new or has changed. */
+  TimeSeries get(MetricData metric, Attributes attributes, MetricDescriptor descriptor) {
+    ConcurrentMap<Resource, ConcurrentMap<Attributes, Entry>> byResource =
+        headers.get(descriptor.getType());
+    if (byResource == null) {
+      byResource = headers.computeIfAbsent(descriptor.getType(), type -> new ConcurrentHashMap<>());
+    }
+    Resource resource = metric.getResource();
+    ConcurrentMap<Attributes, Entry> series = byResource.get(resource);
+    if (series == null) {
+      series = byResource.computeIfAbsent(resource, r -> new ConcurrentHashMap<>());
+    }
+    Entry entry = series.get(attributes);
+    if (entry == null || entry.metricKind != descriptor.getMetricKind()) {
+      entry = new Entry(descriptor.getMetricKind(), makeHeader(resource, attributes, descriptor));
+      series.put(attributes, entry);
+    }
+    entry.lastCycle = cycle.get();
+    return entry.header;
+  }
+
+  /** Evicts series that were not reported in the last {@code idleCycles} cycles. */
+  void endCycle() {
+    long cutoff = cycle.getAndIncrement() - idleCycles;
+    for (ConcurrentMap<Resource, ConcurrentMap<Attributes, Entry>> byResource : headers.values()) {
+      for (ConcurrentMap<Attributes, Entry> series : byResource.values()) {
+        series.values().removeIf(entry -> entry.lastCycle <= cutoff);
+      }
+      byResource.values().removeIf(ConcurrentMap::isEmpty);
+    }
+    headers.values().removeIf(ConcurrentMap::isEmpty);
+  }
+
+  /** Returns the number of series currently held. */
+  int size() {
+    int size = 0;
+    for (ConcurrentMap<Resource, ConcurrentMap<Attributes, Entry>> byResource : headers.values()) {
+      for (ConcurrentMap<Attributes, Entry> series : byResource.values()) {
+        size += series.size();
+      }
+    }
+    return size;
+  }
+
+  private TimeSeries makeHeader(
+      Resource resource, Attributes attributes, MetricDescriptor descriptor) {
+    return TimeSeries.newBuilder()
+        .setMetric(mapMetric(attributes, descriptor.getType()))
+        .setMetricKind(descriptor.getMetricKind())
+        .setResource(resourceCache.get(resource))
+        .build();
+  }
+
+  private static final class Entry {
+    private final MetricDescriptor.MetricKind metricKind;
+    private final TimeSeries header;
+    private volatile long lastCycle;
+
+    Entry(MetricDescriptor.MetricKind metricKind, TimeSeries header) {
+      this.metricKind = metricKind;
+      this.header = header;
+    }
+  }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import com.google.common.base.Preconditions;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.ProjectName;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A FIFO queue of serialized {@link CreateTimeSeriesRequest}s kept in memory-mapped segment files,
+ * so that batches which could not be sent survive an outage without occupying the Java heap.
+ *
+ * <p>Each segment holds records of a 4-byte length followed by the 4-byte size of the serialized
+ * request and the request itself. The length is written last, so a record is only visible once
+ * complete, and it is negated once the record has been consumed, so a restarted process resumes
+ * with the first unconsumed record. A length of 0 marks the end of a segment. The request of the
+ * oldest record can be replaced in place by a smaller one, which keeps its position in the queue.
+ * When appending would exceed the byte limit, the oldest segments are deleted, unsent or not; this
+ * is the only way unsent records are dropped. A {@link Head} returned by {@link #peek()} names the
+ * record it was read from, so removing or replacing it does nothing once that record was evicted.
+ */
+final class TimeSeriesSpool {
+
+  private static final Logger logger = LoggerFactory.getLogger(TimeSeriesSpool.class);
+
+  static final int DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+  private static final String SEGMENT_SUFFIX = ".spool";
+  private static final int LENGTH_BYTES = 4;
+  private static final int HEADER_BYTES = 2 * LENGTH_BYTES;
+
+  private final Path directory;
+  private final long maxBytes;
+  private final int segmentBytes;
+  // Oldest first. Guarded by this.
+  private final Deque<Segment> segments = new ArrayDeque<>();
+  // Guarded by this.
+  private long totalBytes;
+  // Guarded by this.
+  private long nextSequence;
+
+  TimeSeriesSpool(Path directory, long maxBytes) throws IOException {
+    this(directory, maxBytes, (int) Math.min(DEFAULT_SEGMENT_BYTES, maxBytes));
+  }
+
+  TimeSeriesSpool(Path directory, long maxBytes, int segmentBytes) throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.maxBytes = maxBytes;
+    this.segmentBytes = segmentBytes;
+    List<Path> existing = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+      for (Path file : files) {
+        existing.add(file);
+      }
+    }
+    // Segment names are zero-padded sequence numbers, so name order is age order.
+    Collections.sort(existing);
+    for (Path file : existing) {
+      Segment segment = Segment.open(file);
+      segments.add(segment);
+      totalBytes += segment.capacity();
+      nextSequence = Math.max(nextSequence, sequenceOf(file) + 1);
+    }
+  }
+
+  /**
+   * Appends a batch, evicting the oldest segments if needed to stay within the byte limit.
+   *
+   * @return false if the batch alone exceeds the byte limit or could not be written.
+   */
+  synchronized boolean append(ProjectName projectName, List<TimeSeries> series) {
+    byte[] record = serialize(projectName, series);
+    int needed = HEADER_BYTES + record.length;
+    Segment tail = segments.peekLast();
+    if (tail == null || !tail.hasRoom(needed)) {
+      int size = Math.max(segmentBytes, needed);
+      if (size > maxBytes) {
+        logger.warn("Dropping {} time series larger than the spool limit", series.size());
+        return false;
+      }
+      while (!segments.isEmpty() && totalBytes + size > maxBytes) {
+        logger.warn("Spool is full; dropping its oldest segment");
+        delete(segments.pollFirst());
+      }
+      try {
+        tail = Segment.create(directory.resolve(segmentName(nextSequence++)), size);
+      } catch (IOException e) {
+        logger.warn("Failed to create spool segment", e);
+        return false;
+      }
+      segments.add(tail);
+      totalBytes += size;
+    }
+    tail.append(record);
+    return true;
+  }
+
+  /** Returns the oldest unconsumed request, or null if there is none. */
+  @Nullable
+  synchronized Head peek() {
+    while (true) {
+      Segment segment = headWithRecords();
+      if (segment == null) {
+        return null;
+      }
+      try {
+        return new Head(
+            segment, segment.readPosition, CreateTimeSeriesRequest.parseFrom(segment.peek()));
+      } catch (InvalidProtocolBufferException e) {
+        logger.warn("Skipping corrupt spool record", e);
+        segment.consume();
+      }
+    }
+  }
+
+  /**
+   * Replaces the request of {@code head} with one holding a subset of its series, so that they are
+   * the next to be returned.
+   *
+   * @return false if the record of {@code head} is no longer the oldest, for example because it
+   *     was evicted, in which case nothing changes.
+   */
+  synchronized boolean replace(Head head, ProjectName projectName, List<TimeSeries> series) {
+    if (!isCurrent(head)) {
+      return false;
+    }
+    head.segment.replace(serialize(projectName, series));
+    return true;
+  }
+
+  /**
+   * Consumes the request of {@code head}.
+   *
+   * @return false if the record of {@code head} is no longer the oldest, in which case nothing
+   *     changes.
+   */
+  synchronized boolean remove(Head head) {
+    if (!isCurrent(head)) {
+      return false;
+    }
+    head.segment.consume();
+    return true;
+  }
+
+  synchronized boolean isEmpty() {
+    return headWithRecords() == null;
+  }
+
+  synchronized long sizeInBytes() {
+    return totalBytes;
+  }
+
+  private boolean isCurrent(Head head) {
+    return !head.segment.deleted
+        && head.segment.readPosition == head.position
+        && head.segment.hasUnread();
+  }
+
+  // Returns the oldest segment with unconsumed records, deleting fully consumed segments before it.
+  @Nullable
+  private Segment headWithRecords() {
+    while (!segments.isEmpty()) {
+      Segment head = segments.peekFirst();
+      if (head.hasUnread()) {
+        return head;
+      }
+      if (head == segments.peekLast()) {
+        // Keep the segment being appended to.
+        return null;
+      }
+      delete(segments.pollFirst());
+    }
+    return null;
+  }
+
+  private void delete(Segment segment) {
+    segment.deleted = true;
+    totalBytes -= segment.capacity();
+    try {
+      Files.deleteIfExists(segment.path);
+    } catch (IOException e) {
+      logger.warn("Failed to delete spool segment {}", segment.path, e);
+    }
+  }
+
+  private static byte[] serialize(ProjectName projectName, List<TimeSeries> series) {
+    return CreateTimeSeriesRequest.newBuilder()
+        .setName(projectName.toString())
+        .addAllTimeSeries(series)
+        .build()
+        .toByteArray();
+  }
+
+  private static String segmentName(long sequence) {
+    return String.format("%019d%s", sequence, SEGMENT_SUFFIX);
+  }
+
+  private static long sequenceOf(Path file) {
+    String name = file.getFileName().toString();
+    try {
+      return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /** The oldest unconsumed request of the spool, and the record it was read from. */
+  static final class Head {
+    private final Segment segment;
+    private final int position;
+    private final CreateTimeSeriesRequest request;
+
+    private Head(Segment segment, int position, CreateTimeSeriesRequest request) {
+      this.segment = segment;
+      this.position = position;
+      this.request = request;
+    }
+
+    CreateTimeSeriesRequest getRequest() {
+      return request;
+    }
+  }
+
+  private static final class Segment {
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private int readPosition;
+    private int writePosition;
+    private boolean deleted;
+
+    private Segment(Path path, MappedByteBuffer buffer) {
+      this.path = path;
+      this.buffer = buffer;
+    }
+
+    static Segment create(Path path, int size) throws IOException {
+      try (FileChannel channel =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE)) {
+        // Mapping past the end of the file extends it with zeros.
+        return new Segment(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+      }
+    }
+
+    static Segment open(Path path) throws IOException {
+      Segment segment;
+      try (FileChannel channel =
+          FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        segment = new Segment(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+      }
+      segment.recover();
+      return segment;
+    }
+
+    // Finds the first unconsumed record and the end of the complete records.
+    private void recover() {
+      int position = 0;
+      readPosition = -1;
+      while (position + HEADER_BYTES <= buffer.capacity()) {
+        int length = buffer.getInt(position);
+        int size = Math.abs(length);
+        if (length == 0 || size > buffer.capacity() - position - HEADER_BYTES) {
+          break;
+        }
+        if (length > 0 && readPosition < 0) {
+          readPosition = position;
+        }
+        position += HEADER_BYTES + size;
+      }
+      writePosition = position;
+      if (readPosition < 0) {
+        readPosition = position;
+      }
+    }
+
+    int capacity() {
+      return buffer.capacity();
+    }
+
+    boolean hasRoom(int bytes) {
+      return writePosition + bytes <= buffer.capacity();
+    }
+
+    boolean hasUnread() {
+      return readPosition < writePosition;
+    }
+
+    void append(byte[] record) {
+      write(writePosition, record);
+      buffer.putInt(writePosition, record.length);
+      writePosition += HEADER_BYTES + record.length;
+    }
+
+    ByteBuffer peek() {
+      int length = buffer.getInt(readPosition);
+      // Clamped so that a torn write cannot make the request overlap the next record.
+      int size = Math.min(Math.max(buffer.getInt(readPosition + LENGTH_BYTES), 0), length);
+      ByteBuffer record = buffer.duplicate();
+      record.position(readPosition + HEADER_BYTES);
+      record.limit(readPosition + HEADER_BYTES + size);
+      return record.slice();
+    }
+
+    // Overwrites the first unconsumed record, whose length stays the same.
+    void replace(byte[] record) {
+      int length = buffer.getInt(readPosition);
+      Preconditions.checkArgument(
+          record.length <= length, "Replacement is larger than the spooled request.");
+      write(readPosition, record);
+    }
+
+    void consume() {
+      int length = buffer.getInt(readPosition);
+      buffer.putInt(readPosition, -length);
+      readPosition += HEADER_BYTES + length;
+    }
+
+    private void write(int position, byte[] record) {
+      ByteBuffer target = buffer.duplicate();
+      target.position(position + HEADER_BYTES);
+      target.put(record);
+      buffer.putInt(position + LENGTH_BYTES, record.length);
+    }
+  }
+}
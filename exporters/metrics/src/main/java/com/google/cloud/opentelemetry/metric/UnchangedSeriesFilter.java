@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.SeriesFingerprint.OFFSET_BASIS;
+import static com.google.cloud.opentelemetry.metric.SeriesFingerprint.mix;
+
+import io.opentelemetry.sdk.metrics.data.DoublePointData;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.PointData;
+import io.opentelemetry.sdk.metrics.internal.data.exponentialhistogram.ExponentialHistogramPointData;
+
+/**
+ * Skips points whose value has not changed since the series was last written, but writes every
+ * series at least once per staleness window so charts keep drawing.
+ *
+ * <p>For each series, keyed by {@link SeriesFingerprint}, a 64-bit hash of the last written value
+ * and the time of that write are kept in two {@link LongLongHashMap}s. The hash covers the start
+ * time of the point, so a reset cumulative series is always written. Series whose last write is
+ * older than the staleness window would be written anyway and are pruned once the tables have
+ * doubled since the previous prune.
+ */
+final class UnchangedSeriesFilter {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final long maxStalenessNanos;
+  // Guarded by this.
+  private final LongLongHashMap lastValues = new LongLongHashMap(INITIAL_CAPACITY);
+  // Guarded by this.
+  private final LongLongHashMap lastWritten = new LongLongHashMap(INITIAL_CAPACITY);
+  // Guarded by this.
+  private long latestWrite = Long.MIN_VALUE;
+  // Guarded by this.
+  private int sizeAfterPrune;
+
+  UnchangedSeriesFilter(long maxStalenessNanos) {
+    this.maxStalenessNanos = maxStalenessNanos;
+  }
+
+  /**
+   * Returns whether the series was last written with the same value less than the staleness
+   * window before {@code epochNanos}.
+   */
+  synchronized boolean isUnchanged(long fingerprint, long valueHash, long epochNanos) {
+    return lastWritten.containsKey(fingerprint)
+        && lastValues.get(fingerprint, 0) == valueHash
+        && epochNanos - lastWritten.get(fingerprint, 0) < maxStalenessNanos;
+  }
+
+  /**
+   * Records that the series was written with the given value at {@code epochNanos}, unless a later
+   * write was already recorded.
+   */
+  synchronized void recordWrite(long fingerprint, long valueHash, long epochNanos) {
+    if (lastWritten.get(fingerprint, epochNanos) > epochNanos) {
+      return;
+    }
+    lastValues.put(fingerprint, valueHash);
+    lastWritten.put(fingerprint, epochNanos);
+    latestWrite = Math.max(latestWrite, epochNanos);
+  }
+
+  /** Forgets series that would be written again anyway, if the tables have grown enough. */
+  synchronized void prune() {
+    if (lastWritten.size() < Math.max(INITIAL_CAPACITY, sizeAfterPrune * 2)) {
+      return;
+    }
+    long cutoff = latestWrite - maxStalenessNanos;
+    lastWritten.removeIf(
+        (fingerprint, written) -> {
+          if (written > cutoff) {
+            return false;
+          }
+          lastValues.remove(fingerprint);
+          return true;
+        });
+    sizeAfterPrune = lastWritten.size();
+  }
+
+  synchronized int size() {
+    return lastWritten.size();
+  }
+
+  /** Hashes the start time and value of a point. */
+  static long valueHash(PointData point) {
+    long hash = mix(OFFSET_BASIS, point.getStartEpochNanos());
+    if (point instanceof LongPointData) {
+      return mix(hash, ((LongPointData) point).getValue());
+    }
+    if (point instanceof DoublePointData) {
+      return mix(hash, Double.doubleToLongBits(((DoublePointData) point).getValue()));
+    }
+    if (point instanceof HistogramPointData) {
+      HistogramPointData histogram = (HistogramPointData) point;
+      hash = mix(hash, Double.doubleToLongBits(histogram.getSum()));
+      for (long count : histogram.getCounts()) {
+        hash = mix(hash, count);
+      }
+      return hash;
+    }
+    if (point instanceof ExponentialHistogramPointData) {
+      ExponentialHistogramPointData histogram = (ExponentialHistogramPointData) point;
+      hash = mix(hash, Double.doubleToLongBits(histogram.getSum()));
+      hash = mix(hash, histogram.getCount());
+      return mix(hash, histogram.getZeroCount());
+    }
+    // Unknown point types never compare as unchanged.
+    return mix(hash, point.getEpochNanos());
+  }
+}
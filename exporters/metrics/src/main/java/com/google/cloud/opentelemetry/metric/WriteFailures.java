@@ -0,0 +1,151 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.monitoring.v3.CreateTimeSeriesSummary;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.Any;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.Status;
+import io.grpc.protobuf.StatusProto;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Classifies failed CreateTimeSeries requests.
+ *
+ * <p>A request fails as a whole with a gRPC status, or partially: Cloud Monitoring then writes the
+ * valid series, attaches a {@link CreateTimeSeriesSummary} to the error, and names the rejected
+ * series by their index in the request, as in {@code "...: timeSeries[0-2,5]"}.
+ */
+final class WriteFailures {
+
+  // Codes that indicate a transient condition rather than a problem with the request itself.
+  private static final Set<Status.Code> RETRYABLE_CODES =
+      EnumSet.of(
+          Status.Code.UNAVAILABLE,
+          Status.Code.DEADLINE_EXCEEDED,
+          Status.Code.RESOURCE_EXHAUSTED,
+          Status.Code.ABORTED,
+          Status.Code.INTERNAL);
+
+  private static final Pattern REJECTED_SERIES = Pattern.compile("timeSeries\\[([0-9,\\-]+)]");
+
+  private WriteFailures() {}
+
+  /** Returns whether a request that failed as a whole with this error may succeed if re-sent. */
+  static boolean isRetryable(Throwable error) {
+    return RETRYABLE_CODES.contains(codeOf(error));
+  }
+
+  /**
+   * Returns which series of a request of {@code size} series should be re-sent after it failed
+   * with {@code error}, or null if nothing should be re-sent.
+   *
+   * <p>Series accepted by a partially failed request are never selected. If the error does not say
+   * which series were rejected, the whole request is selected only if none of it was written. The
+   * error message does not say which series failed with which code, so nothing is re-sent unless
+   * every error in the summary is retryable.
+   */
+  @Nullable
+  static BitSet seriesToRetry(Throwable error, int size) {
+    com.google.rpc.Status status = StatusProto.fromThrowable(error);
+    CreateTimeSeriesSummary summary = status == null ? null : summaryOf(status);
+    if (summary == null || summary.getErrorsCount() == 0) {
+      return wholeRequestIf(isRetryable(error), size);
+    }
+    for (CreateTimeSeriesSummary.Error summaryError : summary.getErrorsList()) {
+      Status.Code code = Status.fromCodeValue(summaryError.getStatus().getCode()).getCode();
+      if (!RETRYABLE_CODES.contains(code)) {
+        return null;
+      }
+    }
+    BitSet rejected = rejectedSeries(status.getMessage(), size);
+    if (rejected != null) {
+      return rejected;
+    }
+    return wholeRequestIf(summary.getSuccessPointCount() == 0, size);
+  }
+
+  /** Parses the indices of rejected series from an error message, or returns null if none. */
+  @Nullable
+  static BitSet rejectedSeries(String message, int size) {
+    BitSet rejected = new BitSet(size);
+    Matcher matcher = REJECTED_SERIES.matcher(message);
+    while (matcher.find()) {
+      for (String range : matcher.group(1).split(",")) {
+        int dash = range.indexOf('-');
+        try {
+          int first = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+          int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1));
+          if (first >= 0 && first <= last && last < size) {
+            rejected.set(first, last + 1);
+          }
+        } catch (NumberFormatException e) {
+          // Not an index; ignore it.
+        }
+      }
+    }
+    return rejected.isEmpty() ? null : rejected;
+  }
+
+  /** Returns the series at the indices set in {@code selected}, in order. */
+  static List<TimeSeries> select(List<TimeSeries> series, BitSet selected) {
+    List<TimeSeries> result = new ArrayList<>(selected.cardinality());
+    for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+      result.add(series.get(i));
+    }
+    return result;
+  }
+
+  private static Status.Code codeOf(Throwable error) {
+    if (error instanceof ApiException) {
+      return Status.Code.valueOf(((ApiException) error).getStatusCode().getCode().name());
+    }
+    return Status.fromThrowable(error).getCode();
+  }
+
+  @Nullable
+  private static CreateTimeSeriesSummary summaryOf(com.google.rpc.Status status) {
+    for (Any detail : status.getDetailsList()) {
+      if (detail.is(CreateTimeSeriesSummary.class)) {
+        try {
+          return detail.unpack(CreateTimeSeriesSummary.class);
+        } catch (InvalidProtocolBufferException e) {
+          return null;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private static BitSet wholeRequestIf(boolean condition, int size) {
+    if (!condition) {
+      return null;
+    }
+    BitSet all = new BitSet(size);
+    all.set(0, size);
+    return all;
+  }
+}
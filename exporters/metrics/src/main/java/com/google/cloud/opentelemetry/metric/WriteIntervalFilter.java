@@ -0,0 +1,70 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+/**
+ * Enforces a minimum interval between points written to the same time series.
+ *
+ * <p>The time of the last point written for each series is kept in a {@link LongLongHashMap}
+ * keyed by {@link SeriesFingerprint}, so tracking a series costs no per-series objects. Series
+ * whose last write no longer blocks anything are pruned once the table has doubled since the
+ * previous prune.
+ */
+final class WriteIntervalFilter {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final long minIntervalNanos;
+  // Guarded by this.
+  private final LongLongHashMap lastWritten = new LongLongHashMap(INITIAL_CAPACITY);
+  // Guarded by this.
+  private long latestWrite = Long.MIN_VALUE;
+  // Guarded by this.
+  private int sizeAfterPrune;
+
+  WriteIntervalFilter(long minIntervalNanos) {
+    this.minIntervalNanos = minIntervalNanos;
+  }
+
+  /**
+   * Returns whether at least the minimum interval has passed between the last recorded write of the
+   * series and {@code epochNanos}.
+   */
+  synchronized boolean isDue(long fingerprint, long epochNanos) {
+    return !lastWritten.containsKey(fingerprint)
+        || epochNanos - lastWritten.get(fingerprint, 0) >= minIntervalNanos;
+  }
+
+  /** Records that a point of the series at {@code epochNanos} was written. */
+  synchronized void recordWrite(long fingerprint, long epochNanos) {
+    lastWritten.put(fingerprint, Math.max(lastWritten.get(fingerprint, epochNanos), epochNanos));
+    latestWrite = Math.max(latestWrite, epochNanos);
+  }
+
+  /** Forgets series that could be written again anyway, if the table has grown enough. */
+  synchronized void prune() {
+    if (lastWritten.size() < Math.max(INITIAL_CAPACITY, sizeAfterPrune * 2)) {
+      return;
+    }
+    long cutoff = latestWrite - minIntervalNanos;
+    lastWritten.removeIf((fingerprint, written) -> written <= cutoff);
+    sizeAfterPrune = lastWritten.size();
+  }
+
+  synchronized int size() {
+    return lastWritten.size();
+  }
+}
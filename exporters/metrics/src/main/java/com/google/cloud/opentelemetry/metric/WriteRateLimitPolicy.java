@@ -0,0 +1,30 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+/** What to do with a batch of time series when the write rate limit has no tokens left for it. */
+public enum WriteRateLimitPolicy {
+  /**
+   * Wait until the batch fits under the limit, as long as the wait does not exceed {@link
+   * MetricConfiguration#getWriteRateLimitMaxDelay()}; batches that would wait longer are shed.
+   */
+  DELAY,
+  /**
+   * Drop the batch right away, or spool it to be re-sent by a later export when a spool is
+   * configured.
+   */
+  SHED
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps time series writes under a rate of series per second and of requests per second.
+ *
+ * <p>Each rate is a token bucket that holds up to one second's worth of tokens, so bursts up to
+ * that size go through at once. A batch takes one request token and one series token per series.
+ * Buckets may go into debt: a batch that finds too few tokens is told how long to wait until they
+ * will have refilled, and later batches queue behind it. A batch whose wait would exceed the
+ * maximum delay takes no tokens and is shed instead; shed batches and series are counted.
+ */
+final class WriteRateLimiter {
+
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Nullable private final TokenBucket series;
+  @Nullable private final TokenBucket requests;
+  private final long maxDelayNanos;
+  private final LongAdder shedBatches = new LongAdder();
+  private final LongAdder shedSeries = new LongAdder();
+
+  /**
+   * Creates a limiter. A rate of zero is not limited.
+   *
+   * @param seriesPerSecond the maximum rate of time series written.
+   * @param requestsPerSecond the maximum rate of write requests.
+   * @param maxDelayNanos the longest a batch may wait, zero to shed every batch that must wait.
+   * @param nowNanos the current {@link System#nanoTime()}.
+   */
+  WriteRateLimiter(
+      double seriesPerSecond, double requestsPerSecond, long maxDelayNanos, long nowNanos) {
+    this.series = seriesPerSecond > 0 ? new TokenBucket(seriesPerSecond, nowNanos) : null;
+    this.requests = requestsPerSecond > 0 ? new TokenBucket(requestsPerSecond, nowNanos) : null;
+    this.maxDelayNanos = maxDelayNanos;
+  }
+
+  /**
+   * Takes the tokens for a batch of {@code seriesCount} series.
+   *
+   * @return the nanoseconds to wait before sending the batch, or -1 if it must be shed.
+   */
+  synchronized long reserve(int seriesCount, long nowNanos) {
+    long wait = 0;
+    if (series != null) {
+      wait = Math.max(wait, series.waitFor(seriesCount, nowNanos));
+    }
+    if (requests != null) {
+      wait = Math.max(wait, requests.waitFor(1, nowNanos));
+    }
+    if (wait > maxDelayNanos) {
+      shedBatches.increment();
+      shedSeries.add(seriesCount);
+      return -1;
+    }
+    if (series != null) {
+      series.take(seriesCount);
+    }
+    if (requests != null) {
+      requests.take(1);
+    }
+    return wait;
+  }
+
+  long getShedBatches() {
+    return shedBatches.sum();
+  }
+
+  long getShedSeries() {
+    return shedSeries.sum();
+  }
+
+  private static final class TokenBucket {
+    private final double nanosPerToken;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(double tokensPerSecond, long nowNanos) {
+      this.nanosPerToken = NANOS_PER_SECOND / tokensPerSecond;
+      this.capacity = tokensPerSecond;
+      this.tokens = capacity;
+      this.lastRefill = nowNanos;
+    }
+
+    // Refills the bucket and returns how long until it holds the given number of tokens. A full
+    // bucket lets a batch larger than its capacity through, so no batch waits forever.
+    long waitFor(double permits, long nowNanos) {
+      if (nowNanos > lastRefill) {
+        tokens = Math.min(capacity, tokens + (nowNanos - lastRefill) / nanosPerToken);
+        lastRefill = nowNanos;
+      }
+      double needed = Math.min(permits, capacity);
+      return tokens >= needed ? 0 : (long) Math.ceil((needed - tokens) * nanosPerToken);
+    }
+
+    void take(double permits) {
+      tokens -= permits;
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.core.SettableApiFuture;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BoundedRequestDispatcherTest {
+
+  @Test
+  public void testQueuesRequestsOverLimit() {
+    BoundedRequestDispatcher dispatcher = new BoundedRequestDispatcher(1);
+    SettableApiFuture<Object> first = SettableApiFuture.create();
+    SettableApiFuture<Object> second = SettableApiFuture.create();
+    AtomicInteger started = new AtomicInteger();
+
+    CompletableResultCode firstResult =
+        dispatcher.dispatch(
+            () -> {
+              started.incrementAndGet();
+              return first;
+            });
+    CompletableResultCode secondResult =
+        dispatcher.dispatch(
+            () -> {
+              started.incrementAndGet();
+              return second;
+            });
+    assertEquals("Only one request may be in flight", 1, started.get());
+
+    first.set("done");
+    assertTrue(firstResult.isSuccess());
+    assertEquals("Queued request starts once the first completes", 2, started.get());
+    assertFalse(secondResult.isDone());
+    assertFalse(dispatcher.flush().isDone());
+
+    second.setException(new RuntimeException("Failed"));
+    assertTrue(secondResult.isDone());
+    assertFalse(secondResult.isSuccess());
+    assertTrue(dispatcher.flush().isDone());
+  }
+
+  @Test
+  public void testRequestThatThrowsFails() {
+    BoundedRequestDispatcher dispatcher = new BoundedRequestDispatcher(1);
+    CompletableResultCode result =
+        dispatcher.dispatch(
+            () -> {
+              throw new IllegalStateException("Failed");
+            });
+    assertTrue(result.isDone());
+    assertFalse(result.isSuccess());
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.google.api.Distribution.BucketOptions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BucketOptionsCacheTest {
+
+  @Test
+  public void testSharesOptionsForEqualLayouts() {
+    BucketOptionsCache cache = new BucketOptionsCache();
+    List<Double> boundaries = Arrays.asList(1.0, 5.0, 10.0);
+
+    BucketOptions options = cache.explicit(boundaries);
+
+    assertEquals(boundaries, options.getExplicitBuckets().getBoundsList());
+    assertSame(options, cache.explicit(boundaries));
+    assertSame(options, cache.explicit(new ArrayList<>(boundaries)));
+    assertNotSame(options, cache.explicit(Arrays.asList(1.0, 5.0)));
+  }
+
+  @Test
+  public void testMutatingCallerListDoesNotCorruptLayouts() {
+    BucketOptionsCache cache = new BucketOptionsCache();
+    List<Double> boundaries = new ArrayList<>(Arrays.asList(1.0, 2.0));
+    BucketOptions options = cache.explicit(boundaries);
+
+    boundaries.set(1, 3.0);
+
+    assertSame(options, cache.explicit(Arrays.asList(1.0, 2.0)));
+    assertEquals(Arrays.asList(1.0, 2.0), options.getExplicitBuckets().getBoundsList());
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.FakeData.aGceResource;
+import static com.google.cloud.opentelemetry.metric.FakeData.anInstrumentationLibraryInfo;
+import static io.opentelemetry.api.common.AttributeKey.stringKey;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableDoubleExemplarData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableGaugeData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableHistogramData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableHistogramPointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableLongPointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableMetricData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableSumData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CardinalityLimiterTest {
+
+  private static final String PROJECT = "project";
+  private static final long START = TimeUnit.SECONDS.toNanos(1000);
+
+  @Test
+  public void testKeepsMetricsWithinLimit() {
+    MetricData metric = aLongSum(START, "a", "b");
+
+    assertSame(metric, new CardinalityLimiter(2).limit(PROJECT, metric));
+  }
+
+  @Test
+  public void testFoldsSeriesOverLimitIntoOverflowSeries() {
+    CardinalityLimiter limiter = new CardinalityLimiter(2);
+
+    MetricData limited = limiter.limit(PROJECT, aLongSum(START, "a", "b", "c", "d"));
+
+    List<LongPointData> points = new ArrayList<>(limited.getLongSumData().getPoints());
+    assertEquals(3, points.size());
+    assertEquals(Attributes.of(stringKey("key"), "a"), points.get(0).getAttributes());
+    assertEquals(Attributes.of(stringKey("key"), "b"), points.get(1).getAttributes());
+    assertEquals(CardinalityLimiter.OVERFLOW_ATTRIBUTES, points.get(2).getAttributes());
+    assertEquals(2 * START, points.get(2).getValue());
+    assertEquals(2, limiter.getFoldedPoints());
+  }
+
+  @Test
+  public void testAdmittedSeriesStayAdmitted() {
+    CardinalityLimiter limiter = new CardinalityLimiter(1);
+    limiter.limit(PROJECT, aLongSum(START, "a"));
+
+    MetricData limited = limiter.limit(PROJECT, aLongSum(START + 1, "b", "a"));
+
+    List<LongPointData> points = new ArrayList<>(limited.getLongSumData().getPoints());
+    assertEquals(CardinalityLimiter.OVERFLOW_ATTRIBUTES, points.get(0).getAttributes());
+    assertEquals(Attributes.of(stringKey("key"), "a"), points.get(1).getAttributes());
+  }
+
+  @Test
+  public void testLimitsEachProjectSeparately() {
+    CardinalityLimiter limiter = new CardinalityLimiter(1);
+    limiter.limit(PROJECT, aLongSum(START, "a"));
+
+    MetricData metric = aLongSum(START, "b");
+
+    assertSame(metric, limiter.limit("other-project", metric));
+    assertEquals(0, limiter.getFoldedPoints());
+  }
+
+  @Test
+  public void testRestartsCumulativeOverflowWhenItsSeriesChange() {
+    CardinalityLimiter limiter = new CardinalityLimiter(1);
+    long second = START + TimeUnit.SECONDS.toNanos(10);
+    long third = START + TimeUnit.SECONDS.toNanos(20);
+
+    LongPointData first = overflowOf(limiter.limit(PROJECT, aLongSum(START, "a", "b", "c")));
+    // Series "c" left the overflow series, so its total dropped and it must restart.
+    LongPointData restarted = overflowOf(limiter.limit(PROJECT, aLongSum(second, "a", "b")));
+    LongPointData continued = overflowOf(limiter.limit(PROJECT, aLongSum(third, "a", "b")));
+
+    assertEquals(0, first.getStartEpochNanos());
+    assertEquals(START + TimeUnit.MILLISECONDS.toNanos(1), restarted.getStartEpochNanos());
+    assertEquals(restarted.getStartEpochNanos(), continued.getStartEpochNanos());
+  }
+
+  @Test
+  public void testForgetsIdleSeries() {
+    CardinalityLimiter limiter = new CardinalityLimiter(1);
+    limiter.limit(PROJECT, aLongSum(START, "a"));
+
+    MetricData metric = aLongSum(START + TimeUnit.HOURS.toNanos(2), "b");
+
+    assertSame(metric, limiter.limit(PROJECT, metric));
+    assertEquals(0, limiter.getFoldedPoints());
+  }
+
+  @Test
+  public void testGaugeOverflowKeepsLatestValue() {
+    MetricData gauge =
+        ImmutableMetricData.createLongGauge(
+            aGceResource,
+            anInstrumentationLibraryInfo,
+            "gauge",
+            "description",
+            "1",
+            ImmutableGaugeData.create(
+                Arrays.asList(
+                    aLongPoint(START, "a"),
+                    aLongPoint(START + 2, "b"),
+                    aLongPoint(START + 1, "c"))));
+
+    MetricData limited = new CardinalityLimiter(1).limit(PROJECT, gauge);
+
+    List<LongPointData> points = new ArrayList<>(limited.getLongGaugeData().getPoints());
+    assertEquals(2, points.size());
+    assertEquals(START + 2, points.get(1).getValue());
+  }
+
+  @Test
+  public void testHistogramOverflowAddsBuckets() {
+    MetricData histogram =
+        ImmutableMetricData.createDoubleHistogram(
+            aGceResource,
+            anInstrumentationLibraryInfo,
+            "histogram",
+            "description",
+            "ms",
+            ImmutableHistogramData.create(
+                AggregationTemporality.CUMULATIVE,
+                Arrays.asList(
+                    aHistogramPoint("a", 1d, 1L, 0L),
+                    aHistogramPoint("b", 2d, 0L, 1L),
+                    aHistogramPoint("c", 3d, 1L, 1L))));
+
+    MetricData limited = new CardinalityLimiter(1).limit(PROJECT, histogram);
+
+    List<HistogramPointData> points = new ArrayList<>(limited.getHistogramData().getPoints());
+    assertEquals(2, points.size());
+    HistogramPointData overflow = points.get(1);
+    assertEquals(CardinalityLimiter.OVERFLOW_ATTRIBUTES, overflow.getAttributes());
+    assertEquals(5d, overflow.getSum(), 0);
+    assertEquals(Arrays.asList(1L, 2L), overflow.getCounts());
+    assertEquals(2d, overflow.getMin(), 0);
+    assertEquals(3d, overflow.getMax(), 0);
+    // Both exemplars fall into the second bucket, which keeps the most recent one.
+    assertEquals(1, overflow.getExemplars().size());
+    assertEquals(3d, overflow.getExemplars().get(0).getValue(), 0);
+  }
+
+  private static MetricData aLongSum(long epochNanos, String... keys) {
+    List<LongPointData> points = new ArrayList<>();
+    for (String key : keys) {
+      points.add(aLongPoint(epochNanos, key));
+    }
+    return ImmutableMetricData.createLongSum(
+        aGceResource,
+        anInstrumentationLibraryInfo,
+        "sum",
+        "description",
+        "1",
+        ImmutableSumData.create(true, AggregationTemporality.CUMULATIVE, points));
+  }
+
+  private static LongPointData overflowOf(MetricData metric) {
+    for (LongPointData point : metric.getLongSumData().getPoints()) {
+      if (point.getAttributes().equals(CardinalityLimiter.OVERFLOW_ATTRIBUTES)) {
+        return point;
+      }
+    }
+    throw new AssertionError("No overflow series in " + metric);
+  }
+
+  private static LongPointData aLongPoint(long epochNanos, String key) {
+    return ImmutableLongPointData.create(
+        0, epochNanos, Attributes.of(stringKey("key"), key), epochNanos);
+  }
+
+  private static HistogramPointData aHistogramPoint(String key, double value, long... counts) {
+    List<Long> countList = new ArrayList<>();
+    for (long count : counts) {
+      countList.add(count);
+    }
+    return ImmutableHistogramPointData.create(
+        0,
+        START,
+        Attributes.of(stringKey("key"), key),
+        value,
+        value,
+        value,
+        Collections.singletonList(1.5),
+        countList,
+        Collections.singletonList(
+            ImmutableDoubleExemplarData.create(
+                Attributes.empty(), (long) value, SpanContext.getInvalid(), value)));
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.FakeData.aGceResource;
+import static com.google.cloud.opentelemetry.metric.FakeData.aMetricData;
+import static com.google.cloud.opentelemetry.metric.FakeData.anInstrumentationLibraryInfo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableHistogramData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableHistogramPointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableLongPointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableMetricData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableSumData;
+import io.opentelemetry.sdk.metrics.internal.data.exponentialhistogram.ExponentialHistogramBuckets;
+import io.opentelemetry.sdk.metrics.internal.data.exponentialhistogram.ExponentialHistogramData;
+import io.opentelemetry.sdk.metrics.internal.data.exponentialhistogram.ExponentialHistogramPointData;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DeltaAccumulatorTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+  private static final Attributes ATTRIBUTES = Attributes.builder().put("key", "value").build();
+
+  private static MetricData aDeltaCounter(long start, long end, long value) {
+    return ImmutableMetricData.createLongSum(
+        aGceResource,
+        anInstrumentationLibraryInfo,
+        "counter",
+        "description",
+        "1",
+        ImmutableSumData.create(
+            true,
+            AggregationTemporality.DELTA,
+            ImmutableList.of(ImmutableLongPointData.create(start, end, ATTRIBUTES, value))));
+  }
+
+  private static MetricData aDeltaHistogram(
+      long start, long end, List<Double> boundaries, List<Long> counts, double min, double max) {
+    long count = counts.stream().mapToLong(Long::longValue).sum();
+    return ImmutableMetricData.createDoubleHistogram(
+        aGceResource,
+        anInstrumentationLibraryInfo,
+        "histogram",
+        "description",
+        "ms",
+        ImmutableHistogramData.create(
+            AggregationTemporality.DELTA,
+            ImmutableList.of(
+                ImmutableHistogramPointData.create(
+                    start,
+                    end,
+                    ATTRIBUTES,
+                    count * 2d,
+                    min,
+                    max,
+                    boundaries,
+                    counts,
+                    Collections.emptyList()))));
+  }
+
+  private static MetricData aDeltaExponentialHistogram(
+      long start, long end, int scale, long zeroCount, int offset, List<Long> counts) {
+    ExponentialHistogramBuckets positive = mock(ExponentialHistogramBuckets.class);
+    when(positive.getOffset()).thenReturn(offset);
+    when(positive.getBucketCounts()).thenReturn(counts);
+    ExponentialHistogramBuckets negative = mock(ExponentialHistogramBuckets.class);
+    when(negative.getBucketCounts()).thenReturn(Collections.emptyList());
+    ExponentialHistogramPointData point = mock(ExponentialHistogramPointData.class);
+    when(point.getStartEpochNanos()).thenReturn(start);
+    when(point.getEpochNanos()).thenReturn(end);
+    when(point.getAttributes()).thenReturn(ATTRIBUTES);
+    when(point.getScale()).thenReturn(scale);
+    when(point.getSum()).thenReturn(10d);
+    when(point.getZeroCount()).thenReturn(zeroCount);
+    when(point.getPositiveBuckets()).thenReturn(positive);
+    when(point.getNegativeBuckets()).thenReturn(negative);
+    when(point.getExemplars()).thenReturn(Collections.emptyList());
+    return ImmutableMetricData.createExponentialHistogram(
+        aGceResource,
+        anInstrumentationLibraryInfo,
+        "exponential",
+        "description",
+        "ms",
+        ExponentialHistogramData.create(AggregationTemporality.DELTA, ImmutableList.of(point)));
+  }
+
+  private static LongPointData onlyLongPoint(Collection<MetricData> metrics) {
+    MetricData metric = metrics.iterator().next();
+    assertEquals(
+        AggregationTemporality.CUMULATIVE, metric.getLongSumData().getAggregationTemporality());
+    return metric.getLongSumData().getPoints().iterator().next();
+  }
+
+  private static HistogramPointData onlyHistogramPoint(Collection<MetricData> metrics) {
+    MetricData metric = metrics.iterator().next();
+    assertEquals(
+        AggregationTemporality.CUMULATIVE, metric.getHistogramData().getAggregationTemporality());
+    return metric.getHistogramData().getPoints().iterator().next();
+  }
+
+  @Test
+  public void testCumulativeMetricsPassThrough() {
+    DeltaAccumulator accumulator = new DeltaAccumulator(TimeUnit.HOURS.toNanos(1));
+    Collection<MetricData> metrics = ImmutableList.of(aMetricData);
+
+    assertSame(metrics, accumulator.accumulate(metrics));
+    assertEquals(0, accumulator.size());
+  }
+
+  @Test
+  public void testFoldsDeltaSums() {
+    DeltaAccumulator accumulator = new DeltaAccumulator(TimeUnit.HOURS.toNanos(1));
+
+    LongPointData first =
+        onlyLongPoint(accumulator.accumulate(ImmutableList.of(aDeltaCounter(0, SECOND, 3))));
+    LongPointData second =
+        onlyLongPoint(
+            accumulator.accumulate(ImmutableList.of(aDeltaCounter(SECOND, 2 * SECOND, 4))));
+
+    assertEquals(3, first.getValue());
+    assertEquals(7, second.getValue());
+    assertEquals(0, second.getStartEpochNanos());
+    assertEquals(2 * SECOND, second.getEpochNanos());
+    assertEquals(1, accumulator.size());
+  }
+
+  @Test
+  public void testExportsSeriesWithoutDeltaEveryCycle() {
+    DeltaAccumulator accumulator = new DeltaAccumulator(TimeUnit.HOURS.toNanos(1));
+    Attributes otherAttributes = Attributes.builder().put("key", "other").build();
+    MetricData both =
+        ImmutableMetricData.createLongSum(
+            aGceResource,
+            anInstrumentationLibraryInfo,
+            "counter",
+            "description",
+            "1",
+            ImmutableSumData.create(
+                true,
+                AggregationTemporality.DELTA,
+                ImmutableList.of(
+                    ImmutableLongPointData.create(0, SECOND, ATTRIBUTES, 3),
+                    ImmutableLongPointData.create(0, SECOND, otherAttributes, 5))));
+    accumulator.accumulate(ImmutableList.of(both));
+
+    MetricData metric =
+        accumulator
+            .accumulate(ImmutableList.of(aDeltaCounter(SECOND, 2 * SECOND, 4)))
+            .iterator()
+            .next();
+
+    assertEquals(2, metric.getLongSumData().getPoints().size());
+    for (LongPointData point : metric.getLongSumData().getPoints()) {
+      assertEquals(0, point.getStartEpochNanos());
+      assertEquals(2 * SECOND, point.getEpochNanos());
+      assertEquals(ATTRIBUTES.equals(point.getAttributes()) ? 7 : 5, point.getValue());
+    }
+  }
+
+  @Test
+  public void testExportsAccumulatedMetricsMissingFromCycle() {
+    DeltaAccumulator accumulator = new DeltaAccumulator(TimeUnit.HOURS.toNanos(1));
+    accumulator.accumulate(ImmutableList.of(aDeltaCounter(0, SECOND, 3)));
+
+    Collection<MetricData> metrics =
+        accumulator.accumulate(
+            ImmutableList.of(
+                aDeltaHistogram(
+                    SECOND, 2 * SECOND, Arrays.asList(1.0), Arrays.asList(1L, 1L), 1, 1)));
+
+    assertEquals(2, metrics.size());
+    LongPointData counter =
+        metrics.stream()
+            .filter(metric -> metric.getName().equals("counter"))
+            .findFirst()
+            .get()
+            .getLongSumData()
+            .getPoints()
+            .iterator()
+            .next();
+    assertEquals(3, counter.getValue());
+    assertEquals(2 * SECOND, counter.getEpochNanos());
+  }
+
+  @Test
+  public void testFoldsDeltaHistograms() {
+    DeltaAccumulator accumulator = new DeltaAccumulator(TimeUnit.HOURS.toNanos(1));
+    List<Double> boundaries = Arrays.asList(1.0, 2.0);
+
+    accumulator.accumulate(
+        ImmutableList.of(aDeltaHistogram(0, SECOND, boundaries, Arrays.asList(1L, 0L, 2L), 1, 5)));
+    HistogramPointData point =
+        onlyHistogramPoint(
+            accumulator.accumulate(
+                ImmutableList.of(
+                    aDeltaHistogram(
+                        SECOND, 2 * SECOND, boundaries, Arrays.asList(0L, 4L, 1L), 0.5, 3))));
+
+    assertEquals(Arrays.asList(1L, 4L, 3L), point.getCounts());
+    assertEquals(8, point.getCount());
+    assertEquals(16d, point.getSum(), 0);
+    assertEquals(0.5, point.getMin(), 0);
+    assertEquals(5, point.getMax(), 0);
+    assertEquals(0, point.getStartEpochNanos());
+  }
+
+  @Test
+  public void testRestartsHistogramWhenBoundariesChange() {
+    DeltaAccumulator accumulator = new DeltaAccumulator(TimeUnit.HOURS.toNanos(1));
+
+    accumulator.accumulate(
+        ImmutableList.of(
+            aDeltaHistogram(0, SECOND, Arrays.asList(1.0), Arrays.asList(1L, 1L), 1, 1)));
+    HistogramPointData point =
+        onlyHistogramPoint(
+            accumulator.accumulate(
+                ImmutableList.of(
+                    aDeltaHistogram(
+                        SECOND, 2 * SECOND, Arrays.asList(5.0), Arrays.asList(2L, 0L), 1, 1))));
+
+    assertEquals(Arrays.asList(2L, 0L), point.getCounts());
+    assertEquals(SECOND, point.getStartEpochNanos());
+  }
+
+  @Test
+  public void testFoldsDeltaExponentialHistogramsAtTheLowerScale() {
+    DeltaAccumulator accumulator = new DeltaAccumulator(TimeUnit.HOURS.toNanos(1));
+
+    accumulator.accumulate(
+        ImmutableList.of(
+            aDeltaExponentialHistogram(0, SECOND, 1, 1, 2, Arrays.asList(3L, 0L, 4L))));
+    MetricData metric =
+        accumulator
+            .accumulate(
+                ImmutableList.of(
+                    aDeltaExponentialHistogram(SECOND, 2 * SECOND, 0, 2, 1, Arrays.asList(5L))))
+            .iterator()
+            .next();
+
+    ExponentialHistogramData data = metric.getExponentialHistogramData();
+    assertEquals(AggregationTemporality.CUMULATIVE, data.getAggregationTemporality());
+    ExponentialHistogramPointData point = data.getPoints().iterator().next();
+    // Buckets 2 and 3 at scale 1 merge into bucket 1 at scale 0, bucket 4 becomes bucket 2.
+    assertEquals(0, point.getScale());
+    assertEquals(1, point.getPositiveBuckets().getOffset());
+    assertEquals(Arrays.asList(8L, 4L), point.getPositiveBuckets().getBucketCounts());
+    assertEquals(0, point.getNegativeBuckets().getTotalCount());
+    assertEquals(3, point.getZeroCount());
+    assertEquals(20d, point.getSum(), 0);
+    assertEquals(0, point.getStartEpochNanos());
+  }
+
+  @Test
+  public void testDownscalesExponentialHistogramsToStayWithinTheBucketLimit() {
+    DeltaAccumulator accumulator = new DeltaAccumulator(TimeUnit.HOURS.toNanos(1));
+
+    accumulator.accumulate(
+        ImmutableList.of(aDeltaExponentialHistogram(0, SECOND, 3, 0, 0, Arrays.asList(1L))));
+    ExponentialHistogramPointData point =
+        accumulator
+            .accumulate(
+                ImmutableList.of(
+                    aDeltaExponentialHistogram(SECOND, 2 * SECOND, 3, 0, 200, Arrays.asList(1L))))
+            .iterator()
+            .next()
+            .getExponentialHistogramData()
+            .getPoints()
+            .iterator()
+            .next();
+
+    // Buckets 0 and 200 span 201 buckets at scale 3, but only 101 at scale 2.
+    List<Long> counts = point.getPositiveBuckets().getBucketCounts();
+    assertEquals(2, point.getScale());
+    assertEquals(0, point.getPositiveBuckets().getOffset());
+    assertEquals(101, counts.size());
+    assertEquals(1L, (long) counts.get(0));
+    assertEquals(1L, (long) counts.get(100));
+  }
+
+  @Test
+  public void testExpiresIdleSeries() {
+    DeltaAccumulator accumulator = new DeltaAccumulator(10 * SECOND);
+    accumulator.accumulate(ImmutableList.of(aDeltaCounter(0, SECOND, 3)));
+
+    // Another series keeps the clock moving past the first series' expiry.
+    MetricData other =
+        ImmutableMetricData.createLongSum(
+            aGceResource,
+            anInstrumentationLibraryInfo,
+            "other",
+            "description",
+            "1",
+            ImmutableSumData.create(
+                true,
+                AggregationTemporality.DELTA,
+                ImmutableList.of(
+                    ImmutableLongPointData.create(SECOND, 20 * SECOND, ATTRIBUTES, 1))));
+    accumulator.accumulate(ImmutableList.of(other));
+    assertEquals(1, accumulator.size());
+
+    LongPointData restarted =
+        onlyLongPoint(
+            accumulator.accumulate(ImmutableList.of(aDeltaCounter(20 * SECOND, 21 * SECOND, 4))));
+    assertEquals(4, restarted.getValue());
+    assertEquals(20 * SECOND, restarted.getStartEpochNanos());
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.FakeData.aHistogram;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import com.google.api.Distribution;
+import com.google.common.collect.ImmutableMap;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableHistogramPointData;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class HistogramCompactionTest {
+
+  private static final HistogramPointData aFineHistogramPoint =
+      ImmutableHistogramPointData.create(
+          0,
+          1,
+          Attributes.empty(),
+          100d,
+          0.5d,
+          50d,
+          Arrays.asList(1.0, 2.0, 5.0, 10.0),
+          Arrays.asList(1L, 2L, 3L, 4L, 5L),
+          Collections.emptyList());
+
+  private static final Map<String, List<Double>> aLayout =
+      ImmutableMap.of(aHistogram.getName(), Arrays.asList(2.0, 10.0));
+
+  @Test
+  public void testTrimDropsTrailingEmptyBuckets() {
+    Distribution.Builder distribution =
+        Distribution.newBuilder().addAllBucketCounts(Arrays.asList(1L, 0L, 2L, 0L, 0L));
+
+    new HistogramCompaction(true, Collections.emptyMap()).trim(distribution);
+
+    assertEquals(Arrays.asList(1L, 0L, 2L), distribution.getBucketCountsList());
+  }
+
+  @Test
+  public void testTrimDropsAllBucketsOfEmptyHistogram() {
+    Distribution.Builder distribution =
+        Distribution.newBuilder().addAllBucketCounts(Arrays.asList(0L, 0L));
+
+    new HistogramCompaction(true, Collections.emptyMap()).trim(distribution);
+
+    assertEquals(0, distribution.getBucketCountsCount());
+  }
+
+  @Test
+  public void testRebucketOntoSubsetOfBoundaries() {
+    HistogramPointData rebucketed =
+        new HistogramCompaction(true, aLayout).rebucket(aHistogram, aFineHistogramPoint);
+
+    assertEquals(Arrays.asList(2.0, 10.0), rebucketed.getBoundaries());
+    assertEquals(Arrays.asList(3L, 7L, 5L), rebucketed.getCounts());
+    assertEquals(aFineHistogramPoint.getSum(), rebucketed.getSum(), 0);
+    assertEquals(aFineHistogramPoint.getCount(), rebucketed.getCount());
+    assertEquals(aFineHistogramPoint.getMin(), rebucketed.getMin(), 0);
+    assertEquals(aFineHistogramPoint.getMax(), rebucketed.getMax(), 0);
+  }
+
+  @Test
+  public void testRebucketBeyondLastBoundaryGoesToOverflow() {
+    HistogramCompaction compaction =
+        new HistogramCompaction(true, ImmutableMap.of(aHistogram.getName(), Arrays.asList(1.0)));
+
+    HistogramPointData rebucketed = compaction.rebucket(aHistogram, aFineHistogramPoint);
+
+    assertEquals(Arrays.asList(1L, 14L), rebucketed.getCounts());
+  }
+
+  @Test
+  public void testDisabledLeavesHistogramsUnchanged() {
+    HistogramCompaction compaction = new HistogramCompaction(false, aLayout);
+    Distribution.Builder distribution =
+        Distribution.newBuilder().addAllBucketCounts(Arrays.asList(1L, 0L));
+
+    compaction.trim(distribution);
+
+    assertSame(aFineHistogramPoint, compaction.rebucket(aHistogram, aFineHistogramPoint));
+    assertEquals(Arrays.asList(1L, 0L), distribution.getBucketCountsList());
+  }
+
+  @Test
+  public void testRejectsLayoutsThatDoNotIncrease() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            new HistogramCompaction(
+                true, ImmutableMap.of(aHistogram.getName(), Arrays.asList(5.0, 5.0))));
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.FakeData.aGceResource;
+import static com.google.cloud.opentelemetry.metric.FakeData.anInstrumentationLibraryInfo;
+import static io.opentelemetry.api.common.AttributeKey.stringKey;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.DoublePointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableDoublePointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableGaugeData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableMetricData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableSumData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LabelFilterTest {
+
+  private static final Attributes aPodOnHostA =
+      Attributes.of(stringKey("host"), "a", stringKey("pod"), "1");
+  private static final Attributes anotherPodOnHostA =
+      Attributes.of(stringKey("host"), "a", stringKey("pod"), "2");
+  private static final Attributes aPodOnHostB =
+      Attributes.of(stringKey("host"), "b", stringKey("pod"), "3");
+
+  @Test
+  public void testAllowlistMergesSums() {
+    LabelFilter filter =
+        new LabelFilter(ImmutableMap.of("sum", ImmutableSet.of("host")), Collections.emptyMap());
+
+    MetricData filtered =
+        filter.apply(
+            aDoubleSum(
+                aPoint(0, 10, aPodOnHostA, 1),
+                aPoint(5, 20, anotherPodOnHostA, 2),
+                aPoint(0, 10, aPodOnHostB, 4)));
+
+    List<DoublePointData> points = new ArrayList<>(filtered.getDoubleSumData().getPoints());
+    assertEquals(2, points.size());
+    assertEquals(Attributes.of(stringKey("host"), "a"), points.get(0).getAttributes());
+    assertEquals(3, points.get(0).getValue(), 0);
+    assertEquals(0, points.get(0).getStartEpochNanos());
+    assertEquals(20, points.get(0).getEpochNanos());
+    assertEquals(Attributes.of(stringKey("host"), "b"), points.get(1).getAttributes());
+    assertEquals(4, points.get(1).getValue(), 0);
+  }
+
+  @Test
+  public void testDenylistMergesGaugesByLastValue() {
+    LabelFilter filter =
+        new LabelFilter(Collections.emptyMap(), ImmutableMap.of("gauge", ImmutableSet.of("pod")));
+    MetricData gauge =
+        ImmutableMetricData.createDoubleGauge(
+            aGceResource,
+            anInstrumentationLibraryInfo,
+            "gauge",
+            "description",
+            "1",
+            ImmutableGaugeData.create(
+                Arrays.asList(aPoint(0, 20, aPodOnHostA, 1), aPoint(0, 10, anotherPodOnHostA, 2))));
+
+    MetricData filtered = filter.apply(gauge);
+
+    List<DoublePointData> points = new ArrayList<>(filtered.getDoubleGaugeData().getPoints());
+    assertEquals(1, points.size());
+    assertEquals(Attributes.of(stringKey("host"), "a"), points.get(0).getAttributes());
+    assertEquals(1, points.get(0).getValue(), 0);
+  }
+
+  @Test
+  public void testLeavesOtherMetricsUnchanged() {
+    LabelFilter filter =
+        new LabelFilter(ImmutableMap.of("other", ImmutableSet.of("host")), Collections.emptyMap());
+    MetricData sum = aDoubleSum(aPoint(0, 10, aPodOnHostA, 1));
+
+    assertSame(sum, filter.apply(sum));
+  }
+
+  @Test
+  public void testKeepsAttributesWithoutDroppedKeys() {
+    assertSame(aPodOnHostA, LabelFilter.filter(aPodOnHostA, ImmutableSet.of("version"), false));
+  }
+
+  private static MetricData aDoubleSum(DoublePointData... points) {
+    return ImmutableMetricData.createDoubleSum(
+        aGceResource,
+        anInstrumentationLibraryInfo,
+        "sum",
+        "description",
+        "1",
+        ImmutableSumData.create(true, AggregationTemporality.CUMULATIVE, Arrays.asList(points)));
+  }
+
+  private static DoublePointData aPoint(
+      long startEpochNanos, long epochNanos, Attributes attributes, double value) {
+    return ImmutableDoublePointData.create(startEpochNanos, epochNanos, attributes, value);
+  }
+}
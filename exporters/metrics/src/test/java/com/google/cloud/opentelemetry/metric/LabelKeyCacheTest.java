@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static io.opentelemetry.api.common.AttributeKey.longKey;
+import static io.opentelemetry.api.common.AttributeKey.stringKey;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LabelKeyCacheTest {
+
+  @Test
+  public void testValidKeysAreReturnedAsIs() {
+    String key = "http_status_Code2";
+
+    assertSame(key, LabelKeyCache.sanitize(key));
+  }
+
+  @Test
+  public void testInvalidCharactersBecomeUnderscores() {
+    assertEquals("http_status_code", LabelKeyCache.sanitize("http.status-code"));
+    assertEquals("caf_", LabelKeyCache.sanitize("café"));
+  }
+
+  @Test
+  public void testKeysNotStartingWithLetterArePrefixed() {
+    assertEquals("key_1xx", LabelKeyCache.sanitize("1xx"));
+    assertEquals("key__private", LabelKeyCache.sanitize("_private"));
+    assertEquals("key_", LabelKeyCache.sanitize(""));
+  }
+
+  @Test
+  public void testLongKeysAreTruncated() {
+    String label = LabelKeyCache.sanitize(Strings.repeat("a", 150));
+
+    assertEquals(Strings.repeat("a", LabelKeyCache.MAX_LABEL_LENGTH), label);
+    assertEquals(
+        LabelKeyCache.MAX_LABEL_LENGTH,
+        LabelKeyCache.sanitize("." + Strings.repeat("a", 150)).length());
+  }
+
+  @Test
+  public void testLabelNamesAreCachedPerKey() {
+    LabelKeyCache cache = new LabelKeyCache(1);
+
+    String label = cache.labelName(stringKey("service.name"));
+
+    assertEquals("service_name", label);
+    assertSame(label, cache.labelName(stringKey("service.name")));
+    assertEquals("service_name", cache.labelName(longKey("service.name")));
+  }
+}
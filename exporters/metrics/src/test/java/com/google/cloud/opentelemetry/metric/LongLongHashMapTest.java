@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LongLongHashMapTest {
+
+  @Test
+  public void testPutGetAndReplace() {
+    LongLongHashMap map = new LongLongHashMap();
+    map.put(7, 1);
+    map.put(-7, 2);
+    map.put(7, 3);
+
+    assertEquals(2, map.size());
+    assertEquals(3, map.get(7, -1));
+    assertEquals(2, map.get(-7, -1));
+    assertEquals(-1, map.get(8, -1));
+    assertFalse(map.containsKey(8));
+  }
+
+  @Test
+  public void testGrowsAndKeepsAllEntries() {
+    LongLongHashMap map = new LongLongHashMap();
+    for (long key = 1; key <= 10_000; key++) {
+      map.put(key * 31, key);
+    }
+
+    assertEquals(10_000, map.size());
+    for (long key = 1; key <= 10_000; key++) {
+      assertEquals(key, map.get(key * 31, -1));
+    }
+  }
+
+  @Test
+  public void testRemoveKeepsCollidingKeysReachable() {
+    LongLongHashMap map = new LongLongHashMap();
+    for (long key = 1; key <= 100; key++) {
+      map.put(key, key);
+    }
+    for (long key = 1; key <= 100; key += 2) {
+      assertTrue(map.remove(key));
+    }
+
+    assertFalse(map.remove(1));
+    assertEquals(50, map.size());
+    for (long key = 1; key <= 100; key++) {
+      assertEquals(key % 2 == 0 ? key : -1, map.get(key, -1));
+    }
+  }
+
+  @Test
+  public void testRemoveIf() {
+    LongLongHashMap map = new LongLongHashMap();
+    for (long key = 1; key <= 1000; key++) {
+      map.put(key, key);
+    }
+    map.removeIf((key, value) -> value > 10);
+
+    assertEquals(10, map.size());
+    assertEquals(10, map.get(10, -1));
+    assertFalse(map.containsKey(11));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testZeroKeyIsRejected() {
+    new LongLongHashMap().put(0, 1);
+  }
+}
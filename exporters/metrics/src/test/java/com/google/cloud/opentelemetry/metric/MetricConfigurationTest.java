@@ -24,6 +24,7 @@ import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.ServiceOptions;
 import com.google.cloud.opentelemetry.metric.MetricConfiguration.Builder;
+import java.time.Duration;
 import java.util.Date;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -44,6 +45,8 @@ public class MetricConfigurationTest {
     assertNull(configuration.getCredentials());
     assertEquals(PROJECT_ID, configuration.getProjectId());
     assertNull(configuration.getMetricServiceStub());
+    assertEquals(0, configuration.getMaxInFlightRequests());
+    assertEquals(Duration.ZERO, configuration.getMinimumWriteInterval());
   }
 
   @Test
@@ -79,4 +82,18 @@ public class MetricConfigurationTest {
       assertEquals(defaultProjectId, configuration.getProjectId());
     }
   }
+
+  @Test
+  public void testConfigurationWithNegativeMaxInFlightRequestsFails() {
+    Builder builder = MetricConfiguration.builder().setProjectId(PROJECT_ID);
+    builder.setMaxInFlightRequests(-1);
+    assertThrows(IllegalArgumentException.class, builder::build);
+  }
+
+  @Test
+  public void testConfigurationWithNegativeMinimumWriteIntervalFails() {
+    Builder builder = MetricConfiguration.builder().setProjectId(PROJECT_ID);
+    builder.setMinimumWriteInterval(Duration.ofSeconds(-1));
+    assertThrows(IllegalArgumentException.class, builder::build);
+  }
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.FakeData.aLongPoint;
+import static com.google.cloud.opentelemetry.metric.FakeData.aMetricData;
+import static io.opentelemetry.api.common.AttributeKey.booleanKey;
+import static io.opentelemetry.api.common.AttributeKey.longKey;
+import static io.opentelemetry.api.common.AttributeKey.stringKey;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.api.MetricDescriptor;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableLongPointData;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MetricDescriptorCacheTest {
+
+  @Test
+  public void testReusesDescriptorForSameAttributeKeys() {
+    MetricDescriptorCache cache = new MetricDescriptorCache();
+    LongPointData otherValues =
+        ImmutableLongPointData.create(
+            aLongPoint.getStartEpochNanos(),
+            aLongPoint.getEpochNanos(),
+            Attributes.of(stringKey("label1"), "value2", booleanKey("label2"), true),
+            10L);
+
+    MetricDescriptor first = cache.forInstrument(aMetricData).get(aMetricData, aLongPoint);
+    assertEquals(MetricTranslator.mapMetricDescriptor(aMetricData, aLongPoint), first);
+    assertSame(first, cache.forInstrument(aMetricData).get(aMetricData, otherValues));
+  }
+
+  @Test
+  public void testDistinguishesAttributeKeyTypes() {
+    MetricDescriptorCache cache = new MetricDescriptorCache();
+    LongPointData longLabel =
+        ImmutableLongPointData.create(
+            aLongPoint.getStartEpochNanos(),
+            aLongPoint.getEpochNanos(),
+            Attributes.of(stringKey("label1"), "value1", longKey("label2"), 1L),
+            10L);
+
+    cache.forInstrument(aMetricData).get(aMetricData, aLongPoint);
+    MetricDescriptor descriptor = cache.forInstrument(aMetricData).get(aMetricData, longLabel);
+    assertEquals(MetricTranslator.mapMetricDescriptor(aMetricData, longLabel), descriptor);
+  }
+
+  @Test
+  public void testUsesConfiguredMetricTypePrefix() {
+    MetricDescriptorCache cache =
+        new MetricDescriptorCache(new MetricTypeCache("workload.googleapis.com/"));
+
+    MetricDescriptor descriptor = cache.forInstrument(aMetricData).get(aMetricData, aLongPoint);
+
+    assertEquals("workload.googleapis.com/" + aMetricData.getName(), descriptor.getType());
+  }
+}
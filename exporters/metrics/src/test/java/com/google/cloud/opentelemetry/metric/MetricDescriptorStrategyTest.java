@@ -16,11 +16,20 @@
 package com.google.cloud.opentelemetry.metric;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
 import com.google.api.MetricDescriptor;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.SettableApiFuture;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -105,4 +114,73 @@ public class MetricDescriptorStrategyTest {
         });
     assertEquals("Strategy should not send descriptors", false, wasExported.get());
   }
+
+  @Test
+  public void testSendOnceStrategyKeysByProject() {
+    MetricDescriptorStrategy strategy = new SendOnceDescriptorStrategy(false);
+    MetricDescriptor descriptor = MetricDescriptor.newBuilder().setType("custom/test").build();
+    List<String> exported = new ArrayList<>();
+
+    for (String projectId : Arrays.asList("first", "second", "first")) {
+      strategy.exportDescriptors(
+          projectId,
+          Collections.singleton(descriptor),
+          desc -> exported.add(projectId),
+          desc -> {
+            throw new AssertionError("Synchronous strategy created a descriptor asynchronously");
+          });
+    }
+
+    assertEquals(Arrays.asList("first", "second"), exported);
+  }
+
+  @Test
+  public void testSendOnceStrategyRetriesFailedDescriptors() {
+    MetricDescriptorStrategy strategy = new SendOnceDescriptorStrategy(false);
+    MetricDescriptor descriptor = MetricDescriptor.newBuilder().setType("custom/test").build();
+    AtomicInteger attempts = new AtomicInteger();
+    Consumer<MetricDescriptor> failing =
+        desc -> {
+          attempts.incrementAndGet();
+          throw new IllegalStateException("unavailable");
+        };
+
+    assertThrows(
+        IllegalStateException.class,
+        () -> strategy.exportDescriptors(Collections.singleton(descriptor), failing));
+    Consumer<MetricDescriptor> succeeding = desc -> attempts.incrementAndGet();
+    strategy.exportDescriptors(Collections.singleton(descriptor), succeeding);
+    strategy.exportDescriptors(Collections.singleton(descriptor), succeeding);
+
+    assertEquals(2, attempts.get());
+  }
+
+  @Test
+  public void testAsyncSendOnceStrategyDeduplicatesInFlightCreations() {
+    MetricDescriptorStrategy strategy = new SendOnceDescriptorStrategy(true);
+    MetricDescriptor descriptor = MetricDescriptor.newBuilder().setType("custom/test").build();
+    List<SettableApiFuture<MetricDescriptor>> started = new ArrayList<>();
+    Function<MetricDescriptor, ApiFuture<?>> exportAsync =
+        desc -> {
+          SettableApiFuture<MetricDescriptor> created = SettableApiFuture.create();
+          started.add(created);
+          return created;
+        };
+    Consumer<MetricDescriptor> export =
+        desc -> {
+          throw new AssertionError("Asynchronous strategy created a descriptor synchronously");
+        };
+
+    strategy.exportDescriptors("project", Collections.singleton(descriptor), export, exportAsync);
+    strategy.exportDescriptors("project", Collections.singleton(descriptor), export, exportAsync);
+    assertEquals("In-flight creation should not be repeated", 1, started.size());
+
+    started.get(0).setException(new IllegalStateException("unavailable"));
+    strategy.exportDescriptors("project", Collections.singleton(descriptor), export, exportAsync);
+    assertEquals("Failed creation should be retried", 2, started.size());
+
+    started.get(1).set(descriptor);
+    strategy.exportDescriptors("project", Collections.singleton(descriptor), export, exportAsync);
+    assertEquals("Created descriptor should not be sent again", 2, started.size());
+  }
 }
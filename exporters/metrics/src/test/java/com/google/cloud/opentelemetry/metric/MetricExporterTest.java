@@ -31,11 +31,13 @@ import static com.google.cloud.opentelemetry.metric.FakeData.anInstrumentationLi
 import static com.google.cloud.opentelemetry.metric.MetricTranslator.DESCRIPTOR_TYPE_URL;
 import static com.google.cloud.opentelemetry.metric.MetricTranslator.METRIC_DESCRIPTOR_TIME_UNIT;
 import static com.google.cloud.opentelemetry.metric.MetricTranslator.NANO_PER_SECOND;
+import static io.opentelemetry.api.common.AttributeKey.stringKey;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -50,9 +52,12 @@ import com.google.api.Metric;
 import com.google.api.MetricDescriptor;
 import com.google.api.MetricDescriptor.MetricKind;
 import com.google.api.MonitoredResource;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
 import com.google.common.collect.ImmutableList;
 import com.google.monitoring.v3.CreateMetricDescriptorRequest;
 import com.google.monitoring.v3.DroppedLabels;
+import com.google.monitoring.v3.ListMetricDescriptorsRequest;
 import com.google.monitoring.v3.Point;
 import com.google.monitoring.v3.ProjectName;
 import com.google.monitoring.v3.SpanContext;
@@ -60,17 +65,27 @@ import com.google.monitoring.v3.TimeInterval;
 import com.google.monitoring.v3.TimeSeries;
 import com.google.monitoring.v3.TypedValue;
 import com.google.protobuf.Any;
+import com.google.protobuf.Empty;
 import com.google.protobuf.Timestamp;
+import io.grpc.Status;
+import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
 import io.opentelemetry.sdk.metrics.data.MetricData;
 import io.opentelemetry.sdk.metrics.internal.data.ImmutableMetricData;
 import io.opentelemetry.sdk.metrics.internal.data.ImmutableSummaryData;
+import io.opentelemetry.sdk.resources.Resource;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.mockito.ArgumentCaptor;
@@ -81,6 +96,8 @@ import org.mockito.MockitoAnnotations;
 @RunWith(JUnit4.class)
 public class MetricExporterTest {
 
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
   @Mock private CloudMetricClientImpl mockClient;
 
   @Captor private ArgumentCaptor<ArrayList<TimeSeries>> timeSeriesArgCaptor;
@@ -321,4 +338,368 @@ public class MetricExporterTest {
 
     assertFalse(result.isSuccess());
   }
+
+  @Test
+  public void testExportWithAsyncDispatchCompletesWithBatches() {
+    SettableApiFuture<Empty> response = SettableApiFuture.create();
+    when(mockClient.createTimeSeriesAsync(any(), any())).thenReturn(response);
+    MetricExporter exporter =
+        MetricExporter.createWithClient(
+            mockClient,
+            MetricConfiguration.builder()
+                .setProjectId(aProjectId)
+                .setDescriptorStrategy(MetricDescriptorStrategy.NEVER_SEND)
+                .setMaxInFlightRequests(2)
+                .build());
+
+    CompletableResultCode result = exporter.export(ImmutableList.of(aMetricData));
+    verify(mockClient, times(0)).createTimeSeries(any(ProjectName.class), any());
+    verify(mockClient, times(1)).createTimeSeriesAsync(any(ProjectName.class), any());
+    assertFalse(result.isDone());
+    assertFalse(exporter.flush().isDone());
+
+    response.set(Empty.getDefaultInstance());
+    assertTrue(result.isSuccess());
+    assertTrue(exporter.flush().isSuccess());
+  }
+
+  @Test
+  public void testExportWithAsyncDispatchReportsFailedBatches() {
+    SettableApiFuture<Empty> response = SettableApiFuture.create();
+    when(mockClient.createTimeSeriesAsync(any(), any())).thenReturn(response);
+    MetricExporter exporter =
+        MetricExporter.createWithClient(
+            mockClient,
+            MetricConfiguration.builder()
+                .setProjectId(aProjectId)
+                .setDescriptorStrategy(MetricDescriptorStrategy.NEVER_SEND)
+                .setMaxInFlightRequests(2)
+                .build());
+
+    CompletableResultCode result = exporter.export(ImmutableList.of(aMetricData, aHistogram));
+    response.setException(new RuntimeException("Failed to write"));
+    assertTrue(result.isDone());
+    assertFalse(result.isSuccess());
+  }
+
+  @Test
+  public void testExportDropsPointsWrittenWithinMinimumInterval() {
+    MetricExporter exporter =
+        MetricExporter.createWithClient(
+            mockClient,
+            MetricConfiguration.builder()
+                .setProjectId(aProjectId)
+                .setDescriptorStrategy(MetricDescriptorStrategy.NEVER_SEND)
+                .setMinimumWriteInterval(Duration.ofSeconds(10))
+                .build());
+
+    assertTrue(exporter.export(ImmutableList.of(aMetricData)).isSuccess());
+    // The same point again is too soon after the first write, but that is not a failure.
+    assertTrue(exporter.export(ImmutableList.of(aMetricData)).isSuccess());
+
+    verify(mockClient, times(1)).createTimeSeries(any(ProjectName.class), any());
+  }
+
+  @Test
+  public void testExportWritesPointsAgainAfterFailedWrite() {
+    doThrow(WriteFailuresTest.aFailure(Status.Code.PERMISSION_DENIED))
+        .doNothing()
+        .when(mockClient)
+        .createTimeSeries(any(ProjectName.class), any());
+    MetricExporter exporter =
+        MetricExporter.createWithClient(
+            mockClient,
+            MetricConfiguration.builder()
+                .setProjectId(aProjectId)
+                .setDescriptorStrategy(MetricDescriptorStrategy.NEVER_SEND)
+                .setMinimumWriteInterval(Duration.ofSeconds(10))
+                .setUnchangedSeriesMaxStaleness(Duration.ofMinutes(5))
+                .build());
+
+    assertFalse(exporter.export(ImmutableList.of(aMetricData)).isSuccess());
+    // The failed write was not recorded, so the point is neither too soon nor unchanged.
+    assertTrue(exporter.export(ImmutableList.of(aMetricData)).isSuccess());
+    assertTrue(exporter.export(ImmutableList.of(aMetricData)).isSuccess());
+
+    verify(mockClient, times(2)).createTimeSeries(any(ProjectName.class), any());
+  }
+
+  @Test
+  public void testExportRecordsWritesAlongsideUnsupportedMetrics() {
+    MetricExporter exporter =
+        MetricExporter.createWithClient(
+            mockClient,
+            MetricConfiguration.builder()
+                .setProjectId(aProjectId)
+                .setDescriptorStrategy(MetricDescriptorStrategy.NEVER_SEND)
+                .setMinimumWriteInterval(Duration.ofSeconds(10))
+                .build());
+    MetricData summary =
+        ImmutableMetricData.createDoubleSummary(
+            aGceResource,
+            anInstrumentationLibraryInfo,
+            "Metric Name",
+            "description",
+            "ns",
+            ImmutableSummaryData.create(ImmutableList.of(aDoubleSummaryPoint)));
+
+    assertFalse(exporter.export(ImmutableList.of(aMetricData, summary)).isSuccess());
+    // The written point was recorded even though the export failed, so it is not due again.
+    exporter.export(ImmutableList.of(aMetricData));
+
+    verify(mockClient, times(1)).createTimeSeries(any(ProjectName.class), any());
+  }
+
+  @Test
+  public void testExportReportsFailedWritesWithoutThrowing() {
+    doThrow(WriteFailuresTest.aFailure(Status.Code.PERMISSION_DENIED))
+        .when(mockClient)
+        .createTimeSeries(any(ProjectName.class), any());
+    MetricExporter exporter =
+        MetricExporter.createWithClient(
+            aProjectId, mockClient, MetricDescriptorStrategy.NEVER_SEND);
+
+    CompletableResultCode result = exporter.export(ImmutableList.of(aMetricData, aHistogram));
+
+    assertFalse(result.isSuccess());
+    // A permanent failure is not retried.
+    verify(mockClient, times(1)).createTimeSeries(any(ProjectName.class), any());
+  }
+
+  @Test
+  public void testExportSpoolsBatchesDuringOutageAndReplaysThemFirst() throws IOException {
+    doThrow(WriteFailuresTest.aFailure(Status.Code.UNAVAILABLE))
+        .doNothing()
+        .when(mockClient)
+        .createTimeSeries(any(ProjectName.class), any());
+    MetricExporter exporter =
+        MetricExporter.createWithClient(
+            mockClient,
+            MetricConfiguration.builder()
+                .setProjectId(aProjectId)
+                .setDescriptorStrategy(MetricDescriptorStrategy.NEVER_SEND)
+                .setMaxWriteAttempts(1)
+                .setSpoolDirectory(folder.newFolder().toPath())
+                .build());
+
+    // The failed batch is kept on disk rather than lost.
+    assertTrue(exporter.export(ImmutableList.of(aMetricData)).isSuccess());
+    verify(mockClient, times(1)).createTimeSeries(any(ProjectName.class), any());
+
+    assertTrue(exporter.export(ImmutableList.of(aHistogram)).isSuccess());
+    verify(mockClient, times(3))
+        .createTimeSeries(projectNameArgCaptor.capture(), timeSeriesArgCaptor.capture());
+    // The spooled batch is re-sent before the new one.
+    List<? extends List<TimeSeries>> batches = timeSeriesArgCaptor.getAllValues();
+    assertEquals(
+        DESCRIPTOR_TYPE_URL + "opentelemetry/name", batches.get(1).get(0).getMetric().getType());
+    assertEquals(DESCRIPTOR_TYPE_URL + "histogram", batches.get(2).get(0).getMetric().getType());
+    assertEquals(
+        ImmutableList.of(ProjectName.of(aProjectId)),
+        projectNameArgCaptor.getAllValues().stream().distinct().collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testExportDropsSpooledBatchesRejectedPermanently() throws IOException {
+    doThrow(WriteFailuresTest.aFailure(Status.Code.UNAVAILABLE))
+        .doThrow(WriteFailuresTest.aFailure(Status.Code.INVALID_ARGUMENT))
+        .doNothing()
+        .when(mockClient)
+        .createTimeSeries(any(ProjectName.class), any());
+    MetricExporter exporter =
+        MetricExporter.createWithClient(
+            mockClient,
+            MetricConfiguration.builder()
+                .setProjectId(aProjectId)
+                .setDescriptorStrategy(MetricDescriptorStrategy.NEVER_SEND)
+                .setMaxWriteAttempts(1)
+                .setSpoolDirectory(folder.newFolder().toPath())
+                .build());
+
+    assertTrue(exporter.export(ImmutableList.of(aMetricData)).isSuccess());
+    // The replay is rejected, so the batch leaves the spool and the new one is sent directly.
+    assertTrue(exporter.export(ImmutableList.of(aHistogram)).isSuccess());
+    assertTrue(exporter.export(ImmutableList.of(aHistogram)).isSuccess());
+
+    verify(mockClient, times(4))
+        .createTimeSeries(projectNameArgCaptor.capture(), timeSeriesArgCaptor.capture());
+    List<? extends List<TimeSeries>> batches = timeSeriesArgCaptor.getAllValues();
+    assertEquals(
+        DESCRIPTOR_TYPE_URL + "opentelemetry/name", batches.get(1).get(0).getMetric().getType());
+    assertEquals(DESCRIPTOR_TYPE_URL + "histogram", batches.get(3).get(0).getMetric().getType());
+  }
+
+  @Test
+  public void testExportSpoolsBatchesShedByTheWriteRateLimit()
+      throws IOException, InterruptedException {
+    MetricExporter exporter =
+        MetricExporter.createWithClient(
+            mockClient,
+            MetricConfiguration.builder()
+                .setProjectId(aProjectId)
+                .setDescriptorStrategy(MetricDescriptorStrategy.NEVER_SEND)
+                .setMaxWriteRequestsPerSecond(1)
+                .setWriteRateLimitPolicy(WriteRateLimitPolicy.SHED)
+                .setSpoolDirectory(folder.newFolder().toPath())
+                .build());
+
+    assertTrue(exporter.export(ImmutableList.of(aMetricData)).isSuccess());
+    // No request token is left, so the batch is spooled rather than dropped.
+    assertTrue(exporter.export(ImmutableList.of(aHistogram)).isSuccess());
+    verify(mockClient, times(1)).createTimeSeries(any(ProjectName.class), any());
+    assertEquals(1, exporter.getRateLimitedBatches());
+
+    Thread.sleep(1100);
+    exporter.export(ImmutableList.of(aMetricData));
+
+    // The refilled token goes to the spooled batch, ahead of the new one.
+    verify(mockClient, times(2))
+        .createTimeSeries(projectNameArgCaptor.capture(), timeSeriesArgCaptor.capture());
+    assertEquals(
+        DESCRIPTOR_TYPE_URL + "histogram",
+        timeSeriesArgCaptor.getAllValues().get(1).get(0).getMetric().getType());
+  }
+
+  @Test
+  public void testDeltaTemporalityIsRequestedOnlyForCountersAndHistograms() {
+    MetricExporter cumulative =
+        MetricExporter.createWithClient(
+            aProjectId, mockClient, MetricDescriptorStrategy.NEVER_SEND);
+    MetricExporter delta =
+        MetricExporter.createWithClient(
+            mockClient,
+            MetricConfiguration.builder()
+                .setProjectId(aProjectId)
+                .setDeltaTemporality(true)
+                .build());
+
+    for (InstrumentType type : InstrumentType.values()) {
+      assertEquals(AggregationTemporality.CUMULATIVE, cumulative.getAggregationTemporality(type));
+    }
+    assertEquals(
+        AggregationTemporality.DELTA, delta.getAggregationTemporality(InstrumentType.COUNTER));
+    assertEquals(
+        AggregationTemporality.DELTA, delta.getAggregationTemporality(InstrumentType.HISTOGRAM));
+    assertEquals(
+        AggregationTemporality.CUMULATIVE,
+        delta.getAggregationTemporality(InstrumentType.UP_DOWN_COUNTER));
+  }
+
+  @Test
+  public void testPrewarmSkipsCreatingExistingDescriptors() {
+    ArgumentCaptor<ListMetricDescriptorsRequest> listRequest =
+        ArgumentCaptor.forClass(ListMetricDescriptorsRequest.class);
+    when(mockClient.listMetricDescriptors(listRequest.capture()))
+        .thenReturn(
+            ImmutableList.of(
+                MetricDescriptor.newBuilder()
+                    .setType(DESCRIPTOR_TYPE_URL + aMetricData.getName())
+                    .build()));
+    MetricExporter exporter =
+        MetricExporter.createWithClient(
+            mockClient,
+            MetricConfiguration.builder()
+                .setProjectId(aProjectId)
+                .setDescriptorStrategy(new SendOnceDescriptorStrategy(false))
+                .setPrewarmDescriptors(true)
+                .build());
+
+    assertTrue(exporter.export(ImmutableList.of(aMetricData, aHistogram)).isSuccess());
+
+    assertEquals("projects/" + aProjectId, listRequest.getValue().getName());
+    assertEquals(
+        "metric.type = starts_with(\"" + DESCRIPTOR_TYPE_URL + "\")",
+        listRequest.getValue().getFilter());
+    verify(mockClient, times(1)).createMetricDescriptor(metricDescriptorCaptor.capture());
+    assertEquals(
+        DESCRIPTOR_TYPE_URL + aHistogram.getName(),
+        metricDescriptorCaptor.getValue().getMetricDescriptor().getType());
+  }
+
+  @Test
+  public void testExportWritesSeriesWhileDescriptorCreationIsPending() {
+    SettableApiFuture<MetricDescriptor> first = SettableApiFuture.create();
+    SettableApiFuture<MetricDescriptor> second = SettableApiFuture.create();
+    when(mockClient.createMetricDescriptorAsync(any())).thenReturn(first, second);
+    MetricExporter exporter =
+        MetricExporter.createWithClient(
+            mockClient,
+            MetricConfiguration.builder()
+                .setProjectId(aProjectId)
+                .setDescriptorStrategy(new SendOnceDescriptorStrategy(true))
+                .setMaxConcurrentDescriptorCreations(1)
+                .setDescriptorCreationBudget(Duration.ofMillis(10))
+                .build());
+
+    assertTrue(exporter.export(ImmutableList.of(aMetricData, aHistogram)).isSuccess());
+
+    // Only one creation runs at a time, and series are written without waiting for it.
+    verify(mockClient, times(1)).createMetricDescriptorAsync(any());
+    verify(mockClient, times(1)).createTimeSeries(any(ProjectName.class), any());
+    first.set(MetricDescriptor.getDefaultInstance());
+    verify(mockClient, times(2)).createMetricDescriptorAsync(any());
+    verify(mockClient, times(0)).createMetricDescriptor(any());
+  }
+
+  @Test
+  public void testExportSharesDescriptorCreationBudgetAcrossProjects() {
+    when(mockClient.createMetricDescriptorAsync(any())).thenReturn(SettableApiFuture.create());
+    when(mockClient.createTimeSeriesAsync(any(), any()))
+        .thenReturn(ApiFutures.immediateFuture(Empty.getDefaultInstance()));
+    MetricExporter exporter =
+        MetricExporter.createWithClient(
+            mockClient,
+            MetricConfiguration.builder()
+                .setProjectId(aProjectId)
+                .setDescriptorStrategy(new SendOnceDescriptorStrategy(true))
+                .setProjectIdResourceAttribute("cloud.account.id")
+                .setDescriptorCreationBudget(Duration.ofMillis(500))
+                .build());
+    MetricData tenantHistogram =
+        ImmutableMetricData.createDoubleHistogram(
+            Resource.create(Attributes.of(stringKey("cloud.account.id"), "tenant-project")),
+            anInstrumentationLibraryInfo,
+            aHistogram.getName(),
+            aHistogram.getDescription(),
+            aHistogram.getUnit(),
+            aHistogram.getHistogramData());
+
+    long start = System.nanoTime();
+    exporter.export(ImmutableList.of(tenantHistogram, aMetricData));
+
+    // Neither creation ever completes, yet the export waits for one budget, not one per project.
+    assertTrue(System.nanoTime() - start < Duration.ofMillis(1000).toNanos());
+  }
+
+  @Test
+  public void testExportRoutesSeriesToProjectOfResource() {
+    when(mockClient.createTimeSeriesAsync(any(), any()))
+        .thenReturn(ApiFutures.immediateFuture(Empty.getDefaultInstance()));
+    MetricExporter exporter =
+        MetricExporter.createWithClient(
+            mockClient,
+            MetricConfiguration.builder()
+                .setProjectId(aProjectId)
+                .setDescriptorStrategy(MetricDescriptorStrategy.NEVER_SEND)
+                .setProjectIdResourceAttribute("cloud.account.id")
+                .build());
+    MetricData tenantMetric =
+        ImmutableMetricData.createLongSum(
+            Resource.create(Attributes.of(stringKey("cloud.account.id"), "tenant-project")),
+            anInstrumentationLibraryInfo,
+            aMetricData.getName(),
+            aMetricData.getDescription(),
+            aMetricData.getUnit(),
+            aMetricData.getLongSumData());
+
+    assertTrue(exporter.export(ImmutableList.of(tenantMetric, aMetricData)).isSuccess());
+
+    verify(mockClient, times(2))
+        .createTimeSeriesAsync(projectNameArgCaptor.capture(), timeSeriesArgCaptor.capture());
+    assertEquals(
+        ImmutableList.of(ProjectName.of("tenant-project"), ProjectName.of(aProjectId)),
+        projectNameArgCaptor.getAllValues());
+    assertEquals(1, timeSeriesArgCaptor.getAllValues().get(0).size());
+    assertEquals(1, timeSeriesArgCaptor.getAllValues().get(1).size());
+  }
 }
@@ -21,6 +21,7 @@ import static com.google.cloud.opentelemetry.metric.FakeData.aGceResource;
 import static com.google.cloud.opentelemetry.metric.FakeData.aHistogramPoint;
 import static com.google.cloud.opentelemetry.metric.FakeData.aLongPoint;
 import static com.google.cloud.opentelemetry.metric.FakeData.aMetricData;
+import static com.google.cloud.opentelemetry.metric.FakeData.aSpanContext;
 import static com.google.cloud.opentelemetry.metric.FakeData.anInstrumentationLibraryInfo;
 import static com.google.cloud.opentelemetry.metric.MetricTranslator.DESCRIPTOR_TYPE_URL;
 import static com.google.cloud.opentelemetry.metric.MetricTranslator.METRIC_DESCRIPTOR_TIME_UNIT;
@@ -29,6 +30,8 @@ import static io.opentelemetry.api.common.AttributeKey.longKey;
 import static io.opentelemetry.api.common.AttributeKey.stringKey;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import com.google.api.Distribution;
 import com.google.api.LabelDescriptor;
@@ -43,11 +46,19 @@ import com.google.monitoring.v3.SpanContext;
 import com.google.protobuf.InvalidProtocolBufferException;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
 import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableDoubleExemplarData;
 import io.opentelemetry.sdk.metrics.internal.data.ImmutableHistogramData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableHistogramPointData;
 import io.opentelemetry.sdk.metrics.internal.data.ImmutableMetricData;
 import io.opentelemetry.sdk.metrics.internal.data.ImmutableSumData;
 import io.opentelemetry.sdk.metrics.internal.data.ImmutableSummaryData;
+import io.opentelemetry.sdk.metrics.internal.data.exponentialhistogram.ExponentialHistogramBuckets;
+import io.opentelemetry.sdk.metrics.internal.data.exponentialhistogram.ExponentialHistogramPointData;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -273,4 +284,115 @@ public class MetricTranslatorTest {
               }
             });
   }
+
+  @Test
+  public void testMapDistributionKeepsLatestExemplarPerBucket() {
+    HistogramPointData point =
+        ImmutableHistogramPointData.create(
+            0,
+            10,
+            Attributes.empty(),
+            10d,
+            null,
+            null,
+            Arrays.asList(1.0, 5.0),
+            Arrays.asList(2L, 1L, 1L),
+            Arrays.asList(
+                ImmutableDoubleExemplarData.create(Attributes.empty(), 3, aSpanContext, 0.5),
+                ImmutableDoubleExemplarData.create(Attributes.empty(), 2, aSpanContext, 1.0),
+                ImmutableDoubleExemplarData.create(Attributes.empty(), 4, aSpanContext, 2.0),
+                ImmutableDoubleExemplarData.create(Attributes.empty(), 5, aSpanContext, 7.5)));
+
+    Distribution all = MetricTranslator.mapDistribution(point, "projectId").build();
+    Distribution capped = MetricTranslator.mapDistribution(point, "projectId", true).build();
+
+    assertEquals(4, all.getExemplarsCount());
+    assertEquals(3, capped.getExemplarsCount());
+    assertEquals(0.5, capped.getExemplars(0).getValue(), 0);
+    assertEquals(2.0, capped.getExemplars(1).getValue(), 0);
+    assertEquals(7.5, capped.getExemplars(2).getValue(), 0);
+  }
+
+  @Test
+  public void testMapDistributionSpanNamesFollowProject() throws InvalidProtocolBufferException {
+    MetricTranslator.mapDistribution(aHistogramPoint, "first");
+    Distribution result = MetricTranslator.mapDistribution(aHistogramPoint, "second").build();
+
+    SpanContext spanContext = result.getExemplars(0).getAttachments(0).unpack(SpanContext.class);
+    assertEquals(
+        "projects/second/traces/" + FakeData.aTraceId + "/spans/" + FakeData.aSpanId,
+        spanContext.getSpanName());
+  }
+
+  private static ExponentialHistogramBuckets aBuckets(int offset, List<Long> counts) {
+    ExponentialHistogramBuckets buckets = mock(ExponentialHistogramBuckets.class);
+    when(buckets.getOffset()).thenReturn(offset);
+    when(buckets.getBucketCounts()).thenReturn(counts);
+    when(buckets.getTotalCount()).thenReturn(counts.stream().mapToLong(Long::longValue).sum());
+    return buckets;
+  }
+
+  @Test
+  public void testMapExponentialDistribution() {
+    ExponentialHistogramPointData point = mock(ExponentialHistogramPointData.class);
+    when(point.getScale()).thenReturn(1);
+    when(point.getSum()).thenReturn(20d);
+    when(point.getCount()).thenReturn(10L);
+    when(point.getZeroCount()).thenReturn(1L);
+    when(point.getPositiveBuckets()).thenReturn(aBuckets(2, Arrays.asList(3L, 0L, 4L)));
+    when(point.getNegativeBuckets()).thenReturn(aBuckets(0, Arrays.asList(2L)));
+    when(point.getExemplars()).thenReturn(Collections.emptyList());
+
+    Distribution result = MetricTranslator.mapDistribution(point, "projectId").build();
+
+    Distribution.BucketOptions.Exponential buckets =
+        result.getBucketOptions().getExponentialBuckets();
+    assertEquals(3, buckets.getNumFiniteBuckets());
+    // base = 2^(2^-1), and the first positive bucket starts at base^2 = 2.
+    assertEquals(Math.sqrt(2), buckets.getGrowthFactor(), 1e-12);
+    assertEquals(2, buckets.getScale(), 1e-12);
+    assertEquals(10, result.getCount());
+    assertEquals(2, result.getMean(), 0);
+    // Zero and negative values underflow; the empty overflow bucket is omitted.
+    assertEquals(Arrays.asList(3L, 3L, 0L, 4L), result.getBucketCountsList());
+  }
+
+  @Test
+  public void testMapEmptyExponentialDistribution() {
+    ExponentialHistogramPointData point = mock(ExponentialHistogramPointData.class);
+    when(point.getScale()).thenReturn(0);
+    when(point.getPositiveBuckets()).thenReturn(aBuckets(0, Collections.emptyList()));
+    when(point.getNegativeBuckets()).thenReturn(aBuckets(0, Collections.emptyList()));
+    when(point.getExemplars()).thenReturn(Collections.emptyList());
+
+    Distribution result = MetricTranslator.mapDistribution(point, "projectId").build();
+
+    assertEquals(1, result.getBucketOptions().getExponentialBuckets().getNumFiniteBuckets());
+    assertEquals(2, result.getBucketOptions().getExponentialBuckets().getGrowthFactor(), 0);
+    assertEquals(0, result.getMean(), 0);
+    assertEquals(Arrays.asList(0L), result.getBucketCountsList());
+  }
+
+  @Test
+  public void testMapExponentialDistributionAtLowestScale() {
+    ExponentialHistogramPointData point = mock(ExponentialHistogramPointData.class);
+    // base = 2^1024 is not a finite double.
+    when(point.getScale()).thenReturn(-10);
+    when(point.getSum()).thenReturn(10d);
+    when(point.getCount()).thenReturn(5L);
+    when(point.getZeroCount()).thenReturn(1L);
+    when(point.getPositiveBuckets()).thenReturn(aBuckets(-1, Arrays.asList(1L, 2L)));
+    when(point.getNegativeBuckets()).thenReturn(aBuckets(0, Arrays.asList(1L)));
+    when(point.getExemplars()).thenReturn(Collections.emptyList());
+
+    Distribution result = MetricTranslator.mapDistribution(point, "projectId").build();
+
+    // Buckets (2^-1024, 1] and (1, 2^1024]: the latter upper bound overflows a double.
+    assertEquals(
+        Arrays.asList(Math.pow(2, -1024), 1d),
+        result.getBucketOptions().getExplicitBuckets().getBoundsList());
+    assertEquals(Arrays.asList(2L, 1L, 2L), result.getBucketCountsList());
+    assertEquals(5, result.getCount());
+    assertEquals(2, result.getMean(), 0);
+  }
 }
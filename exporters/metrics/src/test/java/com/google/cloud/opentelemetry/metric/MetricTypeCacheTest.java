@@ -0,0 +1,44 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MetricTypeCacheTest {
+
+  @Test
+  public void testPrefixesCustomInstruments() {
+    MetricTypeCache types = new MetricTypeCache("workload.googleapis.com/");
+
+    String type = types.metricType("requests");
+
+    assertEquals("workload.googleapis.com/requests", type);
+    assertSame(type, types.metricType("requests"));
+  }
+
+  @Test
+  public void testKeepsInstrumentsInKnownDomains() {
+    String name = "kubernetes.io/container/cpu/core_usage_time";
+
+    assertEquals(name, MetricTypeCache.DEFAULT.metricType(name));
+  }
+}
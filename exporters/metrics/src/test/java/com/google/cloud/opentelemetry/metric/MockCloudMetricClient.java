@@ -16,6 +16,7 @@
 package com.google.cloud.opentelemetry.metric;
 
 import com.google.api.MetricDescriptor;
+import com.google.api.core.ApiFuture;
 import com.google.api.gax.core.NoCredentialsProvider;
 import com.google.api.gax.grpc.GrpcTransportChannel;
 import com.google.api.gax.rpc.FixedTransportChannelProvider;
@@ -25,6 +26,7 @@ import com.google.monitoring.v3.CreateMetricDescriptorRequest;
 import com.google.monitoring.v3.CreateTimeSeriesRequest;
 import com.google.monitoring.v3.ProjectName;
 import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.Empty;
 import io.grpc.ManagedChannelBuilder;
 import java.io.IOException;
 import java.util.List;
@@ -50,6 +52,11 @@ class MockCloudMetricClient implements CloudMetricClient {
     return stub.createMetricDescriptorCallable().call(request);
   }
 
+  public final ApiFuture<MetricDescriptor> createMetricDescriptorAsync(
+      CreateMetricDescriptorRequest request) {
+    return stub.createMetricDescriptorCallable().futureCall(request);
+  }
+
   public final void createTimeSeries(ProjectName name, List<TimeSeries> timeSeries) {
     CreateTimeSeriesRequest request =
         CreateTimeSeriesRequest.newBuilder()
@@ -59,6 +66,16 @@ class MockCloudMetricClient implements CloudMetricClient {
     stub.createTimeSeriesCallable().call(request);
   }
 
+  public final ApiFuture<Empty> createTimeSeriesAsync(
+      ProjectName name, List<TimeSeries> timeSeries) {
+    CreateTimeSeriesRequest request =
+        CreateTimeSeriesRequest.newBuilder()
+            .setName(name.toString())
+            .addAllTimeSeries(timeSeries)
+            .build();
+    return stub.createTimeSeriesCallable().futureCall(request);
+  }
+
   public final void shutdown() {
     // Empty because not being tested
   }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.FakeData.aGceResource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.api.MonitoredResource;
+import io.opentelemetry.sdk.resources.Resource;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MonitoredResourceCacheTest {
+
+  @Test
+  public void testTranslatesEachResourceOnce() {
+    MonitoredResourceCache cache = new MonitoredResourceCache();
+    MonitoredResource first = cache.get(aGceResource);
+    assertEquals(ResourceTranslator.mapResource(aGceResource), first);
+    assertSame(first, cache.get(aGceResource));
+  }
+
+  @Test
+  public void testDistinctResourcesAreTranslatedSeparately() {
+    MonitoredResourceCache cache = new MonitoredResourceCache();
+    Resource other = Resource.empty();
+    assertEquals(ResourceTranslator.mapResource(aGceResource), cache.get(aGceResource));
+    assertEquals(ResourceTranslator.mapResource(other), cache.get(other));
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import com.google.api.LabelDescriptor;
+import com.google.api.MetricDescriptor;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class PersistentDescriptorStrategyTest {
+
+  private static final MetricDescriptor aDescriptor =
+      MetricDescriptor.newBuilder()
+          .setType("custom.googleapis.com/OpenTelemetry/test")
+          .setDescription("A test metric")
+          .build();
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path registry;
+  private final List<MetricDescriptor> exported = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    registry = folder.getRoot().toPath().resolve("descriptors");
+  }
+
+  @Test
+  public void testSkipsDescriptorsCreatedBeforeRestart() {
+    export(MetricDescriptorStrategy.persistent(registry), aDescriptor);
+    export(MetricDescriptorStrategy.persistent(registry), aDescriptor);
+
+    assertEquals(Collections.singletonList(aDescriptor), exported);
+  }
+
+  @Test
+  public void testResendsChangedDescriptors() {
+    MetricDescriptor changed = aDescriptor.toBuilder().setUnit("ms").build();
+
+    export(MetricDescriptorStrategy.persistent(registry), aDescriptor);
+    export(MetricDescriptorStrategy.persistent(registry), changed);
+    export(MetricDescriptorStrategy.persistent(registry), changed);
+
+    assertEquals(2, exported.size());
+    assertEquals(changed, exported.get(1));
+  }
+
+  @Test
+  public void testSkipsDescriptorsWithKnownLabelsAfterRestart() {
+    MetricDescriptor withBoth = withLabels(aDescriptor, "method", "status");
+    MetricDescriptor withOne = withLabels(aDescriptor, "status");
+
+    export(MetricDescriptorStrategy.persistent(registry), withBoth);
+    export(MetricDescriptorStrategy.persistent(registry), withOne);
+    export(MetricDescriptorStrategy.persistent(registry), withBoth);
+
+    assertEquals(Collections.singletonList(withBoth), exported);
+  }
+
+  @Test
+  public void testResendsDescriptorsWithNewLabels() {
+    MetricDescriptorStrategy strategy = MetricDescriptorStrategy.persistent(registry);
+    MetricDescriptor withMethod = withLabels(aDescriptor, "method");
+    MetricDescriptor withStatus = withLabels(aDescriptor, "status");
+
+    export(strategy, withMethod);
+    export(strategy, withStatus);
+    export(strategy, withMethod);
+    export(MetricDescriptorStrategy.persistent(registry), withStatus);
+
+    assertEquals(Arrays.asList(withMethod, withStatus), exported);
+  }
+
+  @Test
+  public void testKeysDescriptorsByProject() {
+    MetricDescriptorStrategy strategy = MetricDescriptorStrategy.persistent(registry);
+
+    strategy.exportDescriptors(
+        "first", Collections.singleton(aDescriptor), exported::add, desc -> null);
+    strategy.exportDescriptors(
+        "second", Collections.singleton(aDescriptor), exported::add, desc -> null);
+
+    assertEquals(2, exported.size());
+  }
+
+  @Test
+  public void testDoesNotRecordFailedCreations() {
+    MetricDescriptorStrategy strategy = MetricDescriptorStrategy.persistent(registry);
+
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            strategy.exportDescriptors(
+                "project",
+                Collections.singleton(aDescriptor),
+                desc -> {
+                  throw new IllegalStateException("unavailable");
+                },
+                desc -> null));
+    export(MetricDescriptorStrategy.persistent(registry), aDescriptor);
+
+    assertEquals(Collections.singletonList(aDescriptor), exported);
+  }
+
+  @Test
+  public void testIgnoresTruncatedRegistryLines() throws IOException {
+    Files.write(
+        registry, ("project\t" + aDescriptor.getType() + "\n").getBytes(StandardCharsets.UTF_8));
+
+    export(MetricDescriptorStrategy.persistent(registry), aDescriptor);
+
+    assertEquals(Collections.singletonList(aDescriptor), exported);
+  }
+
+  private static MetricDescriptor withLabels(MetricDescriptor descriptor, String... keys) {
+    MetricDescriptor.Builder builder = descriptor.toBuilder();
+    for (String key : keys) {
+      builder.addLabels(LabelDescriptor.newBuilder().setKey(key));
+    }
+    return builder.build();
+  }
+
+  private void export(MetricDescriptorStrategy strategy, MetricDescriptor descriptor) {
+    strategy.exportDescriptors(
+        "project", Collections.singleton(descriptor), exported::add, desc -> null);
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.WriteFailuresTest.aFailure;
+import static com.google.cloud.opentelemetry.metric.WriteFailuresTest.aPartialFailure;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.Metric;
+import com.google.api.core.ApiFutures;
+import com.google.common.collect.ImmutableList;
+import com.google.monitoring.v3.ProjectName;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.Empty;
+import io.grpc.Status;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+@RunWith(JUnit4.class)
+public class RetryingTimeSeriesWriterTest {
+
+  private static final ProjectName PROJECT = ProjectName.of("project");
+
+  private CloudMetricClient client;
+  private RetryingTimeSeriesWriter writer;
+
+  private static TimeSeries aSeries(String id) {
+    return TimeSeries.newBuilder()
+        .setMetric(Metric.newBuilder().setType("custom.googleapis.com/test").putLabels("id", id))
+        .build();
+  }
+
+  @Before
+  public void setUp() {
+    client = mock(CloudMetricClient.class);
+    writer = new RetryingTimeSeriesWriter(client, 3, 0, 0);
+  }
+
+  @Test
+  public void testRetriesTransientFailures() {
+    List<TimeSeries> batch = ImmutableList.of(aSeries("a"), aSeries("b"));
+    doThrow(aFailure(Status.Code.UNAVAILABLE))
+        .doNothing()
+        .when(client)
+        .createTimeSeries(PROJECT, batch);
+
+    assertTrue(writer.write(PROJECT, batch));
+    verify(client, times(2)).createTimeSeries(PROJECT, batch);
+  }
+
+  @Test
+  public void testDoesNotRetryPermanentFailures() {
+    doThrow(aFailure(Status.Code.INVALID_ARGUMENT)).when(client).createTimeSeries(any(), any());
+
+    assertFalse(writer.write(PROJECT, ImmutableList.of(aSeries("a"))));
+    verify(client, times(1)).createTimeSeries(any(), any());
+  }
+
+  @Test
+  public void testGivesUpAfterMaxAttempts() {
+    doThrow(aFailure(Status.Code.UNAVAILABLE)).when(client).createTimeSeries(any(), any());
+
+    assertFalse(writer.write(PROJECT, ImmutableList.of(aSeries("a"))));
+    verify(client, times(3)).createTimeSeries(any(), any());
+  }
+
+  @Test
+  public void testResendsOnlyRejectedSeries() {
+    List<TimeSeries> batch = ImmutableList.of(aSeries("a"), aSeries("b"), aSeries("c"));
+    doThrow(aPartialFailure(Status.Code.UNAVAILABLE, "Internal error: timeSeries[1]"))
+        .when(client)
+        .createTimeSeries(PROJECT, batch);
+    doNothing().when(client).createTimeSeries(PROJECT, ImmutableList.of(aSeries("b")));
+
+    assertTrue(writer.write(PROJECT, batch));
+    verify(client).createTimeSeries(PROJECT, ImmutableList.of(aSeries("b")));
+  }
+
+  @Test
+  public void testRetriesAsynchronously() throws Exception {
+    List<TimeSeries> batch = ImmutableList.of(aSeries("a"));
+    when(client.createTimeSeriesAsync(PROJECT, batch))
+        .thenReturn(ApiFutures.immediateFailedFuture(aFailure(Status.Code.UNAVAILABLE)))
+        .thenReturn(ApiFutures.immediateFuture(Empty.getDefaultInstance()));
+
+    writer.writeAsync(PROJECT, batch).get(10, TimeUnit.SECONDS);
+    ArgumentCaptor<ProjectName> project = ArgumentCaptor.forClass(ProjectName.class);
+    verify(client, times(2)).createTimeSeriesAsync(project.capture(), any());
+    assertEquals(PROJECT, project.getValue());
+    writer.shutdown();
+  }
+
+  @Test
+  public void testBackoffGrowsWithinBounds() {
+    RetryingTimeSeriesWriter backoffWriter = new RetryingTimeSeriesWriter(client, 5, 100, 1000);
+    for (int i = 0; i < 100; i++) {
+      long first = backoffWriter.backoffNanos(1);
+      long third = backoffWriter.backoffNanos(3);
+      long tenth = backoffWriter.backoffNanos(10);
+      assertTrue(first >= 50 && first <= 100);
+      assertTrue(third >= 200 && third <= 400);
+      assertTrue(tenth >= 500 && tenth <= 1000);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.FakeData.aLongPoint;
+import static com.google.cloud.opentelemetry.metric.FakeData.aMetricData;
+import static com.google.cloud.opentelemetry.metric.FakeData.aProjectId;
+import static io.opentelemetry.api.common.AttributeKey.stringKey;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.MetricDescriptor;
+import com.google.monitoring.v3.TimeSeries;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableLongPointData;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class StreamingMetricTimeSeriesBuilderTest {
+
+  @Test
+  public void testHandsOffFullBatches() {
+    List<List<MetricDescriptor>> descriptorBatches = new ArrayList<>();
+    List<List<TimeSeries>> batches = new ArrayList<>();
+    StreamingMetricTimeSeriesBuilder builder =
+        new StreamingMetricTimeSeriesBuilder(
+            aProjectId,
+            new MetricDescriptorCache(),
+            new TimeSeriesHeaderTable(new MonitoredResourceCache()),
+            (descriptors, batch) -> {
+              descriptorBatches.add(new ArrayList<>(descriptors));
+              batches.add(batch);
+            });
+
+    int pointCount = TimeSeriesBatcher.MAX_BATCH_SIZE * 2 + 50;
+    for (int i = 0; i < pointCount; i++) {
+      builder.recordPoint(
+          aMetricData,
+          ImmutableLongPointData.create(
+              aLongPoint.getStartEpochNanos(),
+              aLongPoint.getEpochNanos(),
+              Attributes.of(stringKey("id"), "series" + i),
+              i));
+    }
+
+    assertEquals(2, batches.size());
+    assertEquals(TimeSeriesBatcher.MAX_BATCH_SIZE, batches.get(0).size());
+    assertEquals(TimeSeriesBatcher.MAX_BATCH_SIZE, batches.get(1).size());
+    assertEquals(
+        "Descriptor is handed off with the first batch", 1, descriptorBatches.get(0).size());
+    assertTrue(descriptorBatches.get(1).isEmpty());
+    assertTrue(builder.getDescriptors().isEmpty());
+    assertEquals(50, builder.getTimeSeries().size());
+    assertEquals(1, batches.get(0).get(0).getPointsCount());
+  }
+}
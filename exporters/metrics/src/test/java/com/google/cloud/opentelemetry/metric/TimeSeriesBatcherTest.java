@@ -0,0 +1,120 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.Metric;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.CodedOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TimeSeriesBatcherTest {
+
+  private static TimeSeries aSeries(String id, long value) {
+    return TimeSeries.newBuilder()
+        .setMetric(Metric.newBuilder().setType("custom.googleapis.com/test").putLabels("id", id))
+        .addPoints(Point.newBuilder().setValue(TypedValue.newBuilder().setInt64Value(value)))
+        .build();
+  }
+
+  @Test
+  public void testSplitsBySeriesCount() {
+    List<List<TimeSeries>> batches = new ArrayList<>();
+    TimeSeriesBatcher batcher = new TimeSeriesBatcher(batches::add);
+    for (int i = 0; i < 450; i++) {
+      batcher.add(aSeries("series" + i, i));
+    }
+    assertEquals(2, batches.size());
+    batcher.flush();
+    assertEquals(3, batches.size());
+    assertEquals(TimeSeriesBatcher.MAX_BATCH_SIZE, batches.get(0).size());
+    assertEquals(50, batches.get(2).size());
+  }
+
+  @Test
+  public void testSplitsBySerializedSize() {
+    List<List<TimeSeries>> batches = new ArrayList<>();
+    int seriesBytes = aSeries("series0", 0).getSerializedSize();
+    TimeSeriesBatcher batcher = new TimeSeriesBatcher(batches::add, seriesBytes * 5);
+    for (int i = 0; i < 10; i++) {
+      batcher.add(aSeries("series" + i, i));
+    }
+    batcher.flush();
+    assertTrue("Expected the byte budget to split the batch", batches.size() > 2);
+    for (List<TimeSeries> batch : batches) {
+      int bytes = 0;
+      for (TimeSeries series : batch) {
+        bytes += series.getSerializedSize();
+      }
+      assertTrue(bytes <= seriesBytes * 5);
+    }
+  }
+
+  @Test
+  public void testKeepsDuplicateSeriesInSeparateBatches() {
+    List<List<TimeSeries>> batches = new ArrayList<>();
+    TimeSeriesBatcher batcher = new TimeSeriesBatcher(batches::add);
+    batcher.add(aSeries("a", 1));
+    batcher.add(aSeries("b", 1));
+    batcher.add(aSeries("a", 2));
+    batcher.flush();
+    assertEquals(2, batches.size());
+    assertEquals(2, batches.get(0).size());
+    assertEquals(1, batches.get(1).size());
+    assertEquals(2, batches.get(1).get(0).getPoints(0).getValue().getInt64Value());
+  }
+
+  @Test
+  public void testSendsEarlierBatchesBeforeALaterFullOne() {
+    List<List<TimeSeries>> batches = new ArrayList<>();
+    TimeSeries small = aSeries("a", 1);
+    TimeSeries large = withPoints(aSeries("a", 2), 10);
+    TimeSeriesBatcher batcher =
+        new TimeSeriesBatcher(batches::add, requestBytes(small) + requestBytes(large));
+    batcher.add(small);
+    batcher.add(large);
+    // The first batch already holds the series and the second has no room left for it.
+    batcher.add(withPoints(aSeries("a", 3), 2));
+    batcher.flush();
+    assertEquals(3, batches.size());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i + 1, batches.get(i).get(0).getPoints(0).getValue().getInt64Value());
+    }
+  }
+
+  private static TimeSeries withPoints(TimeSeries series, int count) {
+    TimeSeries.Builder builder = series.toBuilder();
+    while (builder.getPointsCount() < count) {
+      builder.addPoints(series.getPoints(0));
+    }
+    return builder.build();
+  }
+
+  private static int requestBytes(TimeSeries series) {
+    return CodedOutputStream.computeMessageSize(
+        CreateTimeSeriesRequest.TIME_SERIES_FIELD_NUMBER, series);
+  }
+}
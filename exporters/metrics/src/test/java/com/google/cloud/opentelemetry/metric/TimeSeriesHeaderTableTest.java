@@ -0,0 +1,88 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.FakeData.aGceResource;
+import static com.google.cloud.opentelemetry.metric.FakeData.aLongPoint;
+import static com.google.cloud.opentelemetry.metric.FakeData.aMetricData;
+import static com.google.cloud.opentelemetry.metric.FakeData.anInstrumentationLibraryInfo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.api.MetricDescriptor;
+import com.google.monitoring.v3.TimeSeries;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableMetricData;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.semconv.resource.attributes.ResourceAttributes;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TimeSeriesHeaderTableTest {
+
+  private static final MetricDescriptor aDescriptor =
+      MetricTranslator.mapMetricDescriptor(aMetricData, aLongPoint);
+
+  @Test
+  public void testReusesHeaderAcrossCycles() {
+    TimeSeriesHeaderTable table = new TimeSeriesHeaderTable(new MonitoredResourceCache());
+    TimeSeries header = table.get(aMetricData, aLongPoint.getAttributes(), aDescriptor);
+    assertEquals(
+        MetricTranslator.mapMetric(aLongPoint.getAttributes(), aDescriptor.getType()),
+        header.getMetric());
+    assertEquals(0, header.getPointsCount());
+    table.endCycle();
+    assertSame(header, table.get(aMetricData, aLongPoint.getAttributes(), aDescriptor));
+  }
+
+  @Test
+  public void testKeepsHeadersOfEachResource() {
+    TimeSeriesHeaderTable table = new TimeSeriesHeaderTable(new MonitoredResourceCache());
+    MetricData otherProject =
+        ImmutableMetricData.createLongSum(
+            aGceResource.merge(
+                Resource.create(
+                    Attributes.of(ResourceAttributes.CLOUD_ACCOUNT_ID, "other-project"))),
+            anInstrumentationLibraryInfo,
+            aMetricData.getName(),
+            aMetricData.getDescription(),
+            aMetricData.getUnit(),
+            aMetricData.getLongSumData());
+
+    TimeSeries header = table.get(aMetricData, aLongPoint.getAttributes(), aDescriptor);
+    TimeSeries otherHeader = table.get(otherProject, aLongPoint.getAttributes(), aDescriptor);
+
+    assertNotEquals(header.getResource(), otherHeader.getResource());
+    assertSame(header, table.get(aMetricData, aLongPoint.getAttributes(), aDescriptor));
+    assertSame(otherHeader, table.get(otherProject, aLongPoint.getAttributes(), aDescriptor));
+    assertEquals(2, table.size());
+  }
+
+  @Test
+  public void testEvictsIdleSeries() {
+    TimeSeriesHeaderTable table = new TimeSeriesHeaderTable(new MonitoredResourceCache(), 2);
+    table.get(aMetricData, aLongPoint.getAttributes(), aDescriptor);
+    table.endCycle();
+    table.endCycle();
+    assertEquals("Series idle for one cycle should be kept", 1, table.size());
+    table.endCycle();
+    assertEquals("Series idle for two cycles should be evicted", 0, table.size());
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.Metric;
+import com.google.common.collect.ImmutableList;
+import com.google.monitoring.v3.ProjectName;
+import com.google.monitoring.v3.TimeSeries;
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TimeSeriesSpoolTest {
+
+  private static final ProjectName PROJECT = ProjectName.of("project");
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+
+  private static TimeSeries aSeries(String id) {
+    return TimeSeries.newBuilder()
+        .setMetric(Metric.newBuilder().setType("custom.googleapis.com/test").putLabels("id", id))
+        .build();
+  }
+
+  private static String idOf(TimeSeriesSpool.Head head) {
+    return head.getRequest().getTimeSeries(0).getMetric().getLabelsOrThrow("id");
+  }
+
+  @Before
+  public void setUp() {
+    directory = folder.getRoot().toPath().resolve("spool");
+  }
+
+  @Test
+  public void testReplaysInOrderAcrossSegments() throws IOException {
+    TimeSeriesSpool spool = new TimeSeriesSpool(directory, 1024 * 1024, 256);
+    for (int i = 0; i < 20; i++) {
+      assertTrue(spool.append(PROJECT, ImmutableList.of(aSeries("series" + i))));
+    }
+
+    for (int i = 0; i < 20; i++) {
+      TimeSeriesSpool.Head head = spool.peek();
+      assertEquals(PROJECT.toString(), head.getRequest().getName());
+      assertEquals("series" + i, idOf(head));
+      assertTrue(spool.remove(head));
+    }
+    assertNull(spool.peek());
+    assertTrue(spool.isEmpty());
+    // Consumed segments are deleted, except the one still being appended to.
+    assertEquals(256, spool.sizeInBytes());
+  }
+
+  @Test
+  public void testReplacesHeadInPlace() throws IOException {
+    TimeSeriesSpool spool = new TimeSeriesSpool(directory, 1024 * 1024, 256);
+    spool.append(PROJECT, ImmutableList.of(aSeries("a"), aSeries("b"), aSeries("c")));
+    spool.append(PROJECT, ImmutableList.of(aSeries("d")));
+
+    assertTrue(spool.replace(spool.peek(), PROJECT, ImmutableList.of(aSeries("b"))));
+
+    TimeSeriesSpool reopened = new TimeSeriesSpool(directory, 1024 * 1024, 256);
+    for (TimeSeriesSpool queue : ImmutableList.of(spool, reopened)) {
+      TimeSeriesSpool.Head head = queue.peek();
+      assertEquals(1, head.getRequest().getTimeSeriesCount());
+      assertEquals("b", idOf(head));
+    }
+    reopened.remove(reopened.peek());
+    assertEquals("d", idOf(reopened.peek()));
+  }
+
+  @Test
+  public void testEvictsOldestSegmentsWhenFull() throws IOException {
+    TimeSeriesSpool spool = new TimeSeriesSpool(directory, 512, 256);
+    for (int i = 0; i < 20; i++) {
+      spool.append(PROJECT, ImmutableList.of(aSeries("series" + i)));
+    }
+
+    assertTrue(spool.sizeInBytes() <= 512);
+    assertFalse("Oldest batches were dropped", "series0".equals(idOf(spool.peek())));
+    String last = null;
+    while (spool.peek() != null) {
+      last = idOf(spool.peek());
+      spool.remove(spool.peek());
+    }
+    assertEquals("series19", last);
+  }
+
+  @Test
+  public void testLeavesRecordsAloneOnceTheirHeadWasEvicted() throws IOException {
+    TimeSeriesSpool spool = new TimeSeriesSpool(directory, 512, 256);
+    spool.append(PROJECT, ImmutableList.of(aSeries("series0")));
+    TimeSeriesSpool.Head head = spool.peek();
+    // Fills the spool until the segment holding the head is evicted.
+    for (int i = 1; i < 20; i++) {
+      spool.append(PROJECT, ImmutableList.of(aSeries("series" + i)));
+    }
+    String oldest = idOf(spool.peek());
+
+    assertFalse(spool.remove(head));
+    assertFalse(spool.replace(head, PROJECT, ImmutableList.of(aSeries("replaced"))));
+    assertEquals(oldest, idOf(spool.peek()));
+  }
+
+  @Test
+  public void testRejectsBatchesLargerThanLimit() throws IOException {
+    TimeSeriesSpool spool = new TimeSeriesSpool(directory, 64, 64);
+
+    assertFalse(
+        spool.append(
+            PROJECT, ImmutableList.of(aSeries("a"), aSeries("b"), aSeries("c"), aSeries("d"))));
+    assertTrue(spool.isEmpty());
+  }
+
+  @Test
+  public void testResumesWithFirstUnconsumedBatchAfterReopen() throws IOException {
+    TimeSeriesSpool spool = new TimeSeriesSpool(directory, 1024 * 1024, 256);
+    for (int i = 0; i < 10; i++) {
+      spool.append(PROJECT, ImmutableList.of(aSeries("series" + i)));
+    }
+    for (int i = 0; i < 3; i++) {
+      spool.remove(spool.peek());
+    }
+
+    TimeSeriesSpool reopened = new TimeSeriesSpool(directory, 1024 * 1024, 256);
+    assertEquals("series3", idOf(reopened.peek()));
+    reopened.append(PROJECT, ImmutableList.of(aSeries("series10")));
+    String last = null;
+    int count = 0;
+    while (reopened.peek() != null) {
+      last = idOf(reopened.peek());
+      reopened.remove(reopened.peek());
+      count++;
+    }
+    assertEquals(8, count);
+    assertEquals("series10", last);
+  }
+}
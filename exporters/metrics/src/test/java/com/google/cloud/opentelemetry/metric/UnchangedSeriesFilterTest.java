@@ -0,0 +1,91 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableDoublePointData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableLongPointData;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class UnchangedSeriesFilterTest {
+
+  private static final long STALENESS = TimeUnit.MINUTES.toNanos(5);
+
+  @Test
+  public void testValueHashCoversValueAndStartTime() {
+    long hash = longValueHash(0, 1, 5);
+
+    assertEquals(hash, longValueHash(0, 2, 5));
+    assertNotEquals(hash, longValueHash(0, 2, 6));
+    assertNotEquals(hash, longValueHash(1, 2, 5));
+    assertNotEquals(
+        UnchangedSeriesFilter.valueHash(
+            ImmutableDoublePointData.create(0, 1, Attributes.empty(), 0.5)),
+        UnchangedSeriesFilter.valueHash(
+            ImmutableDoublePointData.create(0, 1, Attributes.empty(), 0.25)));
+  }
+
+  @Test
+  public void testSkipsUnchangedValuesWithinStaleness() {
+    UnchangedSeriesFilter filter = new UnchangedSeriesFilter(STALENESS);
+
+    assertFalse(filter.isUnchanged(1, 42, 0));
+    filter.recordWrite(1, 42, 0);
+
+    assertTrue(filter.isUnchanged(1, 42, STALENESS - 1));
+    assertFalse(filter.isUnchanged(1, 43, STALENESS - 1));
+    assertFalse(filter.isUnchanged(2, 42, STALENESS - 1));
+    assertFalse(filter.isUnchanged(1, 42, STALENESS));
+  }
+
+  @Test
+  public void testIgnoresWritesRecordedOutOfOrder() {
+    UnchangedSeriesFilter filter = new UnchangedSeriesFilter(STALENESS);
+
+    filter.recordWrite(1, 42, 10);
+    filter.recordWrite(1, 43, 5);
+
+    assertTrue(filter.isUnchanged(1, 42, 11));
+  }
+
+  @Test
+  public void testPruneForgetsOnlyStaleSeries() {
+    UnchangedSeriesFilter filter = new UnchangedSeriesFilter(STALENESS);
+    for (long series = 1; series <= 2000; series++) {
+      filter.recordWrite(series, 42, 0);
+    }
+    filter.recordWrite(1, 42, STALENESS);
+    filter.prune();
+
+    assertEquals(1, filter.size());
+    assertTrue(filter.isUnchanged(1, 42, STALENESS + 1));
+    assertFalse(filter.isUnchanged(2, 42, STALENESS + 1));
+  }
+
+  private static long longValueHash(long startEpochNanos, long epochNanos, long value) {
+    return UnchangedSeriesFilter.valueHash(
+        ImmutableLongPointData.create(startEpochNanos, epochNanos, Attributes.empty(), value));
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiExceptionFactory;
+import com.google.monitoring.v3.CreateTimeSeriesSummary;
+import com.google.protobuf.Any;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.protobuf.StatusProto;
+import java.util.BitSet;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class WriteFailuresTest {
+
+  static RuntimeException aFailure(Status.Code code) {
+    return ApiExceptionFactory.createException(
+        new StatusRuntimeException(Status.fromCode(code)), GrpcStatusCode.of(code), false);
+  }
+
+  static RuntimeException aPartialFailure(Status.Code errorCode, String message) {
+    return aPartialFailure(message, errorCode);
+  }
+
+  static RuntimeException aPartialFailure(String message, Status.Code... errorCodes) {
+    CreateTimeSeriesSummary.Builder summary =
+        CreateTimeSeriesSummary.newBuilder()
+            .setTotalPointCount(4)
+            .setSuccessPointCount(4 - errorCodes.length);
+    for (Status.Code errorCode : errorCodes) {
+      summary.addErrors(
+          CreateTimeSeriesSummary.Error.newBuilder()
+              .setStatus(com.google.rpc.Status.newBuilder().setCode(errorCode.value()))
+              .setPointCount(1));
+    }
+    com.google.rpc.Status status =
+        com.google.rpc.Status.newBuilder()
+            .setCode(Status.Code.INVALID_ARGUMENT.value())
+            .setMessage(message)
+            .addDetails(Any.pack(summary.build()))
+            .build();
+    return ApiExceptionFactory.createException(
+        StatusProto.toStatusRuntimeException(status),
+        GrpcStatusCode.of(Status.Code.INVALID_ARGUMENT),
+        false);
+  }
+
+  private static BitSet bits(int... indices) {
+    BitSet bits = new BitSet();
+    for (int index : indices) {
+      bits.set(index);
+    }
+    return bits;
+  }
+
+  @Test
+  public void testWholeRequestFailures() {
+    assertEquals(bits(0, 1, 2), WriteFailures.seriesToRetry(aFailure(Status.Code.UNAVAILABLE), 3));
+    assertEquals(
+        bits(0, 1, 2), WriteFailures.seriesToRetry(aFailure(Status.Code.DEADLINE_EXCEEDED), 3));
+    assertNull(WriteFailures.seriesToRetry(aFailure(Status.Code.INVALID_ARGUMENT), 3));
+    assertNull(WriteFailures.seriesToRetry(aFailure(Status.Code.PERMISSION_DENIED), 3));
+    assertNull(WriteFailures.seriesToRetry(new RuntimeException("not an RPC"), 3));
+  }
+
+  @Test
+  public void testPartialFailureSelectsOnlyRejectedSeries() {
+    RuntimeException error =
+        aPartialFailure(
+            Status.Code.UNAVAILABLE,
+            "One or more TimeSeries could not be written: Internal error: timeSeries[1,3]");
+
+    assertEquals(bits(1, 3), WriteFailures.seriesToRetry(error, 4));
+  }
+
+  @Test
+  public void testPartialFailureWithPermanentErrorsIsNotRetried() {
+    RuntimeException error =
+        aPartialFailure(
+            Status.Code.INVALID_ARGUMENT,
+            "One or more TimeSeries could not be written: Points must be written in order: "
+                + "timeSeries[0-1]");
+
+    assertNull(WriteFailures.seriesToRetry(error, 4));
+  }
+
+  @Test
+  public void testPartialFailureWithMixedErrorsIsNotRetried() {
+    RuntimeException error =
+        aPartialFailure(
+            "One or more TimeSeries could not be written: Internal error: timeSeries[1]; "
+                + "Points must be written in order: timeSeries[3]",
+            Status.Code.INTERNAL,
+            Status.Code.INVALID_ARGUMENT);
+
+    assertNull(WriteFailures.seriesToRetry(error, 4));
+  }
+
+  @Test
+  public void testPartialFailureWithoutIndicesIsNotRetried() {
+    RuntimeException error = aPartialFailure(Status.Code.UNAVAILABLE, "Internal error");
+
+    assertNull(WriteFailures.seriesToRetry(error, 4));
+  }
+
+  @Test
+  public void testParsesRejectedSeriesIndices() {
+    assertEquals(
+        bits(0, 1, 2, 5, 7),
+        WriteFailures.rejectedSeries(
+            "Error one: timeSeries[0-2,5]; Field timeSeries[7].points[0] is invalid", 8));
+    // Indices outside the request are ignored.
+    assertEquals(bits(1), WriteFailures.rejectedSeries("timeSeries[1]; timeSeries[9]", 2));
+    assertNull(WriteFailures.rejectedSeries("Permission denied", 2));
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static com.google.cloud.opentelemetry.metric.FakeData.aGceResource;
+import static com.google.cloud.opentelemetry.metric.FakeData.aMetricData;
+import static com.google.cloud.opentelemetry.metric.FakeData.anInstrumentationLibraryInfo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.internal.data.ImmutableMetricData;
+import io.opentelemetry.sdk.resources.Resource;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class WriteIntervalFilterTest {
+
+  private static final long INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+  private static MetricData aMetric(Resource resource, String name) {
+    return ImmutableMetricData.createLongSum(
+        resource,
+        anInstrumentationLibraryInfo,
+        name,
+        "description",
+        "1",
+        aMetricData.getLongSumData());
+  }
+
+  @Test
+  public void testFingerprintIdentifiesSeries() {
+    MetricData metric = aMetric(aGceResource, "metric");
+    Attributes attributes = Attributes.builder().put("a", "b").build();
+    long fingerprint = SeriesFingerprint.of("project", metric, attributes);
+
+    assertEquals(fingerprint, SeriesFingerprint.of("project", metric, attributes));
+    assertNotEquals(
+        fingerprint,
+        SeriesFingerprint.of("project", metric, Attributes.builder().put("a", "c").build()));
+    assertNotEquals(
+        fingerprint,
+        SeriesFingerprint.of("project", metric, Attributes.builder().put("a", 1L).build()));
+    assertNotEquals(
+        fingerprint, SeriesFingerprint.of("project", aMetric(aGceResource, "other"), attributes));
+    assertNotEquals(fingerprint, SeriesFingerprint.of("other", metric, attributes));
+    // Resources reporting the same metric to one project are separate series.
+    assertNotEquals(
+        fingerprint,
+        SeriesFingerprint.of(
+            "project",
+            aMetric(Resource.create(Attributes.builder().put("pod", "b").build()), "metric"),
+            attributes));
+  }
+
+  @Test
+  public void testDropsPointsWithinInterval() {
+    WriteIntervalFilter filter = new WriteIntervalFilter(INTERVAL);
+
+    assertTrue(filter.isDue(1, 0));
+    filter.recordWrite(1, 0);
+    assertTrue(filter.isDue(2, 1));
+    assertFalse(filter.isDue(1, INTERVAL - 1));
+    assertTrue(filter.isDue(1, INTERVAL));
+    filter.recordWrite(1, INTERVAL);
+    assertFalse(filter.isDue(1, INTERVAL + 1));
+  }
+
+  @Test
+  public void testOnlyRecordedWritesBlockPoints() {
+    WriteIntervalFilter filter = new WriteIntervalFilter(INTERVAL);
+
+    assertTrue(filter.isDue(1, 0));
+    // The point was not sent, so the next one is still due.
+    assertTrue(filter.isDue(1, 1));
+    filter.recordWrite(1, INTERVAL);
+    // A write recorded late does not move the last write back.
+    filter.recordWrite(1, 0);
+    assertFalse(filter.isDue(1, INTERVAL + 1));
+  }
+
+  @Test
+  public void testPruneForgetsOnlyExpiredSeries() {
+    WriteIntervalFilter filter = new WriteIntervalFilter(INTERVAL);
+    for (long series = 1; series <= 2000; series++) {
+      filter.recordWrite(series, 0);
+    }
+    filter.recordWrite(1, INTERVAL);
+    filter.prune();
+
+    assertEquals(1, filter.size());
+    assertFalse(filter.isDue(1, INTERVAL + 1));
+    assertTrue(filter.isDue(2, INTERVAL + 1));
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 Google
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.opentelemetry.metric;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class WriteRateLimiterTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void testAllowsBurstsUpToOneSecondOfSeries() {
+    WriteRateLimiter limiter = new WriteRateLimiter(100, 0, 0, 0);
+
+    assertEquals(0, limiter.reserve(60, 0));
+    assertEquals(0, limiter.reserve(40, 0));
+    assertEquals(-1, limiter.reserve(1, 0));
+    assertEquals(0, limiter.reserve(50, SECOND / 2));
+  }
+
+  @Test
+  public void testDelaysBatchesUntilTokensRefill() {
+    WriteRateLimiter limiter = new WriteRateLimiter(0, 2, 10 * SECOND, 0);
+
+    assertEquals(0, limiter.reserve(200, 0));
+    assertEquals(0, limiter.reserve(200, 0));
+    // The bucket is empty; each further request queues half a second behind the previous one.
+    assertEquals(SECOND / 2, limiter.reserve(200, 0));
+    assertEquals(SECOND, limiter.reserve(200, 0));
+    assertEquals(0, limiter.getShedBatches());
+  }
+
+  @Test
+  public void testShedsBatchesThatWouldWaitTooLong() {
+    WriteRateLimiter limiter = new WriteRateLimiter(0, 1, SECOND, 0);
+
+    assertEquals(0, limiter.reserve(200, 0));
+    assertEquals(SECOND, limiter.reserve(200, 0));
+    assertEquals(-1, limiter.reserve(150, 0));
+    assertEquals(1, limiter.getShedBatches());
+    assertEquals(150, limiter.getShedSeries());
+  }
+
+  @Test
+  public void testFullBucketAdmitsBatchLargerThanCapacity() {
+    WriteRateLimiter limiter = new WriteRateLimiter(100, 0, 0, 0);
+
+    assertEquals(0, limiter.reserve(200, 0));
+    assertEquals(-1, limiter.reserve(100, SECOND));
+    assertEquals(0, limiter.reserve(100, 2 * SECOND));
+  }
+}